@@ -0,0 +1,52 @@
+package piuk.blockchain.android.data.api;
+
+import android.content.Context;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.CacheControl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import piuk.blockchain.android.data.connectivity.ConnectivityStatus;
+
+/**
+ * Applies {@link CachePolicy} to requests before they reach the cache. Requests without a policy
+ * are marked no-store so that their responses are never written to disk. Requests with a policy
+ * are allowed to be served from a stale cached response when there's no connectivity, rather than
+ * failing.
+ *
+ * <p>Must be added as an application interceptor.
+ */
+public class CacheControlInterceptor implements Interceptor {
+
+    private static final CacheControl NO_STORE = new CacheControl.Builder().noStore().build();
+
+    private final Context context;
+
+    public CacheControlInterceptor(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        CachePolicy policy = CachePolicy.forRequest(request);
+
+        if (policy == null) {
+            request = request.newBuilder()
+                    .cacheControl(NO_STORE)
+                    .build();
+        } else if (!ConnectivityStatus.hasConnectivity(context)) {
+            request = request.newBuilder()
+                    .cacheControl(new CacheControl.Builder()
+                            .onlyIfCached()
+                            .maxStale((int) policy.getMaxStaleSeconds(), TimeUnit.SECONDS)
+                            .build())
+                    .build();
+        }
+
+        return chain.proceed(request);
+    }
+}
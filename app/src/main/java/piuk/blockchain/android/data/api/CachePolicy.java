@@ -0,0 +1,60 @@
+package piuk.blockchain.android.data.api;
+
+import android.support.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Request;
+
+/**
+ * How long responses from an endpoint may be cached by the shared {@link okhttp3.OkHttpClient}.
+ * Only the public, non-wallet endpoints listed here are ever cached; every other request, including
+ * anything touching a wallet payload, metadata or PIN, is kept out of the cache entirely.
+ */
+public final class CachePolicy {
+
+    private static final Map<String, CachePolicy> POLICIES;
+
+    static {
+        HashMap<String, CachePolicy> policies = new HashMap<>();
+        // Exchange rates, which are refreshed every couple of minutes
+        policies.put("/ticker", new CachePolicy(TimeUnit.MINUTES.toSeconds(1), TimeUnit.DAYS.toSeconds(7)));
+        POLICIES = Collections.unmodifiableMap(policies);
+    }
+
+    private final long maxAgeSeconds;
+    private final long maxStaleSeconds;
+
+    private CachePolicy(long maxAgeSeconds, long maxStaleSeconds) {
+        this.maxAgeSeconds = maxAgeSeconds;
+        this.maxStaleSeconds = maxStaleSeconds;
+    }
+
+    /**
+     * @param request An outgoing request
+     * @return The policy for the request, or null if its response must not be cached. Only GET
+     * requests are ever cached.
+     */
+    @Nullable
+    public static CachePolicy forRequest(Request request) {
+        if (!"GET".equals(request.method())) return null;
+        return POLICIES.get(request.url().encodedPath());
+    }
+
+    /**
+     * @return How long a response stays fresh, after which it is revalidated with the server
+     */
+    public long getMaxAgeSeconds() {
+        return maxAgeSeconds;
+    }
+
+    /**
+     * @return How old a response may be and still be served when there's no connectivity
+     */
+    public long getMaxStaleSeconds() {
+        return maxStaleSeconds;
+    }
+}
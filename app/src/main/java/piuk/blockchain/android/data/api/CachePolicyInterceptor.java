@@ -0,0 +1,32 @@
+package piuk.blockchain.android.data.api;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Gives successful responses from endpoints with a {@link CachePolicy} a max-age, replacing any
+ * caching headers from the server which would otherwise prevent them being stored. Validators such
+ * as ETag and Last-Modified are left in place, so once a response expires the cache revalidates it
+ * with a conditional request and only downloads the body again if it has changed.
+ *
+ * <p>Must be added as a network interceptor so that it sees responses before they are cached.
+ */
+public class CachePolicyInterceptor implements Interceptor {
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        Response response = chain.proceed(request);
+
+        CachePolicy policy = CachePolicy.forRequest(request);
+        if (policy == null || !response.isSuccessful()) return response;
+
+        return response.newBuilder()
+                .removeHeader("Pragma")
+                .header("Cache-Control", "public, max-age=" + policy.getMaxAgeSeconds())
+                .build();
+    }
+}
@@ -1,33 +1,153 @@
 package piuk.blockchain.android.data.cache;
 
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import info.blockchain.api.DynamicFee;
 import info.blockchain.wallet.payment.data.SuggestedFee;
 
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Holds the most recent {@link SuggestedFee} from the dynamic fee API. The fee is considered fresh
+ * for {@link #FEE_TTL_MS}, after which the next request for it triggers a refresh. Concurrent
+ * requests share a single in-flight network call, and {@link #startPeriodicRefresh()} keeps the
+ * cache warm in the background so that the send screen rarely needs to wait.
+ */
 public class DynamicFeeCache {
 
+    private static final String TAG = DynamicFeeCache.class.getSimpleName();
+
+    static final long FEE_TTL_MS = TimeUnit.MINUTES.toMillis(5);
+    // Shorter than the TTL, so that a running refresh never lets the fee go stale
+    private static final long REFRESH_INTERVAL_MS = TimeUnit.MINUTES.toMillis(4);
+
     private static DynamicFeeCache instance;
 
-    private SuggestedFee suggestedFee;
+    private final DynamicFee dynamicFee;
+    private volatile SuggestedFee suggestedFee;
+    private volatile long lastUpdated;
+    private Observable<SuggestedFee> inFlightRequest;
+    private Disposable periodicRefresh;
 
-    private DynamicFeeCache() {
-        // No-op
+    @VisibleForTesting
+    DynamicFeeCache(DynamicFee dynamicFee) {
+        this.dynamicFee = dynamicFee;
     }
 
-    public static DynamicFeeCache getInstance() {
+    public static synchronized DynamicFeeCache getInstance() {
         if (instance == null) {
-            instance = new DynamicFeeCache();
+            instance = new DynamicFeeCache(new DynamicFee());
         }
         return instance;
     }
 
+    /**
+     * @return The last fetched {@link SuggestedFee}, which may be stale, or null if none has been
+     * fetched yet. Never blocks.
+     */
+    @Nullable
     public SuggestedFee getSuggestedFee() {
         return suggestedFee;
     }
 
     public void setSuggestedFee(SuggestedFee suggestedFee) {
         this.suggestedFee = suggestedFee;
+        lastUpdated = currentTimeMillis();
+    }
+
+    /**
+     * @return True if a fee has been fetched within the last {@link #FEE_TTL_MS}
+     */
+    public boolean isFresh() {
+        return suggestedFee != null && currentTimeMillis() - lastUpdated < FEE_TTL_MS;
+    }
+
+    /**
+     * Returns the cached {@link SuggestedFee} immediately if it is fresh, otherwise fetches a new
+     * one. If a fetch is already in progress, its result is shared rather than starting another.
+     * Should the fetch fail, the stale fee is returned if there is one, otherwise the API's default
+     * fee. Work is done on the IO scheduler.
+     *
+     * @return An {@link Observable} emitting a single {@link SuggestedFee}
+     */
+    @NonNull
+    public Observable<SuggestedFee> getFreshSuggestedFee() {
+        SuggestedFee cached = suggestedFee;
+        if (cached != null && isFresh()) {
+            return Observable.just(cached);
+        }
+        return refresh();
+    }
+
+    /**
+     * Starts refreshing the fee in the background at regular intervals, beginning immediately.
+     * Each tick fetches a new fee regardless of the age of the cached one, as skipping a tick while
+     * the fee is fresh would leave it stale until the next. Has no effect if already started.
+     */
+    public synchronized void startPeriodicRefresh() {
+        if (periodicRefresh != null && !periodicRefresh.isDisposed()) return;
+
+        periodicRefresh = Observable.interval(0, REFRESH_INTERVAL_MS, TimeUnit.MILLISECONDS, Schedulers.io())
+                .flatMap(tick -> refresh())
+                .subscribe(
+                        fee -> {
+                            // No-op, result is cached by refresh()
+                        },
+                        throwable -> Log.e(TAG, "startPeriodicRefresh: ", throwable));
+    }
+
+    public synchronized void stopPeriodicRefresh() {
+        if (periodicRefresh != null) {
+            periodicRefresh.dispose();
+            periodicRefresh = null;
+        }
     }
 
     public void destroy() {
-        instance = null;
+        stopPeriodicRefresh();
+        synchronized (DynamicFeeCache.class) {
+            if (instance == this) instance = null;
+        }
+    }
+
+    @VisibleForTesting
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private synchronized Observable<SuggestedFee> refresh() {
+        if (inFlightRequest == null) {
+            inFlightRequest = Observable.fromCallable(this::fetchSuggestedFee)
+                    .subscribeOn(Schedulers.io())
+                    .doFinally(this::clearInFlightRequest)
+                    .cache();
+        }
+        return inFlightRequest;
+    }
+
+    private synchronized void clearInFlightRequest() {
+        inFlightRequest = null;
+    }
+
+    private SuggestedFee fetchSuggestedFee() {
+        try {
+            SuggestedFee fetched = dynamicFee.getDynamicFee();
+            setSuggestedFee(fetched);
+            return fetched;
+        } catch (Exception e) {
+            Log.e(TAG, "fetchSuggestedFee: ", e);
+            // Don't mark anything as fresh, so that the next request tries again
+            if (suggestedFee == null) {
+                suggestedFee = dynamicFee.getDefaultFee();
+            }
+            return suggestedFee;
+        }
     }
 }
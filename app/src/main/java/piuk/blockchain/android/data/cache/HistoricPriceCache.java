@@ -0,0 +1,243 @@
+package piuk.blockchain.android.data.cache;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import info.blockchain.api.ExchangeTicker;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.text.NumberFormat;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
+import io.reactivex.Observable;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Caches historic Bitcoin prices by currency and UTC day, in memory and on disk, so that the
+ * transaction detail screen can show the value of a transaction at the time it was made without a
+ * network call each time it opens, including when offline.
+ *
+ * <p>Each day is fetched once as the price of a whole Bitcoin at midday, and converted to any
+ * amount on that day locally. This means that every transaction on a day shares one request, and
+ * that no transaction amounts are written to disk. Prices for the current day are still moving, so
+ * are fetched for the exact time requested and never cached.
+ */
+public class HistoricPriceCache {
+
+    private static final String TAG = HistoricPriceCache.class.getSimpleName();
+    private static final String FILE_NAME = "historic_prices.json";
+    private static final int VERSION = 1;
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_PRICES = "prices";
+
+    @VisibleForTesting static final int MAX_ENTRIES = 1000;
+    private static final int MAX_CONCURRENT_REQUESTS = 4;
+    private static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+    private static final long SATOSHIS_PER_BTC = 100_000_000L;
+
+    // The response is formatted for the default locale. NumberFormat isn't thread safe, so keep
+    // one per thread rather than building one for every parse.
+    private static final ThreadLocal<NumberFormat> NUMBER_FORMAT = new ThreadLocal<NumberFormat>() {
+        @Override
+        protected NumberFormat initialValue() {
+            return NumberFormat.getInstance(Locale.getDefault());
+        }
+    };
+
+    private final File cacheFile;
+    private final ExchangeTicker exchangeTicker;
+    // Price of 1 BTC keyed by currency and UTC day, least recently used first
+    private final LinkedHashMap<String, Double> prices = new LinkedHashMap<String, Double>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Double> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private final Map<String, Observable<Double>> inFlightRequests = new HashMap<>();
+    private boolean restored;
+
+    public HistoricPriceCache(Context context) {
+        this(new File(context.getFilesDir(), FILE_NAME), new ExchangeTicker());
+    }
+
+    @VisibleForTesting
+    HistoricPriceCache(File cacheFile, ExchangeTicker exchangeTicker) {
+        this.cacheFile = cacheFile;
+        this.exchangeTicker = exchangeTicker;
+    }
+
+    /**
+     * Returns the value of an amount of Bitcoin at a given time, from the cache if the day's price
+     * is known, otherwise from the network. Concurrent requests for the same day share a single
+     * network call. Work is done on the IO scheduler.
+     *
+     * @param satoshis     The amount of Satoshi to be converted
+     * @param currency     The currency to be converted to as a 3 letter acronym, eg USD, GBP
+     * @param timeInMillis The time at which to get the price, in milliseconds since epoch
+     * @return An {@link Observable} emitting the value in the given currency
+     */
+    @NonNull
+    public Observable<Double> getHistoricPrice(long satoshis, String currency, long timeInMillis) {
+        if (isCurrentDay(timeInMillis)) {
+            return Observable.fromCallable(() -> fetchPrice(satoshis, currency, timeInMillis))
+                    .subscribeOn(Schedulers.io());
+        }
+
+        // Deferred so that the cache is first read from disk off the calling thread
+        return Observable.defer(() -> getDayPrice(currency, getDay(timeInMillis)))
+                .subscribeOn(Schedulers.io())
+                .map(price -> price * satoshis / SATOSHIS_PER_BTC);
+    }
+
+    /**
+     * Fetches the prices of any of the given days which aren't already cached, a few at a time,
+     * then writes the cache to disk once. Failures are ignored, and those days are fetched again
+     * when next requested.
+     *
+     * @param currency      The currency as a 3 letter acronym, eg USD, GBP
+     * @param timesInMillis Times in milliseconds since epoch, eg of transactions likely to be viewed
+     * @return A {@link Completable} which completes when every day has been attempted
+     */
+    @NonNull
+    public Completable prefetch(String currency, List<Long> timesInMillis) {
+        return Completable.defer(() -> {
+            Set<Long> missingDays = new LinkedHashSet<>();
+            synchronized (this) {
+                restoreIfNeeded();
+                for (long time : timesInMillis) {
+                    long day = getDay(time);
+                    if (!isCurrentDay(time) && !prices.containsKey(getKey(currency, day))) {
+                        missingDays.add(day);
+                    }
+                }
+            }
+            if (missingDays.isEmpty()) return Completable.complete();
+
+            return Observable.fromIterable(new ArrayList<>(missingDays))
+                    .flatMap(day -> getDayPrice(currency, day, false)
+                            .onErrorResumeNext(Observable.empty()), MAX_CONCURRENT_REQUESTS)
+                    .ignoreElements()
+                    .doOnComplete(this::write);
+        }).subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * Empties the cache and deletes it from disk, for instance when the wallet is unpaired.
+     */
+    public synchronized void clear() {
+        prices.clear();
+        restored = true;
+        FileUtils.deleteQuietly(cacheFile);
+    }
+
+    private Observable<Double> getDayPrice(String currency, long day) {
+        return getDayPrice(currency, day, true);
+    }
+
+    private synchronized Observable<Double> getDayPrice(String currency, long day, boolean writeThrough) {
+        restoreIfNeeded();
+        String key = getKey(currency, day);
+        Double cached = prices.get(key);
+        if (cached != null) return Observable.just(cached);
+
+        Observable<Double> request = inFlightRequests.get(key);
+        if (request == null) {
+            long midday = day * DAY_MS + DAY_MS / 2;
+            request = Observable.fromCallable(() -> fetchPrice(SATOSHIS_PER_BTC, currency, midday))
+                    .subscribeOn(Schedulers.io())
+                    .doOnNext(price -> {
+                        synchronized (this) {
+                            prices.put(key, price);
+                        }
+                        if (writeThrough) write();
+                    })
+                    .doFinally(() -> clearInFlightRequest(key))
+                    .cache();
+            inFlightRequests.put(key, request);
+        }
+        return request;
+    }
+
+    private synchronized void clearInFlightRequest(String key) {
+        inFlightRequests.remove(key);
+    }
+
+    private double fetchPrice(long satoshis, String currency, long timeInMillis) throws Exception {
+        String value = exchangeTicker.getHistoricPrice(satoshis, currency, timeInMillis);
+        if (value == null) throw new Exception("No historic price returned");
+        try {
+            return NUMBER_FORMAT.get().parse(value).doubleValue();
+        } catch (ParseException e) {
+            throw new Exception("Unparseable historic price: " + value, e);
+        }
+    }
+
+    private synchronized void write() {
+        try {
+            JSONObject json = new JSONObject();
+            json.put(KEY_VERSION, VERSION);
+            json.put(KEY_PRICES, new JSONObject(new HashMap<>(prices)));
+
+            // Write to a temporary file first so that a partial write never replaces a good cache
+            File tempFile = new File(cacheFile.getPath() + ".tmp");
+            FileUtils.writeStringToFile(tempFile, json.toString(), "UTF-8");
+            if (!tempFile.renameTo(cacheFile)) {
+                FileUtils.deleteQuietly(tempFile);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "write: ", e);
+        }
+    }
+
+    private void restoreIfNeeded() {
+        if (restored) return;
+        restored = true;
+        if (!cacheFile.exists()) return;
+
+        try {
+            JSONObject json = new JSONObject(FileUtils.readFileToString(cacheFile, "UTF-8"));
+            if (json.optInt(KEY_VERSION) != VERSION) {
+                FileUtils.deleteQuietly(cacheFile);
+                return;
+            }
+
+            JSONObject stored = json.getJSONObject(KEY_PRICES);
+            Iterator<String> keys = stored.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                prices.put(key, stored.getDouble(key));
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "restoreIfNeeded: ", e);
+            FileUtils.deleteQuietly(cacheFile);
+        }
+    }
+
+    private static String getKey(String currency, long day) {
+        return currency + "|" + day;
+    }
+
+    private static long getDay(long timeInMillis) {
+        return timeInMillis / DAY_MS;
+    }
+
+    private static boolean isCurrentDay(long timeInMillis) {
+        return getDay(timeInMillis) >= getDay(System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,240 @@
+package piuk.blockchain.android.data.cache;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import info.blockchain.wallet.crypto.AESUtil;
+import info.blockchain.wallet.payload.Payload;
+import info.blockchain.wallet.payload.PayloadManager;
+import info.blockchain.wallet.transaction.Transaction;
+import info.blockchain.wallet.util.CharSequenceX;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import piuk.blockchain.android.util.AESUtilWrapper;
+
+/**
+ * A bounded cache of {@link Transaction} details, in memory and on disk, encrypted with the wallet
+ * password in the same way as {@link TransactionListCache}. Only transactions which have been
+ * included in a block should be stored, as until then their details may still change.
+ *
+ * <p>{@link Transaction} can only be built from the API's JSON, so each entry is stored as the
+ * subset of that JSON which {@link Transaction} reads. Whether an input belongs to an HD account
+ * isn't preserved, so {@link Transaction#getResult()} should not be relied upon for cached
+ * entries.
+ */
+public class TransactionDetailsCache {
+
+    private static final String TAG = TransactionDetailsCache.class.getSimpleName();
+    private static final String FILE_NAME = "transaction_details_cache.dat";
+    private static final int VERSION = 1;
+
+    /**
+     * The number of confirmations at which a transaction is considered final. Below this a reorg
+     * could still change its details, so they aren't cached until then.
+     */
+    public static final int REQUIRED_CONFIRMATIONS = 3;
+
+    @VisibleForTesting static final int MAX_ENTRIES = 200;
+
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_GUID = "guid";
+    private static final String KEY_TRANSACTIONS = "transactions";
+    private static final String KEY_BLOCK_HEIGHT = "block_height";
+    private static final String KEY_HASH = "hash";
+    private static final String KEY_TIME = "time";
+    private static final String KEY_RELAYED_BY = "relayed_by";
+    private static final String KEY_DOUBLE_SPEND = "double_spend";
+    private static final String KEY_INPUTS = "inputs";
+    private static final String KEY_PREV_OUT = "prev_out";
+    private static final String KEY_OUTPUTS = "out";
+    private static final String KEY_ADDRESS = "addr";
+    private static final String KEY_ADDRESS_TAG = "addr_tag";
+    private static final String KEY_VALUE = "value";
+
+    private final File cacheFile;
+    private final PayloadManager payloadManager;
+    private final AESUtilWrapper aesUtil;
+    // Keyed by hash, least recently used first
+    private final LinkedHashMap<String, JSONObject> transactions = new LinkedHashMap<String, JSONObject>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, JSONObject> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private boolean restored;
+
+    public TransactionDetailsCache(Context context, PayloadManager payloadManager, AESUtilWrapper aesUtil) {
+        this(new File(context.getFilesDir(), FILE_NAME), payloadManager, aesUtil);
+    }
+
+    @VisibleForTesting
+    TransactionDetailsCache(File cacheFile, PayloadManager payloadManager, AESUtilWrapper aesUtil) {
+        this.cacheFile = cacheFile;
+        this.payloadManager = payloadManager;
+        this.aesUtil = aesUtil;
+    }
+
+    /**
+     * Returns the cached details of a transaction, reading the cache from disk first if this is the
+     * first access. Should be called from a background thread.
+     *
+     * @param hash The hash of the transaction
+     * @return The {@link Transaction}, or null if it isn't cached
+     */
+    @Nullable
+    public synchronized Transaction get(String hash) {
+        restoreIfNeeded();
+        JSONObject json = transactions.get(hash);
+        if (json == null) return null;
+
+        try {
+            return new Transaction(json);
+        } catch (Exception e) {
+            Log.e(TAG, "get: ", e);
+            transactions.remove(hash);
+            return null;
+        }
+    }
+
+    public synchronized boolean contains(String hash) {
+        restoreIfNeeded();
+        return transactions.containsKey(hash);
+    }
+
+    /**
+     * Adds a transaction to the cache in memory. Call {@link #write()} to persist it.
+     */
+    public synchronized void put(Transaction transaction) {
+        restoreIfNeeded();
+        try {
+            transactions.put(transaction.getHash(), serialize(transaction));
+        } catch (JSONException e) {
+            Log.e(TAG, "put: ", e);
+        }
+    }
+
+    /**
+     * Encrypts and writes the cache. Should be called from a background thread.
+     *
+     * @return True if the cache was written
+     */
+    public synchronized boolean write() {
+        Payload payload = payloadManager.getPayload();
+        CharSequenceX password = payloadManager.getTempPassword();
+        if (payload == null || password == null) return false;
+
+        try {
+            JSONObject stored = new JSONObject();
+            for (Map.Entry<String, JSONObject> entry : transactions.entrySet()) {
+                stored.put(entry.getKey(), entry.getValue());
+            }
+
+            JSONObject json = new JSONObject();
+            json.put(KEY_VERSION, VERSION);
+            json.put(KEY_GUID, payload.getGuid());
+            json.put(KEY_TRANSACTIONS, stored);
+
+            String ciphertext = aesUtil.encrypt(json.toString(), password, AESUtil.PIN_PBKDF2_ITERATIONS);
+
+            // Write to a temporary file first so that a partial write never replaces a good cache
+            File tempFile = new File(cacheFile.getPath() + ".tmp");
+            FileUtils.writeStringToFile(tempFile, ciphertext, "UTF-8");
+            if (!tempFile.renameTo(cacheFile)) {
+                FileUtils.deleteQuietly(tempFile);
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "write: ", e);
+            return false;
+        }
+    }
+
+    /**
+     * Empties the cache and deletes it from disk, for instance when the wallet is unpaired.
+     */
+    public synchronized void clear() {
+        transactions.clear();
+        restored = false;
+        FileUtils.deleteQuietly(cacheFile);
+    }
+
+    private void restoreIfNeeded() {
+        if (restored) return;
+
+        Payload payload = payloadManager.getPayload();
+        CharSequenceX password = payloadManager.getTempPassword();
+        // Try again later if the wallet hasn't been decrypted yet
+        if (payload == null || password == null) return;
+        restored = true;
+        if (!cacheFile.exists()) return;
+
+        try {
+            String ciphertext = FileUtils.readFileToString(cacheFile, "UTF-8");
+            String plaintext = aesUtil.decrypt(ciphertext, password, AESUtil.PIN_PBKDF2_ITERATIONS);
+            JSONObject json = new JSONObject(plaintext);
+
+            if (json.optInt(KEY_VERSION) != VERSION || !payload.getGuid().equals(json.optString(KEY_GUID))) {
+                FileUtils.deleteQuietly(cacheFile);
+                return;
+            }
+
+            JSONObject stored = json.getJSONObject(KEY_TRANSACTIONS);
+            Iterator<String> keys = stored.keys();
+            while (keys.hasNext()) {
+                String hash = keys.next();
+                transactions.put(hash, stored.getJSONObject(hash));
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "restoreIfNeeded: ", e);
+            FileUtils.deleteQuietly(cacheFile);
+        }
+    }
+
+    private static JSONObject serialize(Transaction transaction) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put(KEY_BLOCK_HEIGHT, transaction.getHeight());
+        json.put(KEY_HASH, transaction.getHash());
+        json.put(KEY_TIME, transaction.getTime());
+        json.put(KEY_RELAYED_BY, transaction.getRelayedBy() != null ? transaction.getRelayedBy() : "");
+        json.put(KEY_DOUBLE_SPEND, transaction.isDoubleSpend());
+
+        JSONArray inputs = new JSONArray();
+        for (Transaction.xPut input : transaction.getInputs()) {
+            JSONObject wrapper = new JSONObject();
+            wrapper.put(KEY_PREV_OUT, serializeXPut(input));
+            inputs.put(wrapper);
+        }
+        json.put(KEY_INPUTS, inputs);
+        json.put(KEY_OUTPUTS, serializeXPuts(transaction.getOutputs()));
+        return json;
+    }
+
+    private static JSONArray serializeXPuts(List<Transaction.xPut> xPuts) throws JSONException {
+        JSONArray array = new JSONArray();
+        for (Transaction.xPut xPut : xPuts) {
+            array.put(serializeXPut(xPut));
+        }
+        return array;
+    }
+
+    private static JSONObject serializeXPut(Transaction.xPut xPut) throws JSONException {
+        JSONObject json = new JSONObject();
+        if (xPut.addr != null) json.put(KEY_ADDRESS, xPut.addr);
+        if (xPut.addr_tag != null) json.put(KEY_ADDRESS_TAG, xPut.addr_tag);
+        json.put(KEY_VALUE, xPut.value);
+        return json;
+    }
+}
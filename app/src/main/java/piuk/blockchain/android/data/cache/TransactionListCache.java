@@ -0,0 +1,387 @@
+package piuk.blockchain.android.data.cache;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import info.blockchain.wallet.crypto.AESUtil;
+import info.blockchain.wallet.multiaddr.MultiAddrFactory;
+import info.blockchain.wallet.payload.Payload;
+import info.blockchain.wallet.payload.PayloadManager;
+import info.blockchain.wallet.transaction.Tx;
+import info.blockchain.wallet.util.CharSequenceX;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import piuk.blockchain.android.util.AESUtilWrapper;
+
+/**
+ * Persists the last known balances and transactions from {@link MultiAddrFactory} to disk,
+ * encrypted with the wallet password, so that the balance screen can be drawn at cold start
+ * before the network refresh has completed. The subsequent refresh replaces the restored data,
+ * and the transaction list is reconciled against it by hash.
+ *
+ * <p>Restored data is held in an immutable {@link Snapshot} rather than loaded into {@link
+ * MultiAddrFactory}, as the refresh replaces and fills that class's static maps in place while the
+ * balance screen is drawn. Readers of balances and transactions should prefer {@link
+ * #getSnapshot()} until the refresh has finished and {@link #releaseSnapshot(boolean)} is called.
+ */
+public class TransactionListCache {
+
+    private static final String TAG = TransactionListCache.class.getSimpleName();
+    private static final String FILE_NAME = "transaction_cache.dat";
+    private static final int VERSION = 1;
+
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_GUID = "guid";
+    private static final String KEY_XPUB_BALANCE = "xpub_balance";
+    private static final String KEY_LEGACY_BALANCE = "legacy_balance";
+    private static final String KEY_XPUBS = "xpubs";
+    private static final String KEY_XPUB = "xpub";
+    private static final String KEY_LEGACY_ADDRESSES = "legacy";
+    private static final String KEY_ADDRESS = "address";
+    private static final String KEY_BALANCE = "balance";
+    private static final String KEY_TXS = "txs";
+
+    private static final int FLAG_MOVE = 1;
+    private static final int FLAG_WATCH_ONLY = 1 << 1;
+    private static final int FLAG_DOUBLE_SPEND = 1 << 2;
+
+    private final File cacheFile;
+    private final PayloadManager payloadManager;
+    private final AESUtilWrapper aesUtil;
+    private volatile Snapshot snapshot;
+
+    public TransactionListCache(Context context, PayloadManager payloadManager, AESUtilWrapper aesUtil) {
+        this(new File(context.getFilesDir(), FILE_NAME), payloadManager, aesUtil);
+    }
+
+    @VisibleForTesting
+    TransactionListCache(File cacheFile, PayloadManager payloadManager, AESUtilWrapper aesUtil) {
+        this.cacheFile = cacheFile;
+        this.payloadManager = payloadManager;
+        this.aesUtil = aesUtil;
+    }
+
+    /**
+     * Encrypts and writes the current contents of {@link MultiAddrFactory}. Should be called from a
+     * background thread after a successful balance refresh.
+     *
+     * @return True if the cache was written
+     */
+    public synchronized boolean write() {
+        Payload payload = payloadManager.getPayload();
+        CharSequenceX password = payloadManager.getTempPassword();
+        if (payload == null || password == null) return false;
+
+        try {
+            String plaintext = serialize(payload).toString();
+            String ciphertext = aesUtil.encrypt(plaintext, password, AESUtil.PIN_PBKDF2_ITERATIONS);
+
+            // Write to a temporary file first so that a partial write never replaces a good cache
+            File tempFile = new File(cacheFile.getPath() + ".tmp");
+            FileUtils.writeStringToFile(tempFile, ciphertext, "UTF-8");
+            if (!tempFile.renameTo(cacheFile)) {
+                FileUtils.deleteQuietly(tempFile);
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "write: ", e);
+            return false;
+        }
+    }
+
+    /**
+     * Decrypts the cache and holds its contents as the current {@link Snapshot}, provided that it
+     * belongs to the current wallet and that no data has been fetched from the network yet.
+     *
+     * @return True if cached balances and transactions were restored
+     */
+    public synchronized boolean restore() {
+        Payload payload = payloadManager.getPayload();
+        CharSequenceX password = payloadManager.getTempPassword();
+        if (payload == null || password == null || !cacheFile.exists()) return false;
+
+        MultiAddrFactory multiAddrFactory = MultiAddrFactory.getInstance();
+        if (!multiAddrFactory.getXpubTxs().isEmpty() || !multiAddrFactory.getLegacyTxs().isEmpty()) {
+            // Fresh data has already arrived
+            return false;
+        }
+
+        try {
+            String ciphertext = FileUtils.readFileToString(cacheFile, "UTF-8");
+            String plaintext = aesUtil.decrypt(ciphertext, password, AESUtil.PIN_PBKDF2_ITERATIONS);
+            JSONObject json = new JSONObject(plaintext);
+
+            if (json.optInt(KEY_VERSION) != VERSION || !payload.getGuid().equals(json.optString(KEY_GUID))) {
+                clear();
+                return false;
+            }
+
+            snapshot = deserialize(json);
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "restore: ", e);
+            clear();
+            return false;
+        }
+    }
+
+    /**
+     * Returns the balances and transactions restored by {@link #restore()}, which should be shown
+     * in place of those in {@link MultiAddrFactory} while the first refresh is running.
+     *
+     * @return The restored {@link Snapshot}, or null if there isn't one
+     */
+    @Nullable
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Drops the restored {@link Snapshot} once the refresh that follows {@link #restore()} has
+     * finished, so that readers return to {@link MultiAddrFactory}. If the refresh failed and
+     * nothing has been fetched since, the snapshot is copied into {@link MultiAddrFactory} first so
+     * that the last known balances remain visible offline.
+     *
+     * @param refreshed True if the refresh succeeded
+     */
+    public synchronized void releaseSnapshot(boolean refreshed) {
+        Snapshot restored = snapshot;
+        if (restored == null) return;
+
+        MultiAddrFactory multiAddrFactory = MultiAddrFactory.getInstance();
+        if (!refreshed && multiAddrFactory.getXpubTxs().isEmpty() && multiAddrFactory.getLegacyTxs().isEmpty()) {
+            restored.copyTo(multiAddrFactory);
+        }
+        snapshot = null;
+    }
+
+    /**
+     * Deletes the cache, for instance when the wallet is unpaired.
+     */
+    public synchronized void clear() {
+        snapshot = null;
+        FileUtils.deleteQuietly(cacheFile);
+    }
+
+    private JSONObject serialize(Payload payload) throws JSONException {
+        MultiAddrFactory multiAddrFactory = MultiAddrFactory.getInstance();
+
+        JSONObject json = new JSONObject();
+        json.put(KEY_VERSION, VERSION);
+        json.put(KEY_GUID, payload.getGuid());
+        json.put(KEY_XPUB_BALANCE, multiAddrFactory.getXpubBalance());
+        json.put(KEY_LEGACY_BALANCE, multiAddrFactory.getLegacyBalance());
+
+        JSONArray xpubs = new JSONArray();
+        HashMap<String, Long> xpubAmounts = multiAddrFactory.getXpubAmounts();
+        for (Map.Entry<String, List<Tx>> entry : multiAddrFactory.getXpubTxs().entrySet()) {
+            Long balance = xpubAmounts.get(entry.getKey());
+            JSONObject xpub = new JSONObject();
+            xpub.put(KEY_XPUB, entry.getKey());
+            xpub.put(KEY_BALANCE, balance != null ? balance : 0L);
+            xpub.put(KEY_TXS, serializeTransactions(entry.getValue()));
+            xpubs.put(xpub);
+        }
+        json.put(KEY_XPUBS, xpubs);
+
+        JSONArray legacyAddresses = new JSONArray();
+        for (String address : payload.getLegacyAddressStringList()) {
+            JSONObject legacyAddress = new JSONObject();
+            legacyAddress.put(KEY_ADDRESS, address);
+            legacyAddress.put(KEY_BALANCE, multiAddrFactory.getLegacyBalance(address));
+            legacyAddresses.put(legacyAddress);
+        }
+        json.put(KEY_LEGACY_ADDRESSES, legacyAddresses);
+        json.put(KEY_TXS, serializeTransactions(multiAddrFactory.getLegacyTxs()));
+
+        return json;
+    }
+
+    private static Snapshot deserialize(JSONObject json) throws JSONException {
+        HashMap<String, Long> xpubAmounts = new HashMap<>();
+        HashMap<String, List<Tx>> xpubTxs = new HashMap<>();
+        JSONArray xpubs = json.getJSONArray(KEY_XPUBS);
+        for (int i = 0; i < xpubs.length(); i++) {
+            JSONObject xpub = xpubs.getJSONObject(i);
+            String key = xpub.getString(KEY_XPUB);
+            xpubAmounts.put(key, xpub.getLong(KEY_BALANCE));
+            xpubTxs.put(key, deserializeTransactions(xpub.getJSONArray(KEY_TXS)));
+        }
+
+        HashMap<String, Long> legacyAmounts = new HashMap<>();
+        JSONArray legacyAddresses = json.getJSONArray(KEY_LEGACY_ADDRESSES);
+        for (int i = 0; i < legacyAddresses.length(); i++) {
+            JSONObject legacyAddress = legacyAddresses.getJSONObject(i);
+            legacyAmounts.put(legacyAddress.getString(KEY_ADDRESS), legacyAddress.getLong(KEY_BALANCE));
+        }
+
+        return new Snapshot(
+                json.getLong(KEY_XPUB_BALANCE),
+                json.getLong(KEY_LEGACY_BALANCE),
+                xpubAmounts,
+                legacyAmounts,
+                xpubTxs,
+                deserializeTransactions(json.getJSONArray(KEY_TXS)));
+    }
+
+    /**
+     * Each {@link Tx} is stored as a positional array rather than an object, to keep the file
+     * compact for wallets with long histories.
+     */
+    private static JSONArray serializeTransactions(List<Tx> transactions) throws JSONException {
+        JSONArray array = new JSONArray();
+        if (transactions == null) return array;
+
+        for (Tx tx : transactions) {
+            int flags = (tx.isMove() ? FLAG_MOVE : 0)
+                    | (tx.isWatchOnly() ? FLAG_WATCH_ONLY : 0)
+                    | (tx.isDoubleSpend() ? FLAG_DOUBLE_SPEND : 0);
+
+            JSONObject tags = new JSONObject();
+            if (tx.getTags() != null) {
+                for (Map.Entry<Integer, String> tag : tx.getTags().entrySet()) {
+                    tags.put(String.valueOf(tag.getKey()), tag.getValue());
+                }
+            }
+
+            JSONArray entry = new JSONArray();
+            entry.put(tx.getHash());
+            entry.put(tx.getNote() != null ? tx.getNote() : JSONObject.NULL);
+            entry.put(tx.getDirection());
+            entry.put(tx.getAmount());
+            entry.put(tx.getTS());
+            entry.put(tx.getConfirmations());
+            entry.put(flags);
+            entry.put(tags);
+            array.put(entry);
+        }
+        return array;
+    }
+
+    private static List<Tx> deserializeTransactions(JSONArray array) throws JSONException {
+        List<Tx> transactions = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            JSONArray entry = array.getJSONArray(i);
+
+            HashMap<Integer, String> tags = new HashMap<>();
+            JSONObject tagsJson = entry.getJSONObject(7);
+            Iterator<String> keys = tagsJson.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                tags.put(Integer.valueOf(key), tagsJson.getString(key));
+            }
+
+            Tx tx = new Tx(
+                    entry.getString(0),
+                    entry.isNull(1) ? null : entry.getString(1),
+                    entry.getString(2),
+                    entry.getDouble(3),
+                    entry.getLong(4),
+                    tags);
+            tx.setConfirmations(entry.getLong(5));
+            int flags = entry.getInt(6);
+            tx.setIsMove((flags & FLAG_MOVE) != 0);
+            tx.setIsWatchOnly((flags & FLAG_WATCH_ONLY) != 0);
+            tx.setDoubleSpend((flags & FLAG_DOUBLE_SPEND) != 0);
+            transactions.add(tx);
+        }
+        return transactions;
+    }
+
+    /**
+     * The balances and transactions read from the cache. Never modified after {@link #restore()},
+     * so it can be read from any thread while {@link MultiAddrFactory} is being refreshed.
+     */
+    public static class Snapshot {
+
+        private final long xpubBalance;
+        private final long legacyBalance;
+        private final Map<String, Long> xpubAmounts;
+        private final Map<String, Long> legacyAmounts;
+        private final Map<String, List<Tx>> xpubTxs;
+        private final List<Tx> legacyTxs;
+
+        Snapshot(long xpubBalance,
+                 long legacyBalance,
+                 HashMap<String, Long> xpubAmounts,
+                 HashMap<String, Long> legacyAmounts,
+                 HashMap<String, List<Tx>> xpubTxs,
+                 List<Tx> legacyTxs) {
+            this.xpubBalance = xpubBalance;
+            this.legacyBalance = legacyBalance;
+            this.xpubAmounts = Collections.unmodifiableMap(xpubAmounts);
+            this.legacyAmounts = Collections.unmodifiableMap(legacyAmounts);
+            this.xpubTxs = Collections.unmodifiableMap(xpubTxs);
+            this.legacyTxs = Collections.unmodifiableList(legacyTxs);
+        }
+
+        /**
+         * @return The sum of the balances of all xpubs, in satoshis
+         */
+        public long getXpubBalance() {
+            return xpubBalance;
+        }
+
+        /**
+         * @return The sum of the balances of all legacy addresses, in satoshis
+         */
+        public long getLegacyBalance() {
+            return legacyBalance;
+        }
+
+        /**
+         * @param address A legacy address
+         * @return The balance of the address in satoshis, or 0 if it is unknown
+         */
+        public long getLegacyBalance(String address) {
+            Long balance = legacyAmounts.get(address);
+            return balance != null ? balance : 0L;
+        }
+
+        @NonNull
+        public Map<String, Long> getXpubAmounts() {
+            return xpubAmounts;
+        }
+
+        @NonNull
+        public Map<String, List<Tx>> getXpubTxs() {
+            return xpubTxs;
+        }
+
+        @NonNull
+        public List<Tx> getLegacyTxs() {
+            return legacyTxs;
+        }
+
+        void copyTo(MultiAddrFactory multiAddrFactory) {
+            multiAddrFactory.setXpubBalance(xpubBalance);
+            multiAddrFactory.setLegacyBalance(legacyBalance);
+            for (Map.Entry<String, Long> entry : xpubAmounts.entrySet()) {
+                multiAddrFactory.setXpubAmount(entry.getKey(), entry.getValue());
+                List<Tx> transactions = xpubTxs.get(entry.getKey());
+                multiAddrFactory.getXpubTxs().put(entry.getKey(),
+                        transactions != null ? new ArrayList<>(transactions) : new ArrayList<>());
+            }
+            for (Map.Entry<String, Long> entry : legacyAmounts.entrySet()) {
+                multiAddrFactory.setLegacyBalance(entry.getKey(), entry.getValue());
+            }
+            multiAddrFactory.getLegacyTxs().addAll(legacyTxs);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package piuk.blockchain.android.data.cache;
+
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import info.blockchain.api.Unspent;
+import info.blockchain.wallet.payment.Payment;
+import info.blockchain.wallet.payment.data.UnspentOutputs;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded, least-recently-used cache of parsed {@link UnspentOutputs}, keyed by xpub for HD
+ * accounts and by address for legacy addresses. Entries remain valid until {@link
+ * #invalidate(String)} is called for their key, which happens whenever a websocket utx event
+ * involves that xpub or address, or after sending from it. As events are missed while the websocket
+ * is disconnected, entries also expire {@link #ENTRY_TTL_MS} after they were fetched.
+ *
+ * <p>Each caller receives its own copy of the cached outputs, as {@link Payment} sorts the output
+ * list in place when selecting coins.
+ */
+public class UnspentOutputsCache {
+
+    private static final String TAG = UnspentOutputsCache.class.getSimpleName();
+
+    @VisibleForTesting static final int MAX_ENTRIES = 20;
+    @VisibleForTesting static final long ENTRY_TTL_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private static UnspentOutputsCache instance;
+
+    private final Unspent unspentApi;
+    private final Payment payment;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    // Incremented on every invalidation of a key, so that a fetch which was in flight at the time
+    // doesn't store outputs which may already be spent
+    private final HashMap<String, Integer> invalidationCounts = new HashMap<>();
+
+    @VisibleForTesting
+    UnspentOutputsCache(Unspent unspentApi, Payment payment) {
+        this.unspentApi = unspentApi;
+        this.payment = payment;
+    }
+
+    public static synchronized UnspentOutputsCache getInstance() {
+        if (instance == null) {
+            instance = new UnspentOutputsCache(new Unspent(), new Payment());
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the unspent outputs for an xpub or legacy address, fetching and parsing them from the
+     * unspent API if they aren't cached or have expired. This is a blocking network call on a
+     * cache miss.
+     *
+     * @param key An xpub or legacy address
+     * @return A copy of the {@link UnspentOutputs}, or null if there are none
+     * @throws Exception If the unspent API call fails
+     */
+    @Nullable
+    public UnspentOutputs getUnspentOutputs(String key) throws Exception {
+        int invalidationCount;
+        synchronized (this) {
+            Entry entry = getLiveEntry(key);
+            if (entry != null) {
+                return copyOf(entry.outputs);
+            }
+            invalidationCount = getInvalidationCount(key);
+        }
+
+        JSONObject unspentResponse = unspentApi.getUnspentOutputs(key);
+        UnspentOutputs outputs = unspentResponse != null ? payment.getCoins(unspentResponse) : null;
+
+        synchronized (this) {
+            if (invalidationCount == getInvalidationCount(key)) {
+                entries.put(key, new Entry(outputs, currentTimeMillis()));
+            }
+        }
+        return copyOf(outputs);
+    }
+
+    /**
+     * Fetches and caches the unspent outputs for each key which isn't already cached, in order.
+     * Failures are logged and skipped. Only the first {@link #MAX_ENTRIES} keys are fetched, so
+     * the most important should come first. Blocking, so must not be called on the main thread.
+     *
+     * @param keys xpubs and legacy addresses
+     */
+    public void prefetch(List<String> keys) {
+        int count = Math.min(keys.size(), MAX_ENTRIES);
+        for (int i = 0; i < count; i++) {
+            try {
+                getUnspentOutputs(keys.get(i));
+            } catch (Exception e) {
+                Log.e(TAG, "prefetch: ", e);
+            }
+        }
+    }
+
+    /**
+     * Discards the cached outputs for an xpub or address whose unspent outputs may have changed.
+     *
+     * @param key An xpub or legacy address
+     */
+    public synchronized void invalidate(String key) {
+        entries.remove(key);
+        invalidationCounts.put(key, getInvalidationCount(key) + 1);
+    }
+
+    /**
+     * @param key An xpub or legacy address
+     * @return A number which changes every time the key is invalidated, so that callers can tell
+     * whether outputs they obtained earlier may since have changed
+     */
+    public synchronized int getVersion(String key) {
+        return getInvalidationCount(key);
+    }
+
+    /**
+     * @param key An xpub or legacy address
+     * @return True if unexpired outputs are cached for the key
+     */
+    public synchronized boolean contains(String key) {
+        return getLiveEntry(key) != null;
+    }
+
+    public void destroy() {
+        synchronized (UnspentOutputsCache.class) {
+            if (instance == this) instance = null;
+        }
+    }
+
+    @VisibleForTesting
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the entry for a key, discarding it first if it has expired. Callers must hold the
+     * lock.
+     */
+    @Nullable
+    private Entry getLiveEntry(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && currentTimeMillis() - entry.fetchedAt >= ENTRY_TTL_MS) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    private int getInvalidationCount(String key) {
+        Integer count = invalidationCounts.get(key);
+        return count != null ? count : 0;
+    }
+
+    @Nullable
+    private static UnspentOutputs copyOf(@Nullable UnspentOutputs outputs) {
+        if (outputs == null || outputs.getOutputs() == null) return outputs;
+        return new UnspentOutputs(new ArrayList<>(outputs.getOutputs()), outputs.getBalance(), outputs.getNotice());
+    }
+
+    private static class Entry {
+
+        // Null if the key has no unspent outputs
+        final UnspentOutputs outputs;
+        final long fetchedAt;
+
+        Entry(@Nullable UnspentOutputs outputs, long fetchedAt) {
+            this.outputs = outputs;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+}
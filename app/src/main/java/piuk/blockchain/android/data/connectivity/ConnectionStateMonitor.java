@@ -41,10 +41,11 @@ class ConnectionStateMonitor extends ConnectivityManager.NetworkCallback {
     }
 
     private Completable broadcastOnMainThread() {
-        return Completable.fromAction(() ->
-                LocalBroadcastManager.getInstance(context)
-                        .sendBroadcastSync(new Intent(BalanceFragment.ACTION_INTENT)))
-                .subscribeOn(AndroidSchedulers.mainThread());
+        return Completable.fromAction(() -> {
+            LocalBroadcastManager broadcastManager = LocalBroadcastManager.getInstance(context);
+            broadcastManager.sendBroadcastSync(new Intent(BalanceFragment.ACTION_INTENT));
+            broadcastManager.sendBroadcastSync(new Intent(ConnectivityStatus.ACTION_NETWORK_AVAILABLE));
+        }).subscribeOn(AndroidSchedulers.mainThread());
     }
 
 }
@@ -6,6 +6,11 @@ import android.net.NetworkInfo;
 
 public class ConnectivityStatus {
 
+    /**
+     * Broadcast locally whenever a network connection becomes available
+     */
+    public static final String ACTION_NETWORK_AVAILABLE = "info.blockchain.wallet.ConnectivityManager.NETWORK_AVAILABLE";
+
     ConnectivityStatus() {
     }
 
@@ -18,7 +18,9 @@ class NetworkStateReceiver extends BroadcastReceiver {
             final NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
 
             if (networkInfo != null && networkInfo.isConnectedOrConnecting()) {
-                LocalBroadcastManager.getInstance(context).sendBroadcastSync(new Intent(BalanceFragment.ACTION_INTENT));
+                LocalBroadcastManager broadcastManager = LocalBroadcastManager.getInstance(context);
+                broadcastManager.sendBroadcastSync(new Intent(BalanceFragment.ACTION_INTENT));
+                broadcastManager.sendBroadcastSync(new Intent(ConnectivityStatus.ACTION_NETWORK_AVAILABLE));
             }
         }
     }
@@ -1,6 +1,7 @@
 package piuk.blockchain.android.data.datamanagers;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 
@@ -13,14 +14,23 @@ import info.blockchain.wallet.transaction.Tx;
 import info.blockchain.wallet.transaction.TxMostRecentDateComparator;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 
+import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.reactivex.subjects.PublishSubject;
 import io.reactivex.subjects.Subject;
+import piuk.blockchain.android.data.cache.TransactionListCache;
 import piuk.blockchain.android.data.rxjava.RxUtil;
 import piuk.blockchain.android.data.services.TransactionDetailsService;
+import piuk.blockchain.android.data.stores.BalanceIndex;
+import piuk.blockchain.android.data.stores.TransactionListDelta;
 import piuk.blockchain.android.data.stores.TransactionListStore;
 import piuk.blockchain.android.util.ListUtil;
 
@@ -28,17 +38,25 @@ public class TransactionListDataManager {
 
     public final static int INDEX_ALL_REAL = -100;
     public final static int INDEX_IMPORTED_ADDRESSES = -200;
+    public final static int PAGE_SIZE = 50;
     private PayloadManager payloadManager;
     private TransactionDetailsService transactionDetails;
     private TransactionListStore transactionListStore;
+    private BalanceIndex balanceIndex;
+    private TransactionListCache transactionListCache;
     private Subject<List<Tx>> listUpdateSubject;
+    private String listKey;
 
     public TransactionListDataManager(PayloadManager payloadManager,
                                       TransactionDetailsService transactionDetails,
-                                      TransactionListStore transactionListStore) {
+                                      TransactionListStore transactionListStore,
+                                      BalanceIndex balanceIndex,
+                                      TransactionListCache transactionListCache) {
         this.payloadManager = payloadManager;
         this.transactionDetails = transactionDetails;
         this.transactionListStore = transactionListStore;
+        this.balanceIndex = balanceIndex;
+        this.transactionListCache = transactionListCache;
         listUpdateSubject = PublishSubject.create();
     }
 
@@ -50,20 +68,40 @@ public class TransactionListDataManager {
      */
     public void generateTransactionList(Object object) {
         transactionListStore.clearList();
-        if (object instanceof Account) {
-            // V3
-            transactionListStore.insertTransactions(getV3Transactions((Account) object));
-        } else if (object instanceof LegacyAddress) {
-            // V2
-            transactionListStore.insertTransactions(MultiAddrFactory.getInstance().getAddressLegacyTxs(((LegacyAddress) object).getAddress()));
-        } else {
-            Log.e(TransactionListDataManager.class.getSimpleName(), "getBtcBalance: " + object);
+        List<Tx> transactions = getTransactionsForObject(object);
+        if (transactions == null) {
+            listKey = null;
             return;
         }
 
-        transactionListStore.sort(new TxMostRecentDateComparator());
+        transactionListStore.insertTransactions(transactions);
+        listKey = getListKey(object);
+        listUpdateSubject.onNext(transactionListStore.getList());
+        listUpdateSubject.onComplete();
+    }
+
+    /**
+     * Merges the latest transactions for a specific {@link Account} or {@link LegacyAddress} into
+     * the current transaction list. If the list currently holds transactions for the same object,
+     * the new snapshot is diffed against it by hash and only the inserted, changed and removed
+     * {@link Tx} objects are applied. Otherwise the list is regenerated as in {@link
+     * #generateTransactionList(Object)} and a reset delta is returned.
+     *
+     * @param object Either a {@link Account} or a {@link LegacyAddress}
+     * @return A {@link TransactionListDelta} describing the changes made to the list
+     */
+    @NonNull
+    public TransactionListDelta mergeTransactionList(Object object) {
+        String key = getListKey(object);
+        if (key == null || !key.equals(listKey)) {
+            generateTransactionList(object);
+            return TransactionListDelta.createReset();
+        }
+
+        TransactionListDelta delta = transactionListStore.mergeTransactions(getTransactionsForObject(object));
         listUpdateSubject.onNext(transactionListStore.getList());
         listUpdateSubject.onComplete();
+        return delta;
     }
 
     /**
@@ -76,15 +114,41 @@ public class TransactionListDataManager {
         return transactionListStore.getList();
     }
 
+    /**
+     * Returns a copy of a range of the sorted transaction list, for consumers which show it a page
+     * at a time. This doesn't reduce what is held in memory: the full list stays in the store, and
+     * the returned {@link Tx} objects are shared with it.
+     *
+     * @param offset The index of the first {@link Tx} to return
+     * @param limit  The maximum number of {@link Tx} objects to return
+     * @return A list of at most {@code limit} Txs sorted by date, which may be empty
+     */
+    @NonNull
+    public List<Tx> getTransactionPage(int offset, int limit) {
+        List<Tx> transactions = transactionListStore.getList();
+        int start = Math.max(0, Math.min(offset, transactions.size()));
+        int end = Math.max(start, Math.min(start + limit, transactions.size()));
+        return new ArrayList<>(transactions.subList(start, end));
+    }
+
+    /**
+     * @return The total number of transactions in the current list
+     */
+    public int getTransactionCount() {
+        return transactionListStore.getList().size();
+    }
+
     /**
      * Resets the list of Transactions.
      */
     public void clearTransactionList() {
         transactionListStore.clearList();
+        listKey = null;
     }
 
     /**
-     * Allows insertion of a single new {@link Tx} into the main transaction list.
+     * Allows insertion of a single new {@link Tx} into the main transaction list. The {@link Tx}
+     * is placed at its sorted position, replacing any existing {@link Tx} with the same hash.
      *
      * @param transaction A new, most likely temporary {@link Tx}
      * @return An updated list of Txs sorted by date
@@ -105,6 +169,14 @@ public class TransactionListDataManager {
         return listUpdateSubject;
     }
 
+    /**
+     * Marks the balances returned by {@link #getBtcBalance(Object)} as out of date. Should be
+     * called whenever balances have been refreshed, before the account list is redrawn.
+     */
+    public void invalidateBalances() {
+        balanceIndex.invalidate();
+    }
+
     /**
      * Get total BTC balance from an {@link Account} or {@link LegacyAddress}.
      *
@@ -112,51 +184,53 @@ public class TransactionListDataManager {
      * @return A BTC value as a double.
      */
     public double getBtcBalance(Object object) {
-        // Update Balance
-        double balance = 0.0D;
         if (object instanceof Account) {
             // V3
             Account account = ((Account) object);
-            // V3 - All
             if (account.getRealIdx() == INDEX_ALL_REAL) {
+                // V3 - All
                 if (payloadManager.getPayload().isUpgraded()) {
                     // Balance = all xpubs + all legacy address balances
-                    balance = ((double) MultiAddrFactory.getInstance().getXpubBalance())
-                            + ((double) MultiAddrFactory.getInstance().getLegacyActiveBalance());
+                    return (double) (balanceIndex.getXpubBalance() + balanceIndex.getActiveLegacyBalance());
                 } else {
                     // Balance = all legacy address balances
-                    balance = ((double) MultiAddrFactory.getInstance().getLegacyActiveBalance());
+                    return (double) balanceIndex.getActiveLegacyBalance();
                 }
             } else if (account.getRealIdx() == INDEX_IMPORTED_ADDRESSES) {
-                balance = ((double) MultiAddrFactory.getInstance().getLegacyActiveBalance());
+                return (double) balanceIndex.getActiveLegacyBalance();
             } else {
                 // V3 - Individual
-                if (MultiAddrFactory.getInstance().getXpubAmounts().containsKey(account.getXpub())) {
-                    HashMap<String, Long> xpubAmounts = MultiAddrFactory.getInstance().getXpubAmounts();
-                    Long bal = (xpubAmounts.get(account.getXpub()) == null ? 0L : xpubAmounts.get(account.getXpub()));
-                    balance = ((double) (bal));
-                }
+                return (double) balanceIndex.getXpubBalance(account.getXpub());
             }
         } else if (object instanceof LegacyAddress) {
             // V2
-            LegacyAddress legacyAddress = ((LegacyAddress) object);
-            balance = MultiAddrFactory.getInstance().getLegacyBalance(legacyAddress.getAddress());
+            return (double) balanceIndex.getLegacyBalance(((LegacyAddress) object).getAddress());
         } else {
             Log.e(TransactionListDataManager.class.getSimpleName(), "getBtcBalance: " + object);
-            return balance;
+            return 0.0D;
         }
-
-        return balance;
     }
 
     /**
      * Get a specific {@link Transaction} from a {@link Tx} hash.
      *
      * @param transactionHash The hash of the transaction to be returned
+     * @param confirmations   The number of confirmations the transaction has
      * @return A Transaction object
      */
-    public Observable<Transaction> getTransactionFromHash(String transactionHash) {
-        return transactionDetails.getTransactionDetailsFromHash(transactionHash);
+    public Observable<Transaction> getTransactionFromHash(String transactionHash, long confirmations) {
+        return transactionDetails.getTransactionDetailsFromHash(transactionHash, confirmations);
+    }
+
+    /**
+     * Fetches and caches the details of confirmed transactions in the background, so that they
+     * can be shown without waiting when opened.
+     *
+     * @param transactions The transactions likely to be viewed next
+     * @return A {@link Completable} which completes when every transaction has been attempted
+     */
+    public Completable prefetchTransactionDetails(List<Tx> transactions) {
+        return transactionDetails.prefetchTransactionDetails(transactions);
     }
 
     /**
@@ -172,48 +246,157 @@ public class TransactionListDataManager {
                 .compose(RxUtil.applySchedulersToObservable());
     }
 
-    private List<Tx> getV3Transactions(Account account) {
-        List<Tx> transactions = new ArrayList<>();
+    @Nullable
+    private List<Tx> getTransactionsForObject(Object object) {
+        if (object instanceof Account) {
+            // V3
+            return getV3Transactions((Account) object);
+        } else if (object instanceof LegacyAddress) {
+            // V2
+            List<Tx> transactions = new ArrayList<>();
+            // Transactions aren't cached per address, so there are none to show until refreshed
+            if (transactionListCache.getSnapshot() == null) {
+                ListUtil.addAllIfNotNull(transactions,
+                        MultiAddrFactory.getInstance().getAddressLegacyTxs(((LegacyAddress) object).getAddress()));
+            }
+            return transactions;
+        } else {
+            Log.e(TransactionListDataManager.class.getSimpleName(), "getTransactionsForObject: " + object);
+            return null;
+        }
+    }
 
+    /**
+     * Returns a key identifying which transactions a list generated for this object contains.
+     * "All" and "Imported Addresses" accounts are recreated on each refresh, so object identity
+     * can't be used.
+     */
+    @Nullable
+    private String getListKey(Object object) {
+        if (object instanceof Account) {
+            Account account = (Account) object;
+            return "account:" + account.getRealIdx() + ":" + account.getXpub();
+        } else if (object instanceof LegacyAddress) {
+            return "legacy:" + ((LegacyAddress) object).getAddress();
+        } else {
+            return null;
+        }
+    }
+
+    private List<Tx> getV3Transactions(Account account) {
         if (account.getRealIdx() == INDEX_ALL_REAL) {
             if (payloadManager.getPayload().isUpgraded()) {
-                transactions.addAll(getAllXpubAndLegacyTxs());
-            } else {
-                transactions.addAll(MultiAddrFactory.getInstance().getLegacyTxs());
+                // Already sorted and de-duplicated, no need to copy
+                return getAllXpubAndLegacyTxs();
             }
+        }
 
-        } else if (account.getRealIdx() == INDEX_IMPORTED_ADDRESSES) {
-            // V3 - Imported Addresses
-            transactions.addAll(MultiAddrFactory.getInstance().getLegacyTxs());
+        List<Tx> transactions = new ArrayList<>();
+        TransactionListCache.Snapshot snapshot = transactionListCache.getSnapshot();
+
+        if (account.getRealIdx() == INDEX_ALL_REAL || account.getRealIdx() == INDEX_IMPORTED_ADDRESSES) {
+            // V2 - All, or V3 - Imported Addresses
+            transactions.addAll(snapshot != null ? snapshot.getLegacyTxs() : MultiAddrFactory.getInstance().getLegacyTxs());
         } else {
             // V3 - Individual
             String xpub = account.getXpub();
-            if (MultiAddrFactory.getInstance().getXpubAmounts().containsKey(xpub)) {
-                ListUtil.addAllIfNotNull(transactions, MultiAddrFactory.getInstance().getXpubTxs().get(xpub));
+            Map<String, Long> xpubAmounts = snapshot != null ? snapshot.getXpubAmounts() : MultiAddrFactory.getInstance().getXpubAmounts();
+            Map<String, List<Tx>> xpubTxs = snapshot != null ? snapshot.getXpubTxs() : MultiAddrFactory.getInstance().getXpubTxs();
+            if (xpubAmounts.containsKey(xpub)) {
+                ListUtil.addAllIfNotNull(transactions, xpubTxs.get(xpub));
             }
         }
 
         return transactions;
     }
 
+    /**
+     * Merges the transactions of every xpub and of all legacy addresses into a single list sorted
+     * by date, removing duplicates by hash. Each source list arrives from MultiAddr already sorted
+     * newest first, so they're combined with a k-way merge in a single pass. Where a transaction
+     * appears in more than one list, the xpub copy is kept.
+     */
     @VisibleForTesting
     @NonNull
     List<Tx> getAllXpubAndLegacyTxs() {
-        // Remove duplicate txs
-        HashMap<String, Tx> consolidatedTxsList = new HashMap<>();
+        TransactionListCache.Snapshot snapshot = transactionListCache.getSnapshot();
+        if (snapshot != null) {
+            return mergeSorted(snapshot.getXpubTxs().values(), snapshot.getLegacyTxs());
+        }
+        return mergeSorted(MultiAddrFactory.getInstance().getXpubTxs().values(),
+                MultiAddrFactory.getInstance().getLegacyTxs());
+    }
+
+    @NonNull
+    private static List<Tx> mergeSorted(Collection<List<Tx>> xpubTxs, @Nullable List<Tx> legacyTxs) {
+        Comparator<Tx> comparator = new TxMostRecentDateComparator();
 
-        List<Tx> allXpubTransactions = MultiAddrFactory.getInstance().getAllXpubTxs();
-        for (Tx tx : allXpubTransactions) {
-            if (!consolidatedTxsList.containsKey(tx.getHash()))
-                consolidatedTxsList.put(tx.getHash(), tx);
+        List<List<Tx>> sources = new ArrayList<>();
+        for (List<Tx> xpubTransactions : xpubTxs) {
+            addSortedSource(sources, xpubTransactions, comparator);
         }
+        addSortedSource(sources, legacyTxs, comparator);
 
-        List<Tx> allLegacyTransactions = MultiAddrFactory.getInstance().getLegacyTxs();
-        for (Tx tx : allLegacyTransactions) {
-            if (!consolidatedTxsList.containsKey(tx.getHash()))
-                consolidatedTxsList.put(tx.getHash(), tx);
+        int total = 0;
+        PriorityQueue<TxCursor> queue = new PriorityQueue<>(Math.max(1, sources.size()), (a, b) -> {
+            int result = comparator.compare(a.current(), b.current());
+            return result != 0 ? result : a.source - b.source;
+        });
+        for (int i = 0; i < sources.size(); i++) {
+            total += sources.get(i).size();
+            queue.add(new TxCursor(sources.get(i), i));
         }
 
-        return new ArrayList<>(consolidatedTxsList.values());
+        List<Tx> consolidated = new ArrayList<>(total);
+        HashSet<String> seenHashes = new HashSet<>();
+        while (!queue.isEmpty()) {
+            TxCursor cursor = queue.poll();
+            Tx tx = cursor.current();
+            if (seenHashes.add(tx.getHash())) {
+                consolidated.add(tx);
+            }
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+
+        return consolidated;
+    }
+
+    private static void addSortedSource(List<List<Tx>> sources,
+                                        @Nullable List<Tx> transactions,
+                                        Comparator<Tx> comparator) {
+        if (transactions == null || transactions.isEmpty()) return;
+
+        for (int i = 1; i < transactions.size(); i++) {
+            if (comparator.compare(transactions.get(i - 1), transactions.get(i)) > 0) {
+                // Not in the expected order, sort a copy rather than mutating MultiAddrFactory's list
+                List<Tx> sorted = new ArrayList<>(transactions);
+                Collections.sort(sorted, comparator);
+                sources.add(sorted);
+                return;
+            }
+        }
+        sources.add(transactions);
+    }
+
+    private static class TxCursor {
+
+        private final List<Tx> transactions;
+        private final int source;
+        private int position;
+
+        TxCursor(List<Tx> transactions, int source) {
+            this.transactions = transactions;
+            this.source = source;
+        }
+
+        Tx current() {
+            return transactions.get(position);
+        }
+
+        boolean advance() {
+            return ++position < transactions.size();
+        }
     }
 }
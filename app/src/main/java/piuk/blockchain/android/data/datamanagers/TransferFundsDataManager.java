@@ -2,26 +2,38 @@ package piuk.blockchain.android.data.datamanagers;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 
+import info.blockchain.api.PersistentUrls;
 import info.blockchain.api.Unspent;
+import info.blockchain.util.FeeUtil;
 import info.blockchain.wallet.multiaddr.MultiAddrFactory;
 import info.blockchain.wallet.payload.LegacyAddress;
 import info.blockchain.wallet.payload.PayloadManager;
 import info.blockchain.wallet.payment.Payment;
+import info.blockchain.wallet.payment.data.SpendableUnspentOutputs;
 import info.blockchain.wallet.payment.data.SweepBundle;
 import info.blockchain.wallet.payment.data.UnspentOutputs;
+import info.blockchain.wallet.send.MyTransactionOutPoint;
 import info.blockchain.wallet.send.SendCoins;
 import info.blockchain.wallet.util.CharSequenceX;
 
 import org.apache.commons.lang3.tuple.Triple;
 import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.script.Script;
+import org.json.JSONArray;
 import org.json.JSONObject;
+import org.spongycastle.util.encoders.Hex;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import io.reactivex.Observable;
+import io.reactivex.schedulers.Schedulers;
 import piuk.blockchain.android.data.cache.DynamicFeeCache;
 import piuk.blockchain.android.data.rxjava.RxUtil;
 import piuk.blockchain.android.ui.account.ItemAccount;
@@ -31,6 +43,17 @@ import piuk.blockchain.android.util.annotations.Thunk;
 @SuppressWarnings("WeakerAccess")
 public class TransferFundsDataManager {
 
+    // Addresses per unspent request, small enough to keep the URL a sensible length
+    @VisibleForTesting static final int UNSPENT_BATCH_SIZE = 20;
+    private static final int MAX_CONCURRENT_REQUESTS = 4;
+    // Estimated bytes per consolidated transaction. Payment rejects transactions over 100KB of hex,
+    // or 51,200 bytes
+    @VisibleForTesting static final int MAX_CONSOLIDATED_TX_SIZE = 45000;
+
+    private static final String KEY_UNSPENT_OUTPUTS = "unspent_outputs";
+    private static final String KEY_NOTICE = "notice";
+    private static final String KEY_SCRIPT = "script";
+
     @Thunk PayloadManager payloadManager;
     @Thunk MultiAddrFactory multiAddrFactory;
     private Unspent unspentApi;
@@ -50,44 +73,157 @@ public class TransferFundsDataManager {
      *
      * @param addressToReceiveIndex The index of the account to which you want to send the funds
      * @return Returns a Map which bundles together the List of {@link PendingTransaction} objects,
-     * as well as a Pair which contains the total to send and the total fees, in that order.
+     * as well as a Pair which contains the total to send and the total fees, in that order. The
+     * totals are those of {@link #sendConsolidatedPayment(Payment, List, CharSequenceX)}.
      */
     public Observable<Triple<List<PendingTransaction>, Long, Long>> getTransferableFundTransactionList(int addressToReceiveIndex) {
-        return Observable.fromCallable(() -> {
-                    BigInteger suggestedFeePerKb = DynamicFeeCache.getInstance().getSuggestedFee().defaultFeePerKb;
-                    List<PendingTransaction> pendingTransactionList = new ArrayList<>();
-                    List<LegacyAddress> legacyAddresses = payloadManager.getPayload().getLegacyAddressList();
-
-                    long totalToSend = 0L;
-                    long totalFee = 0L;
-
-                    for (LegacyAddress legacyAddress : legacyAddresses) {
-
-                        if (!legacyAddress.isWatchOnly() && multiAddrFactory.getLegacyBalance(legacyAddress.getAddress()) > 0) {
-                            JSONObject unspentResponse = unspentApi.getUnspentOutputs(legacyAddress.getAddress());
-                            if (unspentResponse != null) {
-                                UnspentOutputs coins = payment.getCoins(unspentResponse);
-                                SweepBundle sweepBundle = payment.getSweepBundle(coins, suggestedFeePerKb);
-
-                                // Don't sweep if there are still unconfirmed funds in address
-                                if (coins.getNotice() == null && sweepBundle.getSweepAmount().compareTo(SendCoins.bDust) == 1) {
-                                    PendingTransaction pendingSpend = new PendingTransaction();
-                                    pendingSpend.unspentOutputBundle = payment.getSpendableCoins(coins, sweepBundle.getSweepAmount(), suggestedFeePerKb);
-                                    pendingSpend.sendingObject = new ItemAccount(legacyAddress.getLabel(), "", "", null, legacyAddress);
-                                    pendingSpend.bigIntFee = pendingSpend.unspentOutputBundle.getAbsoluteFee();
-                                    pendingSpend.bigIntAmount = sweepBundle.getSweepAmount();
-                                    pendingSpend.addressToReceiveIndex = addressToReceiveIndex;
-                                    totalToSend += pendingSpend.bigIntAmount.longValue();
-                                    totalFee += pendingSpend.bigIntFee.longValue();
-                                    pendingTransactionList.add(pendingSpend);
-                                }
-                            }
-                        }
-                    }
+        return getTransferableFundTransactionUpdates(addressToReceiveIndex).takeLast(1);
+    }
+
+    /**
+     * As {@link #getTransferableFundTransactionList(int)}, but emits the running list and totals
+     * each time another batch of legacy addresses has been looked up, so that they can be shown
+     * while the rest are still loading. Addresses are looked up {@link #UNSPENT_BATCH_SIZE} at a
+     * time, with up to {@link #MAX_CONCURRENT_REQUESTS} requests in flight. Always emits at least
+     * once.
+     *
+     * @param addressToReceiveIndex The index of the account to which you want to send the funds
+     * @return An {@link Observable} emitting the List of {@link PendingTransaction} objects found so
+     * far, the total to send and the total fees, in that order
+     */
+    public Observable<Triple<List<PendingTransaction>, Long, Long>> getTransferableFundTransactionUpdates(int addressToReceiveIndex) {
+        return Observable.defer(() -> {
+            BigInteger suggestedFeePerKb = DynamicFeeCache.getInstance().getSuggestedFee().defaultFeePerKb;
+            Triple<List<PendingTransaction>, Long, Long> empty = Triple.of(new ArrayList<>(), 0L, 0L);
 
-                    return Triple.of(pendingTransactionList, totalToSend, totalFee);
+            List<LegacyAddress> spendableAddresses = new ArrayList<>();
+            for (LegacyAddress legacyAddress : payloadManager.getPayload().getLegacyAddressList()) {
+                if (!legacyAddress.isWatchOnly() && multiAddrFactory.getLegacyBalance(legacyAddress.getAddress()) > 0) {
+                    spendableAddresses.add(legacyAddress);
                 }
-        ).compose(RxUtil.applySchedulersToObservable());
+            }
+
+            if (spendableAddresses.isEmpty()) {
+                return Observable.just(empty);
+            }
+
+            List<List<LegacyAddress>> batches = new ArrayList<>();
+            for (int i = 0; i < spendableAddresses.size(); i += UNSPENT_BATCH_SIZE) {
+                batches.add(spendableAddresses.subList(i, Math.min(i + UNSPENT_BATCH_SIZE, spendableAddresses.size())));
+            }
+
+            return Observable.fromIterable(batches)
+                    .flatMap(batch -> Observable.fromCallable(() -> getPendingTransactions(batch, suggestedFeePerKb, addressToReceiveIndex))
+                            .subscribeOn(Schedulers.io()), MAX_CONCURRENT_REQUESTS)
+                    .scan(empty.getLeft(), (pendingTransactionList, pendingTransactions) -> {
+                        List<PendingTransaction> updatedList = new ArrayList<>(pendingTransactionList);
+                        updatedList.addAll(pendingTransactions);
+                        return updatedList;
+                    })
+                    // Skip the empty seed, the first real result follows
+                    .skip(1)
+                    .map(this::getTransferTotals);
+        }).compose(RxUtil.applySchedulersToObservable());
+    }
+
+    /**
+     * Looks up the unspent outputs for a batch of legacy addresses with a single request and
+     * builds a sweep {@link PendingTransaction} for each address worth sweeping. Falls back to one
+     * request per address if the batched request fails, or reports unconfirmed funds which can't
+     * be attributed to a particular address.
+     */
+    @Thunk
+    List<PendingTransaction> getPendingTransactions(List<LegacyAddress> legacyAddresses,
+                                                    BigInteger suggestedFeePerKb,
+                                                    int addressToReceiveIndex) throws Exception {
+        Map<String, UnspentOutputs> coinsByAddress = null;
+        if (legacyAddresses.size() > 1) {
+            try {
+                coinsByAddress = getBatchedUnspentOutputs(legacyAddresses);
+            } catch (Exception e) {
+                // Look the addresses up individually instead
+                e.printStackTrace();
+            }
+        }
+
+        List<PendingTransaction> pendingTransactionList = new ArrayList<>();
+        for (LegacyAddress legacyAddress : legacyAddresses) {
+            UnspentOutputs coins;
+            if (coinsByAddress != null) {
+                coins = coinsByAddress.get(legacyAddress.getAddress());
+            } else {
+                JSONObject unspentResponse = unspentApi.getUnspentOutputs(legacyAddress.getAddress());
+                coins = unspentResponse != null ? payment.getCoins(unspentResponse) : null;
+            }
+
+            if (coins != null) {
+                SweepBundle sweepBundle = payment.getSweepBundle(coins, suggestedFeePerKb);
+
+                // Don't sweep if there are still unconfirmed funds in address
+                if (coins.getNotice() == null && sweepBundle.getSweepAmount().compareTo(SendCoins.bDust) == 1) {
+                    PendingTransaction pendingSpend = new PendingTransaction();
+                    pendingSpend.unspentOutputBundle = payment.getSpendableCoins(coins, sweepBundle.getSweepAmount(), suggestedFeePerKb);
+                    pendingSpend.sendingObject = new ItemAccount(legacyAddress.getLabel(), "", "", null, legacyAddress);
+                    pendingSpend.bigIntFee = pendingSpend.unspentOutputBundle.getAbsoluteFee();
+                    pendingSpend.bigIntAmount = sweepBundle.getSweepAmount();
+                    pendingSpend.feePerKb = suggestedFeePerKb;
+                    pendingSpend.addressToReceiveIndex = addressToReceiveIndex;
+                    pendingTransactionList.add(pendingSpend);
+                }
+            }
+        }
+
+        return pendingTransactionList;
+    }
+
+    /**
+     * Requests the unspent outputs of several addresses at once and splits the response by the
+     * address each output pays to.
+     *
+     * @return A map of address to {@link UnspentOutputs}, with no entry for addresses without any
+     * @throws Exception If the request fails, or the response has a notice, as it can't be told
+     *                   which of the addresses it applies to
+     */
+    private Map<String, UnspentOutputs> getBatchedUnspentOutputs(List<LegacyAddress> legacyAddresses) throws Exception {
+        StringBuilder addresses = new StringBuilder();
+        for (LegacyAddress legacyAddress : legacyAddresses) {
+            if (addresses.length() > 0) addresses.append('|');
+            addresses.append(legacyAddress.getAddress());
+        }
+
+        Map<String, UnspentOutputs> coinsByAddress = new HashMap<>();
+        JSONObject unspentResponse = unspentApi.getUnspentOutputs(addresses.toString());
+        if (unspentResponse == null) {
+            // No free outputs to spend in any of the addresses
+            return coinsByAddress;
+        }
+
+        if (unspentResponse.has(KEY_NOTICE)) {
+            throw new Exception("Batched response has a notice");
+        }
+
+        NetworkParameters networkParameters = PersistentUrls.getInstance().getCurrentNetworkParams();
+        Map<String, JSONArray> outputsByAddress = new HashMap<>();
+        JSONArray outputs = unspentResponse.getJSONArray(KEY_UNSPENT_OUTPUTS);
+        for (int i = 0; i < outputs.length(); i++) {
+            JSONObject output = outputs.getJSONObject(i);
+            Script script = new Script(Hex.decode(output.getString(KEY_SCRIPT)));
+            String address = script.getToAddress(networkParameters).toString();
+
+            JSONArray addressOutputs = outputsByAddress.get(address);
+            if (addressOutputs == null) {
+                addressOutputs = new JSONArray();
+                outputsByAddress.put(address, addressOutputs);
+            }
+            addressOutputs.put(output);
+        }
+
+        for (Map.Entry<String, JSONArray> entry : outputsByAddress.entrySet()) {
+            JSONObject addressResponse = new JSONObject();
+            addressResponse.put(KEY_UNSPENT_OUTPUTS, entry.getValue());
+            coinsByAddress.put(entry.getKey(), payment.getCoins(addressResponse));
+        }
+        return coinsByAddress;
     }
 
     /**
@@ -114,11 +250,211 @@ public class TransferFundsDataManager {
     public Observable<String> sendPayment(@NonNull Payment payment,
                                           @NonNull List<PendingTransaction> pendingTransactions,
                                           @Nullable CharSequenceX secondPassword) {
-        return getPaymentObservable(payment, pendingTransactions, secondPassword)
+        return getPaymentObservable(payment, pendingTransactions, secondPassword, true)
                 .compose(RxUtil.applySchedulersToObservable());
     }
 
-    private Observable<String> getPaymentObservable(Payment payment, List<PendingTransaction> pendingTransactions, CharSequenceX secondPassword) {
+    /**
+     * Transfers a list of {@link PendingTransaction} objects using as few transactions as
+     * possible. The outputs of several addresses are spent together in one transaction, up to
+     * {@link #MAX_CONSOLIDATED_TX_SIZE} bytes each, which needs one broadcast instead of one per
+     * address. A consolidated transaction is smaller than the separate transactions it replaces,
+     * so its fee is sized for the transaction itself and the saving is added to the amount sent to
+     * the account, matching the totals of {@link #getTransferTotals(List)}. Should a consolidated
+     * transaction fail, its addresses are sent individually as with {@link #sendPayment(Payment,
+     * List, CharSequenceX)}, at their own fees. Emits the Tx hash of each successful payment, and
+     * completes once all have been sent and the payload has been saved.
+     *
+     * @param payment             A new {@link Payment} object
+     * @param pendingTransactions A list of {@link PendingTransaction} objects
+     * @param secondPassword      The double encryption password if necessary
+     * @return An {@link Observable<String>}
+     */
+    public Observable<String> sendConsolidatedPayment(@NonNull Payment payment,
+                                                      @NonNull List<PendingTransaction> pendingTransactions,
+                                                      @Nullable CharSequenceX secondPassword) {
+        return Observable.defer(() -> Observable.fromIterable(getConsolidationGroups(pendingTransactions))
+                .concatMap(group -> {
+                    if (group.size() == 1) {
+                        return getPaymentObservable(payment, group, secondPassword, false);
+                    }
+                    return Observable.fromCallable(() -> submitConsolidatedPayment(payment, group, secondPassword))
+                            .onErrorResumeNext(throwable -> {
+                                // Fall back to one transaction per address
+                                throwable.printStackTrace();
+                                return getPaymentObservable(payment, group, secondPassword, false);
+                            });
+                })
+                // The payload is saved once, after every group has been sent
+                .doOnComplete(() -> savePayloadToServer()
+                        .blockingSubscribe(
+                                aBoolean -> {},
+                                Throwable::printStackTrace)))
+                .compose(RxUtil.applySchedulersToObservable());
+    }
+
+    /**
+     * Splits {@link PendingTransaction} objects into groups whose outputs can be spent together
+     * without the transaction exceeding {@link #MAX_CONSOLIDATED_TX_SIZE}. An address with too many
+     * outputs to share a transaction is given a group of its own.
+     */
+    @VisibleForTesting
+    List<List<PendingTransaction>> getConsolidationGroups(List<PendingTransaction> pendingTransactions) {
+        List<List<PendingTransaction>> groups = new ArrayList<>();
+        List<PendingTransaction> group = new ArrayList<>();
+        int inputs = 0;
+
+        for (PendingTransaction pendingTransaction : pendingTransactions) {
+            int pendingInputs = pendingTransaction.unspentOutputBundle.getSpendableOutputs().size();
+            if (!group.isEmpty()
+                    && (FeeUtil.estimatedSize(inputs + pendingInputs, 1) > MAX_CONSOLIDATED_TX_SIZE
+                    || group.get(0).addressToReceiveIndex != pendingTransaction.addressToReceiveIndex)) {
+                groups.add(group);
+                group = new ArrayList<>();
+                inputs = 0;
+            }
+            group.add(pendingTransaction);
+            inputs += pendingInputs;
+        }
+
+        if (!group.isEmpty()) groups.add(group);
+        return groups;
+    }
+
+    /**
+     * Returns the total to send and the total fee of transferring a list of {@link
+     * PendingTransaction} objects with {@link #sendConsolidatedPayment(Payment, List,
+     * CharSequenceX)}, which are what the user should be shown to confirm.
+     *
+     * @return A Triple of the List of {@link PendingTransaction} objects, the total to send and the
+     * total fees, in that order
+     */
+    @VisibleForTesting
+    Triple<List<PendingTransaction>, Long, Long> getTransferTotals(List<PendingTransaction> pendingTransactions) {
+        long totalToSend = 0L;
+        long totalFee = 0L;
+        for (List<PendingTransaction> group : getConsolidationGroups(pendingTransactions)) {
+            BigInteger fee = getConsolidatedFee(group);
+            totalToSend += getConsolidatedAmount(group, fee).longValue();
+            totalFee += fee.longValue();
+        }
+        return Triple.of(pendingTransactions, totalToSend, totalFee);
+    }
+
+    /**
+     * Returns the fee of a single transaction spending every output of a group to one output. This
+     * is never more than the sum of the group's own fees, which were each sized for a separate
+     * transaction.
+     */
+    @VisibleForTesting
+    static BigInteger getConsolidatedFee(List<PendingTransaction> group) {
+        BigInteger separateFees = BigInteger.ZERO;
+        int inputs = 0;
+        for (PendingTransaction pendingTransaction : group) {
+            separateFees = separateFees.add(pendingTransaction.bigIntFee);
+            inputs += pendingTransaction.unspentOutputBundle.getSpendableOutputs().size();
+        }
+
+        BigInteger feePerKb = group.get(0).feePerKb;
+        if (group.size() == 1 || feePerKb == null) return separateFees;
+        return FeeUtil.estimatedFee(inputs, 1, feePerKb).min(separateFees);
+    }
+
+    /**
+     * Returns the amount a group sends when spent together for the given fee, which is everything
+     * swept from its addresses less that fee.
+     */
+    private static BigInteger getConsolidatedAmount(List<PendingTransaction> group, BigInteger fee) {
+        BigInteger swept = BigInteger.ZERO;
+        for (PendingTransaction pendingTransaction : group) {
+            swept = swept.add(pendingTransaction.bigIntAmount).add(pendingTransaction.bigIntFee);
+        }
+        return swept.subtract(fee);
+    }
+
+    /**
+     * Builds, signs and broadcasts a single transaction spending every output of a group of legacy
+     * addresses to the receiving account, without change. The fee is sized for the one transaction
+     * and everything else is sent, as shown to the user by {@link #getTransferTotals(List)}.
+     *
+     * @return The Tx hash
+     * @throws Exception If the transaction couldn't be built or was rejected
+     */
+    private String submitConsolidatedPayment(Payment payment,
+                                             List<PendingTransaction> group,
+                                             CharSequenceX secondPassword) throws Exception {
+        List<MyTransactionOutPoint> outputs = new ArrayList<>();
+        List<ECKey> keys = new ArrayList<>();
+        BigInteger fee = getConsolidatedFee(group);
+        BigInteger amount = getConsolidatedAmount(group, fee);
+
+        for (PendingTransaction pendingTransaction : group) {
+            LegacyAddress legacyAddress = (LegacyAddress) pendingTransaction.sendingObject.accountObject;
+            if (payloadManager.getPayload().isDoubleEncrypted()) {
+                keys.add(legacyAddress.getECKey(secondPassword));
+            } else {
+                keys.add(legacyAddress.getECKey());
+            }
+
+            outputs.addAll(pendingTransaction.unspentOutputBundle.getSpendableOutputs());
+        }
+
+        if (amount.compareTo(SendCoins.bDust) != 1) {
+            throw new Exception("Consolidated amount is too small to send");
+        }
+
+        SpendableUnspentOutputs spendableOutputs = new SpendableUnspentOutputs();
+        spendableOutputs.setSpendableOutputs(outputs);
+        spendableOutputs.setAbsoluteFee(fee);
+        spendableOutputs.setConsumedAmount(BigInteger.ZERO);
+
+        int addressToReceiveIndex = group.get(0).addressToReceiveIndex;
+        // There's no change, but one address is needed to build the transaction
+        String changeAddress = ((LegacyAddress) group.get(0).sendingObject.accountObject).getAddress();
+        String receivingAddress = payloadManager.getNextReceiveAddress(addressToReceiveIndex);
+
+        String[] result = new String[2];
+        payment.submitPayment(
+                spendableOutputs,
+                keys,
+                receivingAddress,
+                changeAddress,
+                fee,
+                amount,
+                new Payment.SubmitPaymentListener() {
+                    @Override
+                    public void onSuccess(String s) {
+                        result[0] = s;
+                    }
+
+                    @Override
+                    public void onFail(String error) {
+                        result[1] = error;
+                    }
+                });
+
+        if (result[0] == null) {
+            throw new Exception(result[1]);
+        }
+
+        payloadManager.getPayload().getHdWallet().getAccounts().get(addressToReceiveIndex).incReceive();
+
+        // Update Balances temporarily rather than wait for sync
+        for (PendingTransaction pendingTransaction : group) {
+            String address = ((LegacyAddress) pendingTransaction.sendingObject.accountObject).getAddress();
+            long spentAmount = pendingTransaction.bigIntAmount.longValue() + pendingTransaction.bigIntFee.longValue();
+
+            multiAddrFactory.setLegacyBalance(multiAddrFactory.getLegacyBalance() - spentAmount);
+            multiAddrFactory.setLegacyBalance(address, multiAddrFactory.getLegacyBalance(address) - spentAmount);
+        }
+
+        return result[0];
+    }
+
+    private Observable<String> getPaymentObservable(Payment payment,
+                                                    List<PendingTransaction> pendingTransactions,
+                                                    CharSequenceX secondPassword,
+                                                    boolean savePayload) {
         return Observable.create(subscriber -> {
             for (int i = 0; i < pendingTransactions.size(); i++) {
                 PendingTransaction pendingTransaction = pendingTransactions.get(i);
@@ -166,10 +502,12 @@ public class TransferFundsDataManager {
                                             currentAddressBalance - spentAmount);
 
                                     if (finalI == pendingTransactions.size() - 1) {
-                                        savePayloadToServer()
-                                                .blockingSubscribe(
-                                                        aBoolean -> {},
-                                                        Throwable::printStackTrace);
+                                        if (savePayload) {
+                                            savePayloadToServer()
+                                                    .blockingSubscribe(
+                                                            aBoolean -> {},
+                                                            Throwable::printStackTrace);
+                                        }
                                         if (!subscriber.isDisposed()) {
                                             subscriber.onComplete();
                                         }
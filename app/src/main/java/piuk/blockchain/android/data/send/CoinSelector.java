@@ -0,0 +1,180 @@
+package piuk.blockchain.android.data.send;
+
+import info.blockchain.util.FeeUtil;
+import info.blockchain.wallet.payment.Payment;
+import info.blockchain.wallet.payment.data.SpendableUnspentOutputs;
+import info.blockchain.wallet.payment.data.SweepBundle;
+import info.blockchain.wallet.payment.data.UnspentOutputs;
+import info.blockchain.wallet.send.MyTransactionOutPoint;
+import info.blockchain.wallet.send.SendCoins;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Selects coins from a set of unspent outputs using the same rules as {@link Payment}, but sorts
+ * the outputs only once, when constructed, rather than on every call. The absolute fee for any
+ * number of fee rates can be found with a single pass over the outputs via {@link
+ * #getAbsoluteFees(BigInteger, List)}.
+ *
+ * <p>Not thread safe.
+ */
+public class CoinSelector {
+
+    // Every input costs 148 bytes, see FeeUtil#estimatedSize
+    private static final double INPUT_COST_PER_FEE_PER_KB = 0.148;
+
+    private final List<MyTransactionOutPoint> outputs;
+    private final long[] values;
+
+    /**
+     * @param coins The unspent outputs to select from. The list isn't modified.
+     */
+    public CoinSelector(UnspentOutputs coins) {
+        outputs = new ArrayList<>(coins.getOutputs());
+        // Largest first, as in Payment
+        Collections.sort(outputs, (o1, o2) -> o2.getValue().compareTo(o1.getValue()));
+
+        values = new long[outputs.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = outputs.get(i).getValue().longValue();
+        }
+    }
+
+    /**
+     * Equivalent to {@link Payment#getSweepBundle(UnspentOutputs, BigInteger)}.
+     */
+    public SweepBundle getSweepBundle(BigInteger feePerKb) {
+        double inputCost = inputCost(feePerKb);
+
+        int inputs = 0;
+        long total = 0L;
+        for (long value : values) {
+            // Sorted largest first, so no later output is worth spending either
+            if (value < inputCost) break;
+            inputs++;
+            total += value;
+        }
+
+        BigInteger fee = FeeUtil.estimatedFee(inputs, 1, feePerKb);
+        long sweepAmount = total - fee.longValue();
+
+        SweepBundle sweepBundle = new SweepBundle();
+        sweepBundle.setSweepAmount(BigInteger.valueOf(Math.max(sweepAmount, 0L)));
+        sweepBundle.setSweepFee(fee);
+        return sweepBundle;
+    }
+
+    /**
+     * Equivalent to {@link Payment#getSpendableCoins(UnspentOutputs, BigInteger, BigInteger)}.
+     */
+    public SpendableUnspentOutputs getSpendableCoins(BigInteger amount, BigInteger feePerKb) {
+        Selection selection = new Selection(amount.longValue(), feePerKb);
+        for (int i = 0; i < values.length && !selection.done; i++) {
+            selection.offer(values[i]);
+        }
+
+        SpendableUnspentOutputs spendable = new SpendableUnspentOutputs();
+        spendable.setSpendableOutputs(new ArrayList<>(outputs.subList(0, selection.inputs)));
+        spendable.setAbsoluteFee(FeeUtil.estimatedFee(selection.inputs, selection.outputs, feePerKb));
+        spendable.setConsumedAmount(BigInteger.valueOf(selection.consumed));
+        return spendable;
+    }
+
+    /**
+     * Finds the absolute fee of sending an amount at each of several fee rates, walking the sorted
+     * outputs once and advancing the coin selection for every rate as it goes. The result for each
+     * rate is the same as {@link SpendableUnspentOutputs#getAbsoluteFee()} from {@link
+     * #getSpendableCoins(BigInteger, BigInteger)}.
+     *
+     * @param amount    The amount to send in satoshis, excluding the fee
+     * @param feesPerKb The fee rates, in satoshis per kilobyte
+     * @return The absolute fee for each rate, in the same order
+     */
+    public BigInteger[] getAbsoluteFees(BigInteger amount, List<BigInteger> feesPerKb) {
+        int tiers = feesPerKb.size();
+        Selection[] selections = new Selection[tiers];
+        for (int t = 0; t < tiers; t++) {
+            selections[t] = new Selection(amount.longValue(), feesPerKb.get(t));
+        }
+
+        int remaining = tiers;
+        for (int i = 0; i < values.length && remaining > 0; i++) {
+            for (Selection selection : selections) {
+                if (selection.done) continue;
+                selection.offer(values[i]);
+                if (selection.done) remaining--;
+            }
+        }
+
+        BigInteger[] fees = new BigInteger[tiers];
+        for (int t = 0; t < tiers; t++) {
+            Selection selection = selections[t];
+            fees[t] = FeeUtil.estimatedFee(selection.inputs, selection.outputs, selection.feePerKb);
+        }
+        return fees;
+    }
+
+    private static double inputCost(BigInteger feePerKb) {
+        return Math.ceil(feePerKb.doubleValue() * INPUT_COST_PER_FEE_PER_KB);
+    }
+
+    /**
+     * Same rounding as FeeUtil#estimatedFee, without allocating a BigInteger
+     */
+    private static long estimatedFee(int inputs, int outputs, double feePerKb) {
+        return (long) Math.ceil(feePerKb * (FeeUtil.estimatedSize(inputs, outputs) / 1000.0));
+    }
+
+    /**
+     * The state of a coin selection for one fee rate. Outputs are offered largest first, and are
+     * taken until the amount plus fee is covered.
+     */
+    private static class Selection {
+
+        final long amount;
+        final BigInteger feePerKb;
+        final double feePerKbValue;
+        final double inputCost;
+        int inputs;
+        int outputs = 2;
+        long total;
+        long consumed;
+        boolean done;
+
+        Selection(long amount, BigInteger feePerKb) {
+            this.amount = amount;
+            this.feePerKb = feePerKb;
+            this.feePerKbValue = feePerKb.doubleValue();
+            this.inputCost = inputCost(feePerKb);
+        }
+
+        void offer(long value) {
+            if (value < inputCost) {
+                // Sorted largest first, so no later output is worth spending either
+                done = true;
+                return;
+            }
+
+            inputs++;
+            total += value;
+
+            long withoutChange = amount + estimatedFee(inputs, 1, feePerKbValue);
+            if (withoutChange == total) {
+                outputs = 1;
+                done = true;
+            } else if (withoutChange < total && withoutChange >= total - SendCoins.bDust.longValue()) {
+                // Change would be dust, so it is added to the fee instead. Recorded as a negative
+                // amount, as Payment does, since callers only warn when it's positive.
+                consumed += withoutChange - total;
+                outputs = 1;
+                done = true;
+            } else if (total >= amount + estimatedFee(inputs, 2, feePerKbValue)) {
+                outputs = 2;
+                done = true;
+            }
+        }
+    }
+}
@@ -2,26 +2,95 @@ package piuk.blockchain.android.data.services;
 
 import info.blockchain.api.TransactionDetails;
 import info.blockchain.wallet.transaction.Transaction;
+import info.blockchain.wallet.transaction.Tx;
 
-import piuk.blockchain.android.data.rxjava.RxUtil;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import io.reactivex.Completable;
 import io.reactivex.Observable;
+import io.reactivex.schedulers.Schedulers;
+import piuk.blockchain.android.data.cache.TransactionDetailsCache;
+import piuk.blockchain.android.data.rxjava.RxUtil;
 
 public class TransactionDetailsService {
 
+    private static final int MAX_CONCURRENT_REQUESTS = 4;
+
     private TransactionDetails transactionDetails;
+    private TransactionDetailsCache transactionDetailsCache;
 
-    public TransactionDetailsService(TransactionDetails transactionDetails) {
+    public TransactionDetailsService(TransactionDetails transactionDetails,
+                                     TransactionDetailsCache transactionDetailsCache) {
         this.transactionDetails = transactionDetails;
+        this.transactionDetailsCache = transactionDetailsCache;
     }
 
     /**
-     * Get a specific {@link Transaction} from a hash
+     * Get a specific {@link Transaction} from a hash. Transactions are served from {@link
+     * TransactionDetailsCache} where possible, and are cached once fetched if they have at least
+     * {@link TransactionDetailsCache#REQUIRED_CONFIRMATIONS}, below which a reorg could still
+     * change them.
      *
-     * @param hash The hash of the transaction to be returned
+     * @param hash          The hash of the transaction to be returned
+     * @param confirmations The number of confirmations the transaction is known to have
      * @return A Transaction object
      */
-    public Observable<Transaction> getTransactionDetailsFromHash(String hash) {
-        return Observable.fromCallable(() -> transactionDetails.getTransactionDetails(hash))
-                .compose(RxUtil.applySchedulersToObservable());
+    public Observable<Transaction> getTransactionDetailsFromHash(String hash, long confirmations) {
+        return Observable.fromCallable(() -> {
+            Transaction cached = transactionDetailsCache.get(hash);
+            if (cached != null) return cached;
+
+            Transaction transaction = fetchTransaction(hash);
+            if (isConfirmed(transaction, confirmations)) {
+                transactionDetailsCache.put(transaction);
+                transactionDetailsCache.write();
+            }
+            return transaction;
+        }).compose(RxUtil.applySchedulersToObservable());
+    }
+
+    /**
+     * Fetches the details of any of the given transactions which have at least {@link
+     * TransactionDetailsCache#REQUIRED_CONFIRMATIONS} and aren't already cached, a few at a
+     * time, and caches them, writing the cache to disk once. Failures are ignored, and those
+     * transactions are fetched again when next requested.
+     *
+     * @param transactions The transactions likely to be viewed next
+     * @return A {@link Completable} which completes when every transaction has been attempted
+     */
+    public Completable prefetchTransactionDetails(List<Tx> transactions) {
+        return Completable.defer(() -> {
+            Set<String> missing = new LinkedHashSet<>();
+            for (Tx transaction : transactions) {
+                if (transaction.getConfirmations() >= TransactionDetailsCache.REQUIRED_CONFIRMATIONS
+                        && !transactionDetailsCache.contains(transaction.getHash())) {
+                    missing.add(transaction.getHash());
+                }
+            }
+            if (missing.isEmpty()) return Completable.complete();
+
+            return Observable.fromIterable(missing)
+                    .flatMap(hash -> Observable.fromCallable(() -> fetchTransaction(hash))
+                            .subscribeOn(Schedulers.io())
+                            .onErrorResumeNext(Observable.empty()), MAX_CONCURRENT_REQUESTS)
+                    // Guards against the list being out of date
+                    .filter(transaction -> transaction.getHeight() > 0L)
+                    .doOnNext(transactionDetailsCache::put)
+                    .ignoreElements()
+                    .doOnComplete(transactionDetailsCache::write);
+        }).subscribeOn(Schedulers.io());
+    }
+
+    private Transaction fetchTransaction(String hash) throws Exception {
+        Transaction transaction = transactionDetails.getTransactionDetails(hash);
+        if (transaction == null) throw new Exception("No transaction returned for " + hash);
+        return transaction;
+    }
+
+    private boolean isConfirmed(Transaction transaction, long confirmations) {
+        return transaction.getHeight() > 0L
+                && confirmations >= TransactionDetailsCache.REQUIRED_CONFIRMATIONS;
     }
 }
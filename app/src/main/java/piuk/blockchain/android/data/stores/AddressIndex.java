@@ -0,0 +1,173 @@
+package piuk.blockchain.android.data.stores;
+
+import android.support.annotation.Nullable;
+
+import info.blockchain.wallet.multiaddr.MultiAddrFactory;
+import info.blockchain.wallet.payload.Account;
+import info.blockchain.wallet.payload.HDWallet;
+import info.blockchain.wallet.payload.LegacyAddress;
+import info.blockchain.wallet.payload.Payload;
+import info.blockchain.wallet.payload.PayloadManager;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Indexes the wallet's own addresses so that each can be resolved to its label, {@link Account}
+ * or {@link LegacyAddress} with a single hash lookup, where {@link
+ * Payload#getLegacyAddressStringList()} and {@link Payload#getWatchOnlyAddressStringList()} build
+ * and scan a new list on each call.
+ *
+ * <p>The index holds the payload's own {@link Account} and {@link LegacyAddress} objects, so
+ * labels and the watch-only flag are always read as they currently are. It only needs rebuilding
+ * when addresses or accounts are added or removed or the payload is replaced. This is detected on
+ * access by comparing the payload, and a fingerprint of its addresses and xpubs, against those last
+ * indexed. The fingerprint is computed from the strings' cached hash codes, so it is far cheaper
+ * than a rebuild, and changes when an address is swapped for another even though the list's
+ * identity and size do not.
+ */
+public class AddressIndex {
+
+    private final PayloadManager payloadManager;
+    private final MultiAddrFactory multiAddrFactory;
+    private final HashMap<String, LegacyAddress> legacyAddresses = new HashMap<>();
+    private final HashMap<String, Account> accounts = new HashMap<>();
+    // What the index was built from
+    private Payload indexedPayload;
+    private int indexedLegacyAddressCount;
+    private int indexedAccountCount;
+    private int indexedFingerprint;
+
+    public AddressIndex(PayloadManager payloadManager, MultiAddrFactory multiAddrFactory) {
+        this.payloadManager = payloadManager;
+        this.multiAddrFactory = multiAddrFactory;
+    }
+
+    /**
+     * @param address A bitcoin address
+     * @return True if the address is one of the wallet's legacy addresses, including watch-only
+     * addresses
+     */
+    public synchronized boolean isLegacyAddress(String address) {
+        ensureCurrent();
+        return legacyAddresses.containsKey(address);
+    }
+
+    /**
+     * @param address A bitcoin address
+     * @return True if the address is one of the wallet's watch-only legacy addresses
+     */
+    public synchronized boolean isWatchOnly(String address) {
+        ensureCurrent();
+        LegacyAddress legacyAddress = legacyAddresses.get(address);
+        return legacyAddress != null && legacyAddress.isWatchOnly();
+    }
+
+    /**
+     * @param address A bitcoin address
+     * @return The {@link LegacyAddress} for the address, or null if it isn't one of the wallet's
+     * legacy addresses
+     */
+    @Nullable
+    public synchronized LegacyAddress getLegacyAddress(String address) {
+        ensureCurrent();
+        return legacyAddresses.get(address);
+    }
+
+    /**
+     * @param address A bitcoin address
+     * @return The {@link Account} which derived the address, or null if it doesn't belong to one
+     * of the wallet's accounts
+     */
+    @Nullable
+    public synchronized Account getAccount(String address) {
+        ensureCurrent();
+        String xpub = multiAddrFactory.getAddress2Xpub().get(address);
+        return xpub != null ? accounts.get(xpub) : null;
+    }
+
+    /**
+     * @param address A bitcoin address
+     * @return The label of the account or legacy address which owns the address, or null if it
+     * isn't owned by the wallet or has no label
+     */
+    @Nullable
+    public synchronized String getLabel(String address) {
+        String label;
+        if (multiAddrFactory.isOwnHDAddress(address)) {
+            Account account = getAccount(address);
+            label = account != null ? account.getLabel() : null;
+        } else {
+            LegacyAddress legacyAddress = getLegacyAddress(address);
+            label = legacyAddress != null ? legacyAddress.getLabel() : null;
+        }
+        return label != null && !label.isEmpty() ? label : null;
+    }
+
+    private void ensureCurrent() {
+        Payload payload = payloadManager.getPayload();
+        List<LegacyAddress> legacyAddressList = payload != null ? payload.getLegacyAddressList() : null;
+        HDWallet hdWallet = payload != null ? payload.getHdWallet() : null;
+        List<Account> accountList = hdWallet != null ? hdWallet.getAccounts() : null;
+
+        int fingerprint = fingerprint(legacyAddressList, accountList);
+        if (payload != indexedPayload
+                || size(legacyAddressList) != indexedLegacyAddressCount
+                || size(accountList) != indexedAccountCount
+                || fingerprint != indexedFingerprint) {
+            rebuild(legacyAddressList, accountList);
+            indexedPayload = payload;
+            indexedLegacyAddressCount = size(legacyAddressList);
+            indexedAccountCount = size(accountList);
+            indexedFingerprint = fingerprint;
+        }
+    }
+
+    /**
+     * @return A hash of the legacy addresses and xpubs, in order, which changes whenever any of
+     * them is added, removed or replaced
+     */
+    private static int fingerprint(@Nullable List<LegacyAddress> legacyAddressList, @Nullable List<Account> accountList) {
+        int hash = 1;
+        if (legacyAddressList != null) {
+            for (LegacyAddress legacyAddress : legacyAddressList) {
+                String address = legacyAddress.getAddress();
+                hash = 31 * hash + (address != null ? address.hashCode() : 0);
+            }
+        }
+        if (accountList != null) {
+            for (Account account : accountList) {
+                String xpub = account.getXpub();
+                hash = 31 * hash + (xpub != null ? xpub.hashCode() : 0);
+            }
+        }
+        return hash;
+    }
+
+    private void rebuild(@Nullable List<LegacyAddress> legacyAddressList, @Nullable List<Account> accountList) {
+        legacyAddresses.clear();
+        accounts.clear();
+
+        if (legacyAddressList != null) {
+            for (LegacyAddress legacyAddress : legacyAddressList) {
+                // Keep the first entry for an address, as List#indexOf would have found
+                String address = legacyAddress.getAddress();
+                if (address != null && !legacyAddresses.containsKey(address)) {
+                    legacyAddresses.put(address, legacyAddress);
+                }
+            }
+        }
+
+        if (accountList != null) {
+            for (Account account : accountList) {
+                if (account.getXpub() != null) {
+                    accounts.put(account.getXpub(), account);
+                }
+            }
+        }
+    }
+
+    private static int size(@Nullable List<?> list) {
+        return list != null ? list.size() : 0;
+    }
+}
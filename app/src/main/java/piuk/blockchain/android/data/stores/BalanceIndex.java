@@ -0,0 +1,173 @@
+package piuk.blockchain.android.data.stores;
+
+import info.blockchain.wallet.multiaddr.MultiAddrFactory;
+import info.blockchain.wallet.payload.LegacyAddress;
+import info.blockchain.wallet.payload.Payload;
+import info.blockchain.wallet.payload.PayloadManager;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import piuk.blockchain.android.data.cache.TransactionListCache;
+
+/**
+ * Holds the balance of every xpub and legacy address as primitive longs, alongside running totals
+ * for all xpubs and for all active (non-archived) legacy addresses. Lookups are a single hash
+ * lookup with no boxing, where {@link MultiAddrFactory#getLegacyActiveBalance()} walks every
+ * legacy address in the payload on each call.
+ *
+ * <p>The index is built lazily from {@link MultiAddrFactory}, or from the {@link
+ * TransactionListCache.Snapshot} restored at cold start until the first refresh has finished, and
+ * rebuilt after {@link #invalidate()}. Between refreshes it can be kept current by applying the value of individual
+ * inputs and outputs as they arrive over the websocket.
+ */
+public class BalanceIndex {
+
+    private final PayloadManager payloadManager;
+    private final MultiAddrFactory multiAddrFactory;
+    private final TransactionListCache transactionListCache;
+    private final HashMap<String, Balance> xpubBalances = new HashMap<>();
+    private final HashMap<String, Balance> legacyBalances = new HashMap<>();
+    private long totalXpubBalance;
+    private long activeLegacyBalance;
+    private boolean stale = true;
+
+    public BalanceIndex(PayloadManager payloadManager,
+                        MultiAddrFactory multiAddrFactory,
+                        TransactionListCache transactionListCache) {
+        this.payloadManager = payloadManager;
+        this.multiAddrFactory = multiAddrFactory;
+        this.transactionListCache = transactionListCache;
+    }
+
+    /**
+     * Marks the index as out of date, so that it is rebuilt from {@link MultiAddrFactory} on next
+     * access. Should be called once balances have been refreshed from the server or modified
+     * locally.
+     */
+    public synchronized void invalidate() {
+        stale = true;
+    }
+
+    /**
+     * @return The sum of the balances of all xpubs, in satoshis
+     */
+    public synchronized long getXpubBalance() {
+        ensureBuilt();
+        return totalXpubBalance;
+    }
+
+    /**
+     * @return The sum of the balances of all non-archived legacy addresses, in satoshis
+     */
+    public synchronized long getActiveLegacyBalance() {
+        ensureBuilt();
+        return activeLegacyBalance;
+    }
+
+    public synchronized boolean containsXpub(String xpub) {
+        ensureBuilt();
+        return xpubBalances.containsKey(xpub);
+    }
+
+    /**
+     * @param xpub The xpub of an {@link info.blockchain.wallet.payload.Account}
+     * @return The balance of the account in satoshis, or 0 if it is unknown
+     */
+    public synchronized long getXpubBalance(String xpub) {
+        ensureBuilt();
+        Balance balance = xpubBalances.get(xpub);
+        return balance != null ? balance.value : 0L;
+    }
+
+    /**
+     * @param address A legacy address
+     * @return The balance of the address in satoshis, or 0 if it is unknown
+     */
+    public synchronized long getLegacyBalance(String address) {
+        ensureBuilt();
+        Balance balance = legacyBalances.get(address);
+        return balance != null ? balance.value : 0L;
+    }
+
+    /**
+     * Adjusts the balance of an xpub by the value of a single input or output.
+     *
+     * @param xpub  The xpub which owns the input or output
+     * @param delta The change in balance in satoshis, negative for spends
+     * @return True if the xpub was known and its balance has been updated
+     */
+    public synchronized boolean applyXpubDelta(String xpub, long delta) {
+        if (stale) return false;
+
+        Balance balance = xpubBalances.get(xpub);
+        if (balance == null) return false;
+
+        balance.value += delta;
+        totalXpubBalance += delta;
+        return true;
+    }
+
+    /**
+     * Adjusts the balance of a legacy address by the value of a single input or output.
+     *
+     * @param address The legacy address which owns the input or output
+     * @param delta   The change in balance in satoshis, negative for spends
+     * @return True if the address was known and its balance has been updated
+     */
+    public synchronized boolean applyLegacyDelta(String address, long delta) {
+        if (stale) return false;
+
+        Balance balance = legacyBalances.get(address);
+        if (balance == null) return false;
+
+        balance.value += delta;
+        if (balance.active) activeLegacyBalance += delta;
+        return true;
+    }
+
+    private void ensureBuilt() {
+        if (stale) {
+            rebuild();
+            stale = false;
+        }
+    }
+
+    private void rebuild() {
+        xpubBalances.clear();
+        legacyBalances.clear();
+        TransactionListCache.Snapshot snapshot = transactionListCache.getSnapshot();
+        totalXpubBalance = snapshot != null ? snapshot.getXpubBalance() : multiAddrFactory.getXpubBalance();
+        activeLegacyBalance = 0L;
+
+        Map<String, Long> xpubAmounts = snapshot != null ? snapshot.getXpubAmounts() : multiAddrFactory.getXpubAmounts();
+        for (Map.Entry<String, Long> entry : xpubAmounts.entrySet()) {
+            Long value = entry.getValue();
+            xpubBalances.put(entry.getKey(), new Balance(value != null ? value : 0L, true));
+        }
+
+        Payload payload = payloadManager.getPayload();
+        if (payload == null || payload.getLegacyAddressList() == null) return;
+
+        for (LegacyAddress legacyAddress : payload.getLegacyAddressList()) {
+            String address = legacyAddress.getAddress();
+            if (address == null) continue;
+
+            boolean active = legacyAddress.getTag() == LegacyAddress.NORMAL_ADDRESS;
+            long value = snapshot != null ? snapshot.getLegacyBalance(address) : multiAddrFactory.getLegacyBalance(address);
+            legacyBalances.put(address, new Balance(value, active));
+            if (active) activeLegacyBalance += value;
+        }
+    }
+
+    private static class Balance {
+
+        long value;
+        final boolean active;
+
+        Balance(long value, boolean active) {
+            this.value = value;
+            this.active = active;
+        }
+    }
+}
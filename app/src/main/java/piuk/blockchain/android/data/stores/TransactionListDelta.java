@@ -0,0 +1,180 @@
+package piuk.blockchain.android.data.stores;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import info.blockchain.wallet.transaction.Tx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes the difference between two states of a {@link TransactionListStore}, both as the sets
+ * of inserted, changed and removed {@link Tx} records and as an ordered sequence of positional
+ * updates which will transform a copy of the old list into the new one.
+ */
+public class TransactionListDelta {
+
+    private static final int TYPE_INSERTED = 0;
+    private static final int TYPE_REMOVED = 1;
+    private static final int TYPE_CHANGED = 2;
+
+    private final boolean reset;
+    private final List<Tx> inserted = new ArrayList<>();
+    private final List<Tx> changed = new ArrayList<>();
+    private final List<Tx> removed = new ArrayList<>();
+    // Pairs of (type, position), in the order in which they must be applied
+    private int[] updates = new int[16];
+    private int updateCount = 0;
+
+    TransactionListDelta(boolean reset) {
+        this.reset = reset;
+    }
+
+    /**
+     * Returns a delta signalling that the list has been replaced wholesale, for instance because a
+     * different account was selected. Consumers should redraw the entire list.
+     */
+    public static TransactionListDelta createReset() {
+        return new TransactionListDelta(true);
+    }
+
+    /**
+     * @return True if the list was replaced rather than merged, in which case no positional updates
+     * are available
+     */
+    public boolean isReset() {
+        return reset;
+    }
+
+    /**
+     * @return True if the merge produced no changes at all
+     */
+    public boolean isEmpty() {
+        return !reset && updateCount == 0;
+    }
+
+    @NonNull
+    public List<Tx> getInserted() {
+        return inserted;
+    }
+
+    @NonNull
+    public List<Tx> getChanged() {
+        return changed;
+    }
+
+    @NonNull
+    public List<Tx> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return The net change in list size which applying this delta produces
+     */
+    public int getSizeChange() {
+        int sizeChange = 0;
+        for (int i = 0; i < updateCount; i++) {
+            int type = updates[i * 2];
+            if (type == TYPE_INSERTED) sizeChange++;
+            else if (type == TYPE_REMOVED) sizeChange--;
+        }
+        return sizeChange;
+    }
+
+    /**
+     * Replays the positional updates in order. Applying them to the list as it was before the
+     * merge results in the list as it is after the merge.
+     *
+     * @param callback An {@link UpdateCallback}, typically a RecyclerView adapter
+     */
+    public void dispatchUpdatesTo(@NonNull UpdateCallback callback) {
+        dispatchUpdatesTo(callback, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Replays only the positional updates which fall within a window at the head of the list, for
+     * consumers which hold just the first few pages. Updates beyond the end of the window are
+     * skipped, so that the window remains an exact prefix of the merged list.
+     *
+     * @param callback   An {@link UpdateCallback}, typically a RecyclerView adapter
+     * @param windowSize The number of items held by the consumer before the merge
+     * @return The number of items held by the consumer after the updates are applied
+     */
+    public int dispatchUpdatesTo(@Nullable UpdateCallback callback, int windowSize) {
+        boolean unbounded = windowSize == Integer.MAX_VALUE;
+        for (int i = 0; i < updateCount; i++) {
+            int type = updates[i * 2];
+            int position = updates[i * 2 + 1];
+            if (position >= windowSize) continue;
+
+            switch (type) {
+                case TYPE_INSERTED:
+                    if (!unbounded) windowSize++;
+                    if (callback != null) callback.onInserted(position);
+                    break;
+                case TYPE_REMOVED:
+                    if (!unbounded) windowSize--;
+                    if (callback != null) callback.onRemoved(position);
+                    break;
+                case TYPE_CHANGED:
+                    if (callback != null) callback.onChanged(position);
+                    break;
+            }
+        }
+        return windowSize;
+    }
+
+    /**
+     * @param windowSize The number of items at the head of the list held before the merge
+     * @return The number of those items which remain held once this delta is applied
+     */
+    public int getWindowSizeAfter(int windowSize) {
+        return dispatchUpdatesTo(null, windowSize);
+    }
+
+    void addInserted(Tx transaction) {
+        inserted.add(transaction);
+    }
+
+    void addChanged(Tx transaction) {
+        changed.add(transaction);
+    }
+
+    void addRemoved(Tx transaction) {
+        removed.add(transaction);
+    }
+
+    void recordInsertedAt(int position) {
+        recordUpdate(TYPE_INSERTED, position);
+    }
+
+    void recordRemovedAt(int position) {
+        recordUpdate(TYPE_REMOVED, position);
+    }
+
+    void recordChangedAt(int position) {
+        recordUpdate(TYPE_CHANGED, position);
+    }
+
+    private void recordUpdate(int type, int position) {
+        if ((updateCount + 1) * 2 > updates.length) {
+            int[] grown = new int[updates.length * 2];
+            System.arraycopy(updates, 0, grown, 0, updates.length);
+            updates = grown;
+        }
+        updates[updateCount * 2] = type;
+        updates[updateCount * 2 + 1] = position;
+        updateCount++;
+    }
+
+    public interface UpdateCallback {
+
+        void onInserted(int position);
+
+        void onRemoved(int position);
+
+        void onChanged(int position);
+
+    }
+}
@@ -1,22 +1,325 @@
 package piuk.blockchain.android.data.stores;
 
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
 import info.blockchain.wallet.transaction.Tx;
 import info.blockchain.wallet.transaction.TxMostRecentDateComparator;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 
+import piuk.blockchain.android.util.ListUtil;
+
+/**
+ * Keeps a list of {@link Tx} objects permanently sorted by most recent date, alongside an index
+ * keyed by transaction hash. Single inserts and updates locate their position with a binary search
+ * rather than re-sorting the whole list, and bulk inserts are merged into the existing list in a
+ * single linear pass.
+ */
 public class TransactionListStore extends ListStore<Tx> {
 
+    private final Comparator<Tx> comparator = new TxMostRecentDateComparator();
+    private final HashMap<String, Tx> hashIndex = new HashMap<>();
+
     public TransactionListStore() {
         // Empty constructor
     }
 
+    @Override
+    public void storeList(List<Tx> data) {
+        List<Tx> transactions = new ArrayList<>();
+        ListUtil.addAllIfNotNull(transactions, data);
+        clearList();
+        insertBulk(transactions);
+    }
+
+    @Override
+    public void clearList() {
+        super.clearList();
+        hashIndex.clear();
+    }
+
+    @Override
+    public void insertObjectIntoList(Tx object) {
+        insertOrUpdateTransaction(object);
+    }
+
+    @Override
+    public void insertBulk(List<Tx> objects) {
+        if (objects == null || objects.isEmpty()) return;
+
+        // Transactions not yet stored, de-duplicated by hash with later entries taking precedence
+        LinkedHashMap<String, Tx> pending = new LinkedHashMap<>();
+        for (Tx tx : objects) {
+            Tx existing = hashIndex.get(tx.getHash());
+            if (existing != null) {
+                replace(existing, tx);
+            } else {
+                pending.put(tx.getHash(), tx);
+            }
+        }
+
+        if (!pending.isEmpty()) {
+            List<Tx> newTransactions = new ArrayList<>(pending.values());
+            Collections.sort(newTransactions, comparator);
+            mergeSorted(newTransactions);
+        }
+    }
+
+    /**
+     * The list is always kept in {@link TxMostRecentDateComparator} order, so sorting by that
+     * comparator is a no-op. Any other ordering is applied as requested.
+     */
+    @Override
+    public void sort(Comparator<Tx> objectComparator) {
+        if (!(objectComparator instanceof TxMostRecentDateComparator)) {
+            super.sort(objectComparator);
+        }
+    }
+
     public void insertTransactionIntoListAndSort(Tx transaction) {
-        insertObjectIntoList(transaction);
-        sort(new TxMostRecentDateComparator());
+        insertOrUpdateTransaction(transaction);
     }
 
     public void insertTransactions(List<Tx> transactions) {
         insertBulk(transactions);
     }
+
+    /**
+     * Inserts a {@link Tx} at its sorted position, or replaces the stored {@link Tx} with the same
+     * hash if one exists (for instance when the number of confirmations has changed).
+     *
+     * @param transaction The {@link Tx} to be inserted or updated
+     */
+    public void insertOrUpdateTransaction(@NonNull Tx transaction) {
+        Tx existing = hashIndex.get(transaction.getHash());
+        if (existing != null) {
+            replace(existing, transaction);
+        } else {
+            data.add(insertionPoint(transaction), transaction);
+            hashIndex.put(transaction.getHash(), transaction);
+        }
+    }
+
+    /**
+     * Removes the {@link Tx} with the given hash, if present.
+     *
+     * @param hash The hash of the {@link Tx} to be removed
+     * @return The removed {@link Tx}, or null if no such transaction was stored
+     */
+    @Nullable
+    public Tx removeTransaction(String hash) {
+        Tx existing = hashIndex.remove(hash);
+        if (existing != null) {
+            int position = positionOf(existing);
+            if (position >= 0) data.remove(position);
+        }
+        return existing;
+    }
+
+    /**
+     * Reconciles the store against a fresh snapshot of transactions, keyed by hash. Transactions
+     * missing from the snapshot are removed, new ones are inserted at their sorted positions and
+     * those whose contents have changed are replaced. Nothing is re-sorted and unchanged entries
+     * are left where they are.
+     *
+     * @param snapshot The complete, current list of transactions. Need not be sorted.
+     * @return A {@link TransactionListDelta} describing exactly what was changed
+     */
+    @NonNull
+    public TransactionListDelta mergeTransactions(@Nullable List<Tx> snapshot) {
+        TransactionListDelta delta = new TransactionListDelta(false);
+
+        LinkedHashMap<String, Tx> incoming = new LinkedHashMap<>();
+        if (snapshot != null) {
+            for (Tx tx : snapshot) {
+                incoming.put(tx.getHash(), tx);
+            }
+        }
+
+        // Walk backwards so that recorded removal positions are valid when replayed in order
+        int size = data.size();
+        boolean[] dropped = new boolean[size];
+        boolean[] modified = new boolean[size];
+        List<Tx> pending = new ArrayList<>();
+        for (int i = size - 1; i >= 0; i--) {
+            Tx current = data.get(i);
+            Tx replacement = incoming.remove(current.getHash());
+            if (replacement == null) {
+                dropped[i] = true;
+                hashIndex.remove(current.getHash());
+                delta.addRemoved(current);
+                delta.recordRemovedAt(i);
+            } else if (replacement.getTS() != current.getTS()) {
+                // Date has changed, so this needs to move; treat as a removal plus an insertion
+                dropped[i] = true;
+                pending.add(replacement);
+                delta.addChanged(replacement);
+                delta.recordRemovedAt(i);
+            } else if (replacement != current) {
+                modified[i] = !isContentTheSame(current, replacement);
+                if (modified[i]) delta.addChanged(replacement);
+                data.set(i, replacement);
+                hashIndex.put(replacement.getHash(), replacement);
+            }
+        }
+
+        List<Tx> kept = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            if (!dropped[i]) {
+                if (modified[i]) delta.recordChangedAt(kept.size());
+                kept.add(data.get(i));
+            }
+        }
+
+        for (Tx tx : incoming.values()) {
+            delta.addInserted(tx);
+        }
+        pending.addAll(incoming.values());
+        Collections.sort(pending, comparator);
+
+        // Insert in ascending order of final position, which keeps each recorded position valid
+        List<Tx> merged = new ArrayList<>(kept.size() + pending.size());
+        int i = 0;
+        int j = 0;
+        while (i < kept.size() || j < pending.size()) {
+            if (j < pending.size()
+                    && (i == kept.size() || comparator.compare(pending.get(j), kept.get(i)) < 0)) {
+                Tx tx = pending.get(j++);
+                hashIndex.put(tx.getHash(), tx);
+                delta.recordInsertedAt(merged.size());
+                merged.add(tx);
+            } else {
+                merged.add(kept.get(i++));
+            }
+        }
+
+        data.clear();
+        data.addAll(merged);
+        return delta;
+    }
+
+    /**
+     * Returns the stored {@link Tx} for a given hash in constant time.
+     *
+     * @param hash The hash of the {@link Tx}
+     * @return The matching {@link Tx}, or null if not found
+     */
+    @Nullable
+    public Tx getTransaction(String hash) {
+        return hashIndex.get(hash);
+    }
+
+    public boolean containsTransaction(String hash) {
+        return hashIndex.containsKey(hash);
+    }
+
+    private void replace(Tx existing, Tx replacement) {
+        int position = positionOf(existing);
+        hashIndex.put(replacement.getHash(), replacement);
+        if (position >= 0) {
+            if (fitsAt(position, replacement)) {
+                // Ordering is unaffected, swap in place
+                data.set(position, replacement);
+                return;
+            }
+            data.remove(position);
+        }
+        data.add(insertionPoint(replacement), replacement);
+    }
+
+    private boolean fitsAt(int position, Tx transaction) {
+        return (position == 0 || comparator.compare(data.get(position - 1), transaction) <= 0)
+                && (position == data.size() - 1 || comparator.compare(transaction, data.get(position + 1)) <= 0);
+    }
+
+    /**
+     * Merges an already sorted list of new transactions into the stored list in O(n + k).
+     */
+    private void mergeSorted(List<Tx> sortedNewTransactions) {
+        List<Tx> merged = new ArrayList<>(data.size() + sortedNewTransactions.size());
+        int i = 0;
+        int j = 0;
+        while (i < data.size() && j < sortedNewTransactions.size()) {
+            // Existing entries win ties, matching a stable sort of appended entries
+            if (comparator.compare(sortedNewTransactions.get(j), data.get(i)) < 0) {
+                merged.add(sortedNewTransactions.get(j++));
+            } else {
+                merged.add(data.get(i++));
+            }
+        }
+        while (i < data.size()) merged.add(data.get(i++));
+        while (j < sortedNewTransactions.size()) merged.add(sortedNewTransactions.get(j++));
+
+        for (Tx tx : sortedNewTransactions) {
+            hashIndex.put(tx.getHash(), tx);
+        }
+        data.clear();
+        data.addAll(merged);
+    }
+
+    /**
+     * Returns the index after the last element which sorts equal to or before the passed {@link
+     * Tx}, so that transactions with identical timestamps keep their insertion order.
+     */
+    private int insertionPoint(Tx transaction) {
+        int low = 0;
+        int high = data.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (comparator.compare(data.get(mid), transaction) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the current position of a stored {@link Tx} by binary searching for its timestamp and
+     * scanning the (usually tiny) run of transactions sharing it.
+     */
+    private int positionOf(Tx transaction) {
+        int low = 0;
+        int high = data.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (comparator.compare(data.get(mid), transaction) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        for (int i = low; i < data.size() && comparator.compare(data.get(i), transaction) == 0; i++) {
+            if (data.get(i) == transaction) return i;
+        }
+        // Timestamp was mutated on the stored instance, fall back to a linear scan
+        return data.indexOf(transaction);
+    }
+
+    /**
+     * Compares the fields of two {@link Tx} objects with the same hash which affect how they are
+     * displayed.
+     */
+    public static boolean isContentTheSame(Tx oldTransaction, Tx newTransaction) {
+        return stringEquals(oldTransaction.getDirection(), newTransaction.getDirection())
+                && stringEquals(oldTransaction.getNote(), newTransaction.getNote())
+                && oldTransaction.getAmount() == newTransaction.getAmount()
+                && oldTransaction.getConfirmations() == newTransaction.getConfirmations()
+                && oldTransaction.getTS() == newTransaction.getTS()
+                && oldTransaction.isWatchOnly() == newTransaction.isWatchOnly()
+                && oldTransaction.isDoubleSpend() == newTransaction.isDoubleSpend()
+                && oldTransaction.isMove() == newTransaction.isMove();
+    }
+
+    private static boolean stringEquals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
 }
@@ -0,0 +1,54 @@
+package piuk.blockchain.android.data.websocket;
+
+import java.util.Random;
+
+/**
+ * Capped exponential backoff with jitter for websocket reconnection attempts. Each delay is drawn
+ * uniformly from the upper half of the current backoff, so that clients which lost their
+ * connection together don't all retry together, and the backoff doubles after every attempt until
+ * it reaches the cap.
+ */
+class ReconnectionBackoff {
+
+    private final long initialDelayMs;
+    private final long maxDelayMs;
+    private final Random random;
+    private long currentDelayMs;
+    private int attempts;
+
+    /**
+     * @param initialDelayMs The backoff before the first attempt
+     * @param maxDelayMs     The largest backoff between attempts
+     * @param random         The source of jitter
+     */
+    ReconnectionBackoff(long initialDelayMs, long maxDelayMs, Random random) {
+        this.initialDelayMs = initialDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.random = random;
+        currentDelayMs = initialDelayMs;
+    }
+
+    /**
+     * @return The delay in milliseconds to wait before the next attempt
+     */
+    synchronized long nextDelay() {
+        long half = currentDelayMs / 2;
+        long delay = half + (long) (random.nextDouble() * (currentDelayMs - half));
+        currentDelayMs = Math.min(currentDelayMs * 2, maxDelayMs);
+        attempts++;
+        return delay;
+    }
+
+    /**
+     * Returns the backoff to its initial delay, for when a connection succeeds or the network has
+     * just become available
+     */
+    synchronized void reset() {
+        currentDelayMs = initialDelayMs;
+        attempts = 0;
+    }
+
+    synchronized int getAttempts() {
+        return attempts;
+    }
+}
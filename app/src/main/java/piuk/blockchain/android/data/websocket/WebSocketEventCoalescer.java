@@ -0,0 +1,108 @@
+package piuk.blockchain.android.data.websocket;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import piuk.blockchain.android.util.annotations.Thunk;
+
+/**
+ * Collapses bursts of websocket events into a single refresh. The first event schedules a refresh
+ * for the end of a short window, and any further events before then are absorbed by it. Events
+ * which arrive while a refresh is running schedule exactly one more once it has finished, so
+ * refreshes never overlap and the last event is always followed by a refresh.
+ *
+ * <p>Counts of events received and refreshes performed are kept for diagnostics.
+ */
+class WebSocketEventCoalescer {
+
+    private final Runnable refresh;
+    private final long windowMs;
+    private final Scheduler scheduler;
+    private final AtomicLong eventsReceived = new AtomicLong();
+    private final AtomicLong refreshesPerformed = new AtomicLong();
+    private boolean refreshScheduled;
+    private boolean refreshRunning;
+    private boolean refreshRequestedWhileRunning;
+    private Disposable scheduledRefresh;
+
+    /**
+     * @param refresh   The blocking refresh to perform, run on the given {@link Scheduler}
+     * @param windowMs  How long to wait after an event for others to arrive
+     * @param scheduler The {@link Scheduler} on which to run the refresh
+     */
+    WebSocketEventCoalescer(Runnable refresh, long windowMs, Scheduler scheduler) {
+        this.refresh = refresh;
+        this.windowMs = windowMs;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Records an event which requires a refresh, scheduling one if none is pending
+     */
+    void onEvent() {
+        eventsReceived.incrementAndGet();
+        synchronized (this) {
+            if (refreshScheduled) return;
+            if (refreshRunning) {
+                refreshRequestedWhileRunning = true;
+                return;
+            }
+            refreshScheduled = true;
+        }
+        scheduleRefresh();
+    }
+
+    /**
+     * Cancels any pending refresh. A refresh which is already running is allowed to finish, but
+     * isn't followed by another.
+     */
+    synchronized void cancel() {
+        if (scheduledRefresh != null) {
+            scheduledRefresh.dispose();
+            scheduledRefresh = null;
+        }
+        refreshScheduled = false;
+        refreshRequestedWhileRunning = false;
+    }
+
+    long getEventsReceived() {
+        return eventsReceived.get();
+    }
+
+    long getRefreshesPerformed() {
+        return refreshesPerformed.get();
+    }
+
+    private void scheduleRefresh() {
+        Disposable disposable = scheduler.scheduleDirect(this::performRefresh, windowMs, TimeUnit.MILLISECONDS);
+        synchronized (this) {
+            // Unless it has already run or been cancelled
+            if (refreshScheduled && scheduledRefresh == null) scheduledRefresh = disposable;
+        }
+    }
+
+    @Thunk
+    void performRefresh() {
+        synchronized (this) {
+            scheduledRefresh = null;
+            refreshScheduled = false;
+            refreshRunning = true;
+        }
+
+        try {
+            refreshesPerformed.incrementAndGet();
+            refresh.run();
+        } finally {
+            boolean again;
+            synchronized (this) {
+                refreshRunning = false;
+                again = refreshRequestedWhileRunning;
+                refreshRequestedWhileRunning = false;
+                refreshScheduled = again;
+            }
+            if (again) scheduleRefresh();
+        }
+    }
+}
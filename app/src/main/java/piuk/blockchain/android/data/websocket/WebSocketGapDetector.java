@@ -0,0 +1,130 @@
+package piuk.blockchain.android.data.websocket;
+
+import android.support.annotation.NonNull;
+
+import info.blockchain.api.Balance;
+
+import org.json.JSONObject;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the subscriptions which saw transactions whilst the websocket was disconnected. The
+ * websocket can't replay missed events, so instead the transaction count of every subscribed xpub
+ * and address is checkpointed on each connection, and kept current as "utx" events arrive. On
+ * reconnection, the counts reported by the balance endpoint are compared against the checkpoint,
+ * and only the subscriptions which differ need to be caught up.
+ */
+class WebSocketGapDetector {
+
+    private static final String KEY_N_TX = "n_tx";
+    // Keeps each request's URL within what the balance endpoint accepts
+    private static final int BALANCE_BATCH_SIZE = 20;
+
+    private final Balance balanceApi;
+    // Keyed by xpub or address, null until the first checkpoint
+    private Map<String, Long> transactionCounts;
+    // The counts fetched so far by a checkpoint in progress, otherwise null
+    private Map<String, Long> fetchedCounts;
+
+    WebSocketGapDetector(Balance balanceApi) {
+        this.balanceApi = balanceApi;
+    }
+
+    /**
+     * Records a live transaction against each of the subscriptions it touched, so that it isn't
+     * mistaken for a missed one at the next checkpoint. If a checkpoint is in progress and has
+     * already fetched the count of a subscription, that count is also incremented, as it was
+     * fetched before the transaction arrived.
+     *
+     * @param subscriptions The xpubs and addresses involved in the transaction
+     */
+    synchronized void onTransaction(Collection<String> subscriptions) {
+        increment(transactionCounts, subscriptions);
+        increment(fetchedCounts, subscriptions);
+    }
+
+    private static void increment(Map<String, Long> counts, Collection<String> subscriptions) {
+        if (counts == null) return;
+
+        for (String subscription : subscriptions) {
+            Long count = counts.get(subscription);
+            if (count != null) {
+                counts.put(subscription, count + 1);
+            }
+        }
+    }
+
+    /**
+     * Fetches the current transaction counts of the given subscriptions, {@link
+     * #BALANCE_BATCH_SIZE} at a time, and records them as the new checkpoint. This makes blocking
+     * network calls. Transactions reported to {@link #onTransaction(Collection)} meanwhile are
+     * applied to whichever of the old and new counts they aren't already part of. One arriving
+     * whilst its batch is being fetched is assumed to be included in the fetched count.
+     *
+     * @param subscriptions All subscribed xpubs and addresses
+     * @return The subscriptions whose transaction count has changed since the previous
+     * checkpoint, or an empty set if there was no previous checkpoint
+     * @throws Exception If any batch can't be fetched, in which case the previous checkpoint is
+     *                   kept
+     */
+    @NonNull
+    Set<String> checkpoint(List<String> subscriptions) throws Exception {
+        if (subscriptions.isEmpty()) return Collections.emptySet();
+
+        synchronized (this) {
+            fetchedCounts = new HashMap<>();
+        }
+        try {
+            for (int i = 0; i < subscriptions.size(); i += BALANCE_BATCH_SIZE) {
+                List<String> batch = subscriptions.subList(i, Math.min(i + BALANCE_BATCH_SIZE, subscriptions.size()));
+                JSONObject response = balanceApi.getBalance(batch);
+                Map<String, Long> counts = new HashMap<>();
+                Iterator<String> keys = response.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    JSONObject summary = response.optJSONObject(key);
+                    if (summary != null && summary.has(KEY_N_TX)) {
+                        counts.put(key, summary.getLong(KEY_N_TX));
+                    }
+                }
+                // From here on, transactions touching this batch aren't included in its counts
+                synchronized (this) {
+                    fetchedCounts.putAll(counts);
+                }
+            }
+
+            synchronized (this) {
+                Set<String> changed = new HashSet<>();
+                if (transactionCounts != null) {
+                    for (Map.Entry<String, Long> entry : fetchedCounts.entrySet()) {
+                        Long previous = transactionCounts.get(entry.getKey());
+                        if (previous != null && !previous.equals(entry.getValue())) {
+                            changed.add(entry.getKey());
+                        }
+                    }
+                }
+                transactionCounts = fetchedCounts;
+                return changed;
+            }
+        } finally {
+            synchronized (this) {
+                fetchedCounts = null;
+            }
+        }
+    }
+
+    /**
+     * @return True if a checkpoint has been recorded, ie this isn't the first connection
+     */
+    synchronized boolean hasCheckpoint() {
+        return transactionCounts != null;
+    }
+}
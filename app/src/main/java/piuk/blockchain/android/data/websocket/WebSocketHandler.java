@@ -10,26 +10,35 @@ import com.neovisionaries.ws.client.WebSocketAdapter;
 import com.neovisionaries.ws.client.WebSocketFactory;
 import com.neovisionaries.ws.client.WebSocketFrame;
 
+import info.blockchain.api.Balance;
 import info.blockchain.api.PersistentUrls;
 import info.blockchain.wallet.payload.PayloadManager;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import io.reactivex.Completable;
-import io.reactivex.Observable;
-import io.reactivex.ObservableSource;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.schedulers.Schedulers;
 import piuk.blockchain.android.R;
+import piuk.blockchain.android.data.cache.UnspentOutputsCache;
+import piuk.blockchain.android.data.connectivity.ConnectivityStatus;
 import piuk.blockchain.android.data.rxjava.IgnorableDefaultObserver;
 import piuk.blockchain.android.data.rxjava.RxUtil;
+import piuk.blockchain.android.data.stores.AddressIndex;
+import piuk.blockchain.android.data.stores.BalanceIndex;
 import piuk.blockchain.android.ui.balance.BalanceFragment;
 import piuk.blockchain.android.ui.customviews.ToastCustom;
 import piuk.blockchain.android.ui.home.MainActivity;
@@ -44,22 +53,45 @@ class WebSocketHandler {
     @Thunk static final String TAG = WebSocketHandler.class.getSimpleName();
 
     private final static long PING_INTERVAL = 20 * 1000L;
-    private final static long RETRY_INTERVAL = 5 * 1000L;
-
-    private boolean stoppedDeliberately = false;
+    private final static long INITIAL_RETRY_INTERVAL = 1000L;
+    private final static long MAX_RETRY_INTERVAL = 5 * 60 * 1000L;
+    private final static int SUBSCRIPTION_BATCH_SIZE = 100;
+    private final static long SUBSCRIPTION_BATCH_INTERVAL = 50L;
+    private final static long COALESCE_WINDOW = 750L;
+
+    // Read by the payload reload thread
+    private volatile boolean stoppedDeliberately = false;
     private String[] xpubs;
     private String[] addrs;
     @Thunk String guid;
     @Thunk WebSocket connection;
-    @Thunk HashSet<String> subHashSet = new HashSet<>();
+    // Written by the batched subscription whilst single subscriptions may arrive on other threads
+    @Thunk Set<String> subHashSet = Collections.newSetFromMap(new ConcurrentHashMap<>());
     @Thunk HashSet<String> onChangeHashSet = new HashSet<>();
+    // A single worker thread, which is allowed to exit when idle
+    private final ThreadPoolExecutor payloadReloadExecutor = createPayloadReloadExecutor();
+    private boolean payloadReloadPending;
     @Thunk MonetaryUtil monetaryUtil;
     @Thunk PayloadManager payloadManager;
+    @Thunk BalanceIndex balanceIndex;
+    private AddressIndex addressIndex;
     @Thunk Context context;
     @Thunk CompositeDisposable compositeDisposable = new CompositeDisposable();
+    // True from the start of a connection attempt until connect() returns or throws. Guarded by
+    // this handler's lock, so that at most one socket is ever being opened
+    private boolean connecting;
+    @Thunk ReconnectionBackoff backoff =
+            new ReconnectionBackoff(INITIAL_RETRY_INTERVAL, MAX_RETRY_INTERVAL, new Random());
+    @Thunk WebSocketGapDetector gapDetector = new WebSocketGapDetector(new Balance());
+    // Xpubs and addresses subscribed to after the service started
+    private final Set<String> addedSubscriptions = new LinkedHashSet<>();
+    @Thunk WebSocketEventCoalescer eventCoalescer =
+            new WebSocketEventCoalescer(this::refreshBalancesAndTransactions, COALESCE_WINDOW, Schedulers.io());
 
     public WebSocketHandler(Context context,
                             PayloadManager payloadManager,
+                            BalanceIndex balanceIndex,
+                            AddressIndex addressIndex,
                             MonetaryUtil monetaryUtil,
                             String guid,
                             String[] xpubs,
@@ -67,33 +99,59 @@ class WebSocketHandler {
 
         this.context = context;
         this.payloadManager = payloadManager;
+        this.balanceIndex = balanceIndex;
+        this.addressIndex = addressIndex;
         this.monetaryUtil = monetaryUtil;
         this.guid = guid;
         this.xpubs = xpubs;
         this.addrs = addrs;
     }
 
+    private static ThreadPoolExecutor createPayloadReloadExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     /**
-     * Starts listening for updates to subscribed xpubs and addresses. Will attempt reconnection
-     * every 5 seconds if it cannot connect immediately.
+     * Starts listening for updates to subscribed xpubs and addresses. If the connection can't be
+     * made or is later lost, reconnection is attempted with an exponential backoff for as long as
+     * the device has connectivity.
      */
     public void start() {
         stop();
         stoppedDeliberately = false;
-        connectToWebSocket()
-                .doOnError(throwable -> attemptReconnection())
-                .subscribe(new IgnorableDefaultObserver<>());
+        connect();
     }
 
     /**
      * Halts and disconnects the WebSocket service whilst preventing reconnection until {@link
-     * #start()} is called
+     * #start()} is called. Queued payload reloads and balance refreshes are dropped.
      */
     public void stopPermanently() {
         stoppedDeliberately = true;
+        compositeDisposable.clear();
+        eventCoalescer.cancel();
+        synchronized (payloadReloadExecutor) {
+            payloadReloadExecutor.getQueue().clear();
+            payloadReloadPending = false;
+        }
         stop();
     }
 
+    /**
+     * Reconnects promptly when a network connection becomes available, rather than waiting for
+     * the current backoff to expire. Does nothing if an attempt is already connecting.
+     */
+    public synchronized void onNetworkAvailable() {
+        if (!stoppedDeliberately && !isConnected() && !connecting) {
+            backoff.reset();
+            compositeDisposable.clear();
+            attemptReconnection();
+        }
+    }
+
     private void stop() {
         if (isConnected()) {
             connection.disconnect();
@@ -114,166 +172,301 @@ class WebSocketHandler {
         }
     }
 
+    /**
+     * Subscribes to the wallet and all of its xpubs and addresses. Frames are pipelined in batches
+     * of {@link #SUBSCRIPTION_BATCH_SIZE}, each written with a single flush rather than one write
+     * per frame, and batches are spaced out so that wallets with thousands of imported addresses
+     * don't flood the connection. This blocks, and so must not be called on the main thread.
+     */
     private void subscribe() {
         if (guid == null) {
             return;
         }
-        send("{\"op\":\"wallet_sub\",\"guid\":\"" + guid + "\"}");
+
+        long start = System.currentTimeMillis();
+        List<String> messages = new ArrayList<>();
+        messages.add("{\"op\":\"wallet_sub\",\"guid\":\"" + guid + "\"}");
 
         for (String xpub : xpubs) {
             if (xpub != null && xpub.length() > 0) {
-                send("{\"op\":\"xpub_sub\", \"xpub\":\"" + xpub + "\"}");
+                messages.add(getXpubSubscription(xpub));
             }
         }
 
         for (String addr : addrs) {
             if (addr != null && addr.length() > 0) {
-                send("{\"op\":\"addr_sub\", \"addr\":\"" + addr + "\"}");
+                messages.add(getAddressSubscription(addr));
             }
         }
+
+        int sent = sendBatched(messages);
+        Log.d(TAG, "subscribe: sent " + sent + " subscriptions in "
+                + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * @return The number of messages sent, excluding any already sent on this socket
+     */
+    private int sendBatched(List<String> messages) {
+        if (!isConnected()) {
+            return 0;
+        }
+
+        WebSocket socket = connection;
+        int sent = 0;
+        socket.setAutoFlush(false);
+        try {
+            for (String message : messages) {
+                if (subHashSet.contains(message)) continue;
+
+                socket.sendText(message);
+                subHashSet.add(message);
+                sent++;
+
+                if (sent % SUBSCRIPTION_BATCH_SIZE == 0) {
+                    socket.flush();
+                    Thread.sleep(SUBSCRIPTION_BATCH_INTERVAL);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Log.e(TAG, "sendBatched: ", e);
+        } finally {
+            socket.setAutoFlush(true);
+            socket.flush();
+        }
+        return sent;
     }
 
     public void subscribeToXpub(String xpub) {
         if (xpub != null && !xpub.isEmpty()) {
-            send("{\"op\":\"xpub_sub\", \"xpub\":\"" + xpub + "\"}");
+            addSubscription(xpub);
+            send(getXpubSubscription(xpub));
         }
     }
 
     public void subscribeToAddress(String address) {
         if (address != null && !address.isEmpty()) {
-            send("{\"op\":\"addr_sub\", \"addr\":\"" + address + "\"}");
+            addSubscription(address);
+            send(getAddressSubscription(address));
+        }
+    }
+
+    private static String getXpubSubscription(String xpub) {
+        return "{\"op\":\"xpub_sub\", \"xpub\":\"" + xpub + "\"}";
+    }
+
+    private static String getAddressSubscription(String address) {
+        return "{\"op\":\"addr_sub\", \"addr\":\"" + address + "\"}";
+    }
+
+    private synchronized void addSubscription(String subscription) {
+        addedSubscriptions.add(subscription);
+    }
+
+    private synchronized List<String> getSubscriptions() {
+        Set<String> subscriptions = new LinkedHashSet<>();
+        for (String xpub : xpubs) {
+            if (xpub != null && !xpub.isEmpty()) subscriptions.add(xpub);
+        }
+        for (String addr : addrs) {
+            if (addr != null && !addr.isEmpty()) subscriptions.add(addr);
+        }
+        subscriptions.addAll(addedSubscriptions);
+        return new ArrayList<>(subscriptions);
+    }
+
+    /**
+     * Checkpoints the transaction count of every subscription, and on reconnection refreshes only
+     * if a subscription saw transactions whilst the websocket was down. If the counts can't be
+     * fetched after a reconnection there's no telling what was missed, so a refresh is requested
+     * regardless.
+     */
+    private void catchUpAfterGap() {
+        boolean reconnected = gapDetector.hasCheckpoint();
+        try {
+            Set<String> changed = gapDetector.checkpoint(getSubscriptions());
+            if (!changed.isEmpty()) {
+                Log.d(TAG, "catchUpAfterGap: " + changed.size() + " subscriptions changed whilst disconnected");
+                for (String subscription : changed) {
+                    UnspentOutputsCache.getInstance().invalidate(subscription);
+                }
+                updateBalancesAndTransactions();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "catchUpAfterGap: ", e);
+            if (reconnected) updateBalancesAndTransactions();
         }
     }
 
+    /**
+     * Schedules a single reconnection attempt after the next backoff delay. Nothing is scheduled
+     * whilst the device is offline, as the attempt would be futile; {@link #onNetworkAvailable()}
+     * resumes reconnection instead. Nor is anything scheduled whilst an attempt is connecting, as
+     * should that attempt fail it schedules the next itself.
+     */
     @Thunk
-    void attemptReconnection() {
-        if (compositeDisposable.size() == 0 && !stoppedDeliberately) {
-            compositeDisposable.add(
-                    getReconnectionObservable()
-                            .subscribe(
-                                    value -> Log.d(TAG, "attemptReconnection: " + value),
-                                    throwable -> Log.e(TAG, "attemptReconnection: ", throwable)
-                            ));
+    synchronized void attemptReconnection() {
+        if (stoppedDeliberately || isConnected() || connecting || compositeDisposable.size() > 0) {
+            return;
+        }
+
+        if (!ConnectivityStatus.hasConnectivity(context)) {
+            Log.d(TAG, "attemptReconnection: no connectivity, waiting for network");
+            return;
         }
+
+        long delay = backoff.nextDelay();
+        Log.d(TAG, "attemptReconnection: attempt " + backoff.getAttempts() + " in " + delay + "ms");
+        compositeDisposable.add(
+                Completable.timer(delay, TimeUnit.MILLISECONDS)
+                        .subscribe(() -> {
+                            compositeDisposable.clear();
+                            connect();
+                        }, throwable -> Log.e(TAG, "attemptReconnection: ", throwable)));
     }
 
-    private Observable<Long> getReconnectionObservable() {
-        return Observable.interval(RETRY_INTERVAL, TimeUnit.MILLISECONDS)
-                .takeUntil((ObservableSource<Object>) aLong -> isConnected())
-                .doOnNext(tick -> start());
+    /**
+     * Opens a new socket in the background, unless one is open or already being opened. Should
+     * the attempt fail, another is scheduled.
+     */
+    @Thunk
+    void connect() {
+        synchronized (this) {
+            if (stoppedDeliberately || isConnected() || connecting) return;
+            connecting = true;
+        }
+        connectToWebSocket()
+                .doOnError(throwable -> attemptReconnection())
+                .subscribe(new IgnorableDefaultObserver<>());
+    }
+
+    @Thunk
+    synchronized void onConnectFinished() {
+        connecting = false;
     }
 
     private boolean isConnected() {
         return connection != null && connection.isOpen();
     }
 
+    /**
+     * Requests a refresh of balances and transactions. Requests made in quick succession, such as
+     * for a burst of incoming transactions, are collapsed into a single refresh.
+     */
     @Thunk
     void updateBalancesAndTransactions() {
-        updateBalancesAndTxs().subscribe(new IgnorableDefaultObserver<>());
+        eventCoalescer.onEvent();
     }
 
-    private Completable updateBalancesAndTxs() {
-        return Completable.fromCallable(() -> {
+    @Thunk
+    void refreshBalancesAndTransactions() {
+        try {
             payloadManager.updateBalancesAndTransactions();
-            return Void.TYPE;
-        }).doAfterTerminate(() -> {
+        } catch (Exception e) {
+            Log.e(TAG, "refreshBalancesAndTransactions: ", e);
+        } finally {
             Intent intent = new Intent(BalanceFragment.ACTION_INTENT);
             LocalBroadcastManager.getInstance(context).sendBroadcast(intent);
-        }).compose(RxUtil.applySchedulersToCompletable());
+        }
     }
 
     private Completable connectToWebSocket() {
         return Completable.fromCallable(() -> {
             subHashSet.clear();
 
-            connection = new WebSocketFactory()
-                    .createSocket(PersistentUrls.getInstance().getCurrentWebsocketUrl())
-                    .addHeader("Origin", "https://blockchain.info")
-                    .setPingInterval(PING_INTERVAL)
-                    .addListener(new WebSocketAdapter() {
-                        @Override
-                        public void onConnected(WebSocket websocket, Map<String, List<String>> headers) throws Exception {
-                            super.onConnected(websocket, headers);
-                            compositeDisposable.clear();
-                        }
-
-                        @Override
-                        public void onTextMessage(WebSocket websocket, String message) {
-                            JSONObject jsonObject;
-                            try {
-                                jsonObject = new JSONObject(message);
-                                attemptParseMessage(message, jsonObject);
-                            } catch (JSONException je) {
-                                Log.e(TAG, "onTextMessage: ", je);
-                            }
-                        }
-
-                        @Override
-                        public void onDisconnected(WebSocket websocket, WebSocketFrame serverCloseFrame, WebSocketFrame clientCloseFrame, boolean closedByServer) throws Exception {
-                            super.onDisconnected(websocket, serverCloseFrame, clientCloseFrame, closedByServer);
-                            attemptReconnection();
-                        }
-
-                    }).connect();
+            try {
+                if (connection != null) {
+                    // Reuses the previous socket's URL, headers and listener
+                    connection = connection.recreate().connect();
+                } else {
+                    connection = createWebSocket().connect();
+                }
+            } finally {
+                // Cleared before any failure is propagated, so that the retry it triggers isn't
+                // mistaken for a duplicate
+                onConnectFinished();
+            }
 
             subscribe();
+            catchUpAfterGap();
             // Necessary but meaningless return type for Completable
             return Void.TYPE;
         }).compose(RxUtil.applySchedulersToCompletable());
     }
 
+    private WebSocket createWebSocket() throws IOException {
+        return new WebSocketFactory()
+                .createSocket(PersistentUrls.getInstance().getCurrentWebsocketUrl())
+                .addHeader("Origin", "https://blockchain.info")
+                .setPingInterval(PING_INTERVAL)
+                .addListener(new WebSocketAdapter() {
+                    @Override
+                    public void onConnected(WebSocket websocket, Map<String, List<String>> headers) throws Exception {
+                        super.onConnected(websocket, headers);
+                        backoff.reset();
+                        compositeDisposable.clear();
+                    }
+
+                    @Override
+                    public void onTextMessage(WebSocket websocket, String message) {
+                        try {
+                            attemptParseMessage(message, WebSocketMessage.parse(message));
+                        } catch (IOException e) {
+                            Log.e(TAG, "onTextMessage: ", e);
+                        }
+                    }
+
+                    @Override
+                    public void onDisconnected(WebSocket websocket, WebSocketFrame serverCloseFrame, WebSocketFrame clientCloseFrame, boolean closedByServer) throws Exception {
+                        super.onDisconnected(websocket, serverCloseFrame, clientCloseFrame, closedByServer);
+                        attemptReconnection();
+                    }
+
+                });
+    }
+
     @Thunk
-    void attemptParseMessage(String message, JSONObject jsonObject) {
+    void attemptParseMessage(String message, WebSocketMessage parsed) {
         try {
-            String op = (String) jsonObject.get("op");
-            if (op.equals("utx") && jsonObject.has("x")) {
-                JSONObject objX = (JSONObject) jsonObject.get("x");
-
-                long value = 0L;
+            if (WebSocketMessage.OP_UTX.equals(parsed.op) && parsed.inputs != null && parsed.outputs != null) {
                 long totalValue = 0L;
                 String inAddr = null;
-
-                if (objX.has("inputs")) {
-                    JSONArray inputArray = (JSONArray) objX.get("inputs");
-                    JSONObject inputObj;
-                    for (int j = 0; j < inputArray.length(); j++) {
-                        inputObj = (JSONObject) inputArray.get(j);
-                        if (inputObj.has("prev_out")) {
-                            JSONObject prevOutObj = (JSONObject) inputObj.get("prev_out");
-                            if (prevOutObj.has("value")) {
-                                value = prevOutObj.getLong("value");
-                            }
-                            if (prevOutObj.has("xpub")) {
-                                totalValue -= value;
-                            } else if (prevOutObj.has("addr")) {
-                                if (payloadManager.getPayload().containsLegacyAddress((String) prevOutObj.get("addr"))) {
-                                    totalValue -= value;
-                                } else if (inAddr == null) {
-                                    inAddr = (String) prevOutObj.get("addr");
-                                }
-                            }
+                Set<String> touched = new HashSet<>();
+
+                for (WebSocketMessage.Output prevOut : parsed.inputs) {
+                    if (prevOut.xpub != null) {
+                        totalValue -= prevOut.value;
+                        applyXpubDelta(prevOut.xpub, -prevOut.value);
+                        touched.add(prevOut.xpub);
+                    } else if (prevOut.addr != null) {
+                        if (addressIndex.isLegacyAddress(prevOut.addr)) {
+                            totalValue -= prevOut.value;
+                            touched.add(prevOut.addr);
+                            balanceIndex.applyLegacyDelta(prevOut.addr, -prevOut.value);
+                            UnspentOutputsCache.getInstance().invalidate(prevOut.addr);
+                        } else if (inAddr == null) {
+                            inAddr = prevOut.addr;
                         }
                     }
                 }
 
-                if (objX.has("out")) {
-                    JSONArray outArray = (JSONArray) objX.get("out");
-                    JSONObject outObj;
-                    for (int j = 0; j < outArray.length(); j++) {
-                        outObj = (JSONObject) outArray.get(j);
-                        if (outObj.has("value")) {
-                            value = outObj.getLong("value");
-                        }
-                        if (outObj.has("xpub")) {
-                            totalValue += value;
-                        } else if (outObj.has("addr")) {
-                            if (payloadManager.getPayload().containsLegacyAddress((String) outObj.get("addr"))) {
-                                totalValue += value;
-                            }
-                        }
+                for (WebSocketMessage.Output out : parsed.outputs) {
+                    if (out.xpub != null) {
+                        totalValue += out.value;
+                        applyXpubDelta(out.xpub, out.value);
+                        touched.add(out.xpub);
+                    } else if (out.addr != null && addressIndex.isLegacyAddress(out.addr)) {
+                        totalValue += out.value;
+                        touched.add(out.addr);
+                        balanceIndex.applyLegacyDelta(out.addr, out.value);
+                        UnspentOutputsCache.getInstance().invalidate(out.addr);
                     }
                 }
 
+                gapDetector.onTransaction(touched);
+
                 String title = context.getString(R.string.app_name);
                 if (totalValue > 0L) {
                     String marquee = context.getString(R.string.received_bitcoin) + " " + monetaryUtil.getBTCFormat().format((double) totalValue / 1e8) + " BTC";
@@ -287,26 +480,16 @@ class WebSocketHandler {
 
                 updateBalancesAndTransactions();
 
-            } else if (op.equals("on_change")) {
+            } else if (WebSocketMessage.OP_ON_CHANGE.equals(parsed.op)) {
                 final String localChecksum = payloadManager.getCheckSum();
 
-                boolean isSameChecksum = false;
-                if (jsonObject.has("checksum")) {
-                    final String remoteChecksum = (String) jsonObject.get("checksum");
-                    isSameChecksum = remoteChecksum.equals(localChecksum);
-                }
+                boolean isSameChecksum = parsed.checksum != null && parsed.checksum.equals(localChecksum);
+                // Repeated notifications of the same change share a checksum
+                String changeKey = parsed.checksum != null ? parsed.checksum : message;
 
-                if (!onChangeHashSet.contains(message) && !isSameChecksum) {
+                if (!isSameChecksum && onChangeHashSet.add(changeKey)) {
                     // Remote update to wallet data detected
-                    if (payloadManager.getTempPassword() != null) {
-                        // Download changed payload
-                        //noinspection ThrowableResultOfMethodCallIgnored
-                        downloadChangedPayload().blockingGet();
-                        showToast().subscribeOn(AndroidSchedulers.mainThread());
-                        updateBalancesAndTransactions();
-                    }
-
-                    onChangeHashSet.add(message);
+                    requestPayloadReload();
                 }
             }
         } catch (Exception e) {
@@ -314,6 +497,15 @@ class WebSocketHandler {
         }
     }
 
+    /**
+     * Keeps the cached balance of an xpub current until the following balance refresh completes,
+     * and discards its cached unspent outputs.
+     */
+    private void applyXpubDelta(String xpub, long delta) {
+        balanceIndex.applyXpubDelta(xpub, delta);
+        UnspentOutputsCache.getInstance().invalidate(xpub);
+    }
+
     private Completable showToast() {
         return Completable.fromRunnable(
                 () -> ToastCustom.makeText(
@@ -323,16 +515,44 @@ class WebSocketHandler {
                         ToastCustom.TYPE_GENERAL));
     }
 
-    private Completable downloadChangedPayload() {
-        return Completable.fromCallable(() -> {
+    /**
+     * Queues a reload of the remote payload on {@link #payloadReloadExecutor}, so that fetching
+     * and decrypting it never blocks the websocket listener thread. Reloads run one at a time, and
+     * any number of requests made before a queued reload starts are served by that reload.
+     */
+    private void requestPayloadReload() {
+        synchronized (payloadReloadExecutor) {
+            if (payloadReloadPending) return;
+            payloadReloadPending = true;
+        }
+        payloadReloadExecutor.execute(this::reloadPayload);
+    }
+
+    @Thunk
+    void reloadPayload() {
+        synchronized (payloadReloadExecutor) {
+            payloadReloadPending = false;
+        }
+
+        // The executor isn't shut down, as the handler may be started again
+        if (stoppedDeliberately || payloadManager.getTempPassword() == null) {
+            return;
+        }
+
+        try {
             payloadManager.initiatePayload(
                     payloadManager.getPayload().getSharedKey(),
                     payloadManager.getPayload().getGuid(),
                     payloadManager.getTempPassword(), () -> {
                         // No-op, blocking call
                     });
-            return Void.TYPE;
-        }).compose(RxUtil.applySchedulersToCompletable());
+            if (stoppedDeliberately) return;
+            showToast().subscribeOn(AndroidSchedulers.mainThread())
+                    .subscribe(new IgnorableDefaultObserver<>());
+            updateBalancesAndTransactions();
+        } catch (Exception e) {
+            Log.e(TAG, "reloadPayload: ", e);
+        }
     }
 
     private void triggerNotification(String title, String marquee, String text) {
@@ -0,0 +1,146 @@
+package piuk.blockchain.android.data.websocket;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The fields of a websocket message which {@link WebSocketHandler} acts upon. Messages are read
+ * with a streaming parser which skips everything else, rather than building a JSON tree for the
+ * whole message, as blocks and transactions can carry a lot of data that isn't needed.
+ */
+class WebSocketMessage {
+
+    static final String OP_UTX = "utx";
+    static final String OP_ON_CHANGE = "on_change";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    @Nullable String op;
+    // on_change only
+    @Nullable String checksum;
+    // utx only, null if the message had no "x" object
+    @Nullable List<Output> inputs;
+    @Nullable List<Output> outputs;
+
+    /**
+     * An input's previous output, or an output, of a transaction
+     */
+    static class Output {
+
+        long value;
+        // The owning address, if any
+        @Nullable String addr;
+        // The owning xpub, if the output belongs to a subscribed HD account
+        @Nullable String xpub;
+    }
+
+    /**
+     * @param message The text of a websocket message
+     * @return The parsed message
+     * @throws IOException If the message isn't a valid JSON object
+     */
+    @SuppressWarnings("TryFinallyCanBeTryWithResources")
+    @NonNull
+    static WebSocketMessage parse(String message) throws IOException {
+        WebSocketMessage result = new WebSocketMessage();
+        JsonParser parser = JSON_FACTORY.createParser(message);
+        try {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+
+                if ("op".equals(field) && token == JsonToken.VALUE_STRING) {
+                    result.op = parser.getText();
+                } else if ("checksum".equals(field) && token == JsonToken.VALUE_STRING) {
+                    result.checksum = parser.getText();
+                } else if ("x".equals(field) && token == JsonToken.START_OBJECT) {
+                    parseTransaction(parser, result);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } finally {
+            parser.close();
+        }
+        return result;
+    }
+
+    private static void parseTransaction(JsonParser parser, WebSocketMessage result) throws IOException {
+        result.inputs = new ArrayList<>();
+        result.outputs = new ArrayList<>();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+
+            if ("inputs".equals(field) && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    parseInput(parser, result.inputs);
+                }
+            } else if ("out".equals(field) && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    result.outputs.add(parseOutput(parser));
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static void parseInput(JsonParser parser, List<Output> inputs) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+
+            if ("prev_out".equals(field) && token == JsonToken.START_OBJECT) {
+                inputs.add(parseOutput(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static Output parseOutput(JsonParser parser) throws IOException {
+        Output output = new Output();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+
+            if ("value".equals(field) && token == JsonToken.VALUE_NUMBER_INT) {
+                output.value = parser.getLongValue();
+            } else if ("addr".equals(field) && token == JsonToken.VALUE_STRING) {
+                output.addr = parser.getText();
+            } else if ("xpub".equals(field) && token == JsonToken.START_OBJECT) {
+                // The xpub itself is held under "m", alongside its derivation path
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String xpubField = parser.getCurrentName();
+                    JsonToken xpubToken = parser.nextToken();
+                    if ("m".equals(xpubField) && xpubToken == JsonToken.VALUE_STRING) {
+                        output.xpub = parser.getText();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return output;
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Expected " + expected + " but was " + actual);
+        }
+    }
+}
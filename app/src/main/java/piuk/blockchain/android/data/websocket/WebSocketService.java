@@ -14,6 +14,9 @@ import info.blockchain.wallet.payload.PayloadManager;
 
 import javax.inject.Inject;
 
+import piuk.blockchain.android.data.connectivity.ConnectivityStatus;
+import piuk.blockchain.android.data.stores.AddressIndex;
+import piuk.blockchain.android.data.stores.BalanceIndex;
 import piuk.blockchain.android.injection.Injector;
 import piuk.blockchain.android.util.MonetaryUtil;
 import piuk.blockchain.android.util.PrefsUtil;
@@ -24,6 +27,8 @@ public class WebSocketService extends Service {
     public static final String ACTION_INTENT = "info.blockchain.wallet.WebSocketService.SUBSCRIBE_TO_ADDRESS";
     private final IBinder binder = new LocalBinder();
     @Inject protected PayloadManager payloadManager;
+    @Inject protected BalanceIndex balanceIndex;
+    @Inject protected AddressIndex addressIndex;
     @Inject protected PrefsUtil prefsUtil;
     @Thunk WebSocketHandler webSocketHandler;
 
@@ -41,6 +46,16 @@ public class WebSocketService extends Service {
         }
     };
 
+    protected BroadcastReceiver networkReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, final Intent intent) {
+            if (intent.getAction().equals(ConnectivityStatus.ACTION_NETWORK_AVAILABLE)
+                    && webSocketHandler != null) {
+                webSocketHandler.onNetworkAvailable();
+            }
+        }
+    };
+
     {
         Injector.getInstance().getAppComponent().inject(this);
     }
@@ -56,6 +71,8 @@ public class WebSocketService extends Service {
 
         IntentFilter filter = new IntentFilter(ACTION_INTENT);
         LocalBroadcastManager.getInstance(getApplicationContext()).registerReceiver(receiver, filter);
+        LocalBroadcastManager.getInstance(getApplicationContext()).registerReceiver(
+                networkReceiver, new IntentFilter(ConnectivityStatus.ACTION_NETWORK_AVAILABLE));
 
         String[] addrs = getAddresses();
         String[] xpubs = getXpubs();
@@ -63,6 +80,8 @@ public class WebSocketService extends Service {
         webSocketHandler = new WebSocketHandler(
                 getApplicationContext(),
                 payloadManager,
+                balanceIndex,
+                addressIndex,
                 new MonetaryUtil(prefsUtil.getValue(PrefsUtil.KEY_BTC_UNITS, MonetaryUtil.UNIT_BTC)),
                 payloadManager.getPayload().getGuid(),
                 xpubs,
@@ -109,6 +128,7 @@ public class WebSocketService extends Service {
     public void onDestroy() {
         if (webSocketHandler != null) webSocketHandler.stopPermanently();
         LocalBroadcastManager.getInstance(getApplicationContext()).unregisterReceiver(receiver);
+        LocalBroadcastManager.getInstance(getApplicationContext()).unregisterReceiver(networkReceiver);
         super.onDestroy();
     }
 
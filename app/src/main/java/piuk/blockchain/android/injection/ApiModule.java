@@ -1,9 +1,13 @@
 package piuk.blockchain.android.injection;
 
+import android.content.Context;
+
 import info.blockchain.api.Notifications;
 import info.blockchain.api.PersistentUrls;
+import info.blockchain.wallet.multiaddr.MultiAddrFactory;
 import info.blockchain.wallet.payload.PayloadManager;
 
+import java.io.File;
 import java.util.concurrent.TimeUnit;
 
 import javax.inject.Named;
@@ -11,11 +15,17 @@ import javax.inject.Singleton;
 
 import dagger.Module;
 import dagger.Provides;
+import okhttp3.Cache;
 import okhttp3.OkHttpClient;
 import piuk.blockchain.android.data.access.AccessState;
 import piuk.blockchain.android.data.api.ApiInterceptor;
+import piuk.blockchain.android.data.api.CacheControlInterceptor;
+import piuk.blockchain.android.data.api.CachePolicyInterceptor;
+import piuk.blockchain.android.data.cache.TransactionListCache;
 import piuk.blockchain.android.data.notifications.NotificationTokenManager;
 import piuk.blockchain.android.data.services.NotificationService;
+import piuk.blockchain.android.data.stores.AddressIndex;
+import piuk.blockchain.android.data.stores.BalanceIndex;
 import piuk.blockchain.android.data.stores.TransactionListStore;
 import retrofit2.Retrofit;
 import retrofit2.converter.jackson.JacksonConverterFactory;
@@ -28,6 +38,8 @@ import retrofit2.converter.jackson.JacksonConverterFactory;
 public class ApiModule {
 
     private static final int API_TIMEOUT = 15;
+    private static final String HTTP_CACHE_DIRECTORY = "http";
+    private static final long HTTP_CACHE_SIZE = 10 * 1024 * 1024;
 
     @Provides
     protected PayloadManager providePayloadManager() {
@@ -40,6 +52,21 @@ public class ApiModule {
         return new TransactionListStore();
     }
 
+    @Provides
+    @Singleton
+    protected BalanceIndex provideBalanceIndex(PayloadManager payloadManager,
+                                               MultiAddrFactory multiAddrFactory,
+                                               TransactionListCache transactionListCache) {
+        return new BalanceIndex(payloadManager, multiAddrFactory, transactionListCache);
+    }
+
+    @Provides
+    @Singleton
+    protected AddressIndex provideAddressIndex(PayloadManager payloadManager,
+                                               MultiAddrFactory multiAddrFactory) {
+        return new AddressIndex(payloadManager, multiAddrFactory);
+    }
+
     @Provides
     @Singleton
     protected NotificationTokenManager provideNotificationTokenManager(AccessState accessState,
@@ -51,13 +78,17 @@ public class ApiModule {
 
     @Provides
     @Singleton
-    protected OkHttpClient provideOkHttpClient() {
+    protected OkHttpClient provideOkHttpClient(Context context) {
         return new OkHttpClient.Builder()
+                .cache(new Cache(new File(context.getCacheDir(), HTTP_CACHE_DIRECTORY), HTTP_CACHE_SIZE))
                 .connectTimeout(API_TIMEOUT, TimeUnit.SECONDS)
                 .readTimeout(API_TIMEOUT, TimeUnit.SECONDS)
                 .writeTimeout(API_TIMEOUT, TimeUnit.SECONDS)
                 .retryOnConnectionFailure(false)
+                // Only endpoints with a CachePolicy are cached, wallet requests never are
+                .addInterceptor(new CacheControlInterceptor(context))
                 .addInterceptor(new ApiInterceptor())
+                .addNetworkInterceptor(new CachePolicyInterceptor())
                 .build();
     }
 
@@ -5,6 +5,7 @@ import android.content.Context;
 
 import info.blockchain.api.PersistentUrls;
 import info.blockchain.wallet.multiaddr.MultiAddrFactory;
+import info.blockchain.wallet.payload.PayloadManager;
 import info.blockchain.wallet.util.PrivateKeyFactory;
 
 import javax.inject.Singleton;
@@ -12,6 +13,9 @@ import javax.inject.Singleton;
 import dagger.Module;
 import dagger.Provides;
 import piuk.blockchain.android.data.access.AccessState;
+import piuk.blockchain.android.data.cache.HistoricPriceCache;
+import piuk.blockchain.android.data.cache.TransactionDetailsCache;
+import piuk.blockchain.android.data.cache.TransactionListCache;
 import piuk.blockchain.android.util.AESUtilWrapper;
 import piuk.blockchain.android.util.AppUtil;
 import piuk.blockchain.android.util.ExchangeRateFactory;
@@ -74,6 +78,26 @@ public class ApplicationModule {
         return MultiAddrFactory.getInstance();
     }
 
+    @Provides
+    @Singleton
+    protected TransactionListCache provideTransactionListCache(PayloadManager payloadManager,
+                                                               AESUtilWrapper aesUtilWrapper) {
+        return new TransactionListCache(mApplication, payloadManager, aesUtilWrapper);
+    }
+
+    @Provides
+    @Singleton
+    protected HistoricPriceCache provideHistoricPriceCache() {
+        return new HistoricPriceCache(mApplication);
+    }
+
+    @Provides
+    @Singleton
+    protected TransactionDetailsCache provideTransactionDetailsCache(PayloadManager payloadManager,
+                                                                     AESUtilWrapper aesUtilWrapper) {
+        return new TransactionDetailsCache(mApplication, payloadManager, aesUtilWrapper);
+    }
+
     @Provides
     protected PrivateKeyFactory privateKeyFactory() {
         return new PrivateKeyFactory();
@@ -14,6 +14,8 @@ import info.blockchain.wallet.payment.Payment;
 import dagger.Module;
 import dagger.Provides;
 import piuk.blockchain.android.data.access.AccessState;
+import piuk.blockchain.android.data.cache.TransactionDetailsCache;
+import piuk.blockchain.android.data.cache.TransactionListCache;
 import piuk.blockchain.android.data.datamanagers.AccountDataManager;
 import piuk.blockchain.android.data.datamanagers.AccountEditDataManager;
 import piuk.blockchain.android.data.datamanagers.AuthDataManager;
@@ -28,6 +30,8 @@ import piuk.blockchain.android.data.services.SettingsService;
 import piuk.blockchain.android.data.services.TransactionDetailsService;
 import piuk.blockchain.android.data.services.UnspentService;
 import piuk.blockchain.android.data.services.WalletPayloadService;
+import piuk.blockchain.android.data.stores.AddressIndex;
+import piuk.blockchain.android.data.stores.BalanceIndex;
 import piuk.blockchain.android.data.stores.TransactionListStore;
 import piuk.blockchain.android.ui.fingerprint.FingerprintHelper;
 import piuk.blockchain.android.ui.receive.WalletAccountHelper;
@@ -79,11 +83,16 @@ public class DataManagerModule {
     @Provides
     @ViewModelScope
     protected TransactionListDataManager provideTransactionListDataManager(PayloadManager payloadManager,
-                                                                           TransactionListStore transactionListStore) {
+                                                                           TransactionListStore transactionListStore,
+                                                                           BalanceIndex balanceIndex,
+                                                                           TransactionDetailsCache transactionDetailsCache,
+                                                                           TransactionListCache transactionListCache) {
         return new TransactionListDataManager(
                 payloadManager,
-                new TransactionDetailsService(new TransactionDetails()),
-                transactionListStore);
+                new TransactionDetailsService(new TransactionDetails(), transactionDetailsCache),
+                transactionListStore,
+                balanceIndex,
+                transactionListCache);
     }
 
     @Provides
@@ -95,9 +104,9 @@ public class DataManagerModule {
 
     @Provides
     @ViewModelScope
-    protected TransactionHelper provideTransactionHelper(PayloadManager payloadManager,
-                                                         MultiAddrFactory multiAddrFactory) {
-        return new TransactionHelper(payloadManager, multiAddrFactory);
+    protected TransactionHelper provideTransactionHelper(MultiAddrFactory multiAddrFactory,
+                                                         AddressIndex addressIndex) {
+        return new TransactionHelper(multiAddrFactory, addressIndex);
     }
 
     @Provides
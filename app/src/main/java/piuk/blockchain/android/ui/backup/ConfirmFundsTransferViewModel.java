@@ -86,7 +86,8 @@ public class ConfirmFundsTransferViewModel extends BaseViewModel {
     private void updateToAddress(int indexOfReceiveAccount) {
         mDataListener.setPaymentButtonEnabled(false);
         compositeDisposable.add(
-                mFundsDataManager.getTransferableFundTransactionList(indexOfReceiveAccount)
+                mFundsDataManager.getTransferableFundTransactionUpdates(indexOfReceiveAccount)
+                        // Totals are updated as each batch of addresses is looked up
                         .subscribe(triple -> {
                             mPendingTransactions = triple.getLeft();
                             updateUi(triple.getMiddle(), triple.getRight());
@@ -94,7 +95,7 @@ public class ConfirmFundsTransferViewModel extends BaseViewModel {
                         }, throwable -> {
                             mDataListener.showToast(R.string.unexpected_error, ToastCustom.TYPE_ERROR);
                             mDataListener.dismissDialog();
-                        }));
+                        }, () -> mDataListener.setPaymentButtonEnabled(true)));
     }
 
     @VisibleForTesting
@@ -127,8 +128,6 @@ public class ConfirmFundsTransferViewModel extends BaseViewModel {
                 mExchangeRateFactory.getSymbol(fiatUnit)
                         + fiatFee);
 
-        mDataListener.setPaymentButtonEnabled(true);
-
         mDataListener.onUiUpdated();
     }
 
@@ -142,7 +141,7 @@ public class ConfirmFundsTransferViewModel extends BaseViewModel {
         mDataListener.setPaymentButtonEnabled(false);
         mDataListener.showProgressDialog();
         compositeDisposable.add(
-                mFundsDataManager.sendPayment(new Payment(), mPendingTransactions, secondPassword)
+                mFundsDataManager.sendConsolidatedPayment(new Payment(), mPendingTransactions, secondPassword)
                         .subscribe(s -> {
                             mDataListener.hideProgressDialog();
                             mDataListener.showToast(R.string.transfer_confirmed, ToastCustom.TYPE_OK);
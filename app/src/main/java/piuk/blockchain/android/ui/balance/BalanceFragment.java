@@ -31,8 +31,11 @@ import info.blockchain.wallet.transaction.Tx;
 import java.util.ArrayList;
 import java.util.List;
 
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.Disposable;
 import piuk.blockchain.android.R;
 import piuk.blockchain.android.data.payload.PayloadBridge;
+import piuk.blockchain.android.data.stores.TransactionListDelta;
 import piuk.blockchain.android.databinding.FragmentBalanceBinding;
 import piuk.blockchain.android.ui.backup.BackupWalletActivity;
 import piuk.blockchain.android.ui.customviews.ToastCustom;
@@ -58,18 +61,23 @@ public class BalanceFragment extends Fragment implements BalanceViewModel.DataLi
     public static final String KEY_TRANSACTION_LIST_POSITION = "transaction_list_position";
     private static final int SHOW_BTC = 1;
     private static final int SHOW_FIAT = 2;
+    // Number of rows from the end of the list at which the next page is loaded
+    private static final int LOAD_MORE_THRESHOLD = 10;
     private int balanceDisplayState = SHOW_BTC;
     public int balanceBarHeight;
-    private BalanceHeaderAdapter accountsAdapter;
+    @Thunk BalanceHeaderAdapter accountsAdapter;
     @Thunk Communicator comm;
     @Thunk boolean isBTC = true;
     // Accounts list
     @Thunk AppCompatSpinner accountSpinner;
     // Tx list
     @Thunk BalanceListAdapter transactionAdapter;
+    // Set while a page load is posted, so that one fling doesn't queue several pages
+    @Thunk boolean loadMorePending;
     private Activity context;
     private PrefsUtil prefsUtil;
     private DateUtil dateUtil;
+    private Disposable priceUpdates;
 
     @Thunk FragmentBalanceBinding binding;
     @Thunk BalanceViewModel viewModel;
@@ -82,9 +90,7 @@ public class BalanceFragment extends Fragment implements BalanceViewModel.DataLi
                 binding.swipeContainer.setRefreshing(true);
                 viewModel.updateAccountList(getContext());
                 viewModel.updateBalanceAndTransactionList(intent, accountSpinner.getSelectedItemPosition(), isBTC);
-                transactionAdapter.onTransactionsUpdated(viewModel.getTransactionList());
                 binding.swipeContainer.setRefreshing(false);
-                binding.rvTransactions.getAdapter().notifyDataSetChanged();
                 binding.rvTransactions.scrollToPosition(0);
                 // Check backup status on receiving funds
                 viewModel.onViewReady();
@@ -163,22 +169,28 @@ public class BalanceFragment extends Fragment implements BalanceViewModel.DataLi
                 setToolbarOffset(distance);
             }
         });
+        binding.rvTransactions.addOnScrollListener(new LoadMoreScrollListener());
+        binding.rvTransactions.addOnScrollListener(new PrefetchScrollListener());
 
+        // Emits the current price immediately, then again only when a refresh changes it
         String fiat = viewModel.getPrefsUtil().getValue(PrefsUtil.KEY_SELECTED_FIAT, PrefsUtil.DEFAULT_CURRENCY);
-        double lastPrice = ExchangeRateFactory.getInstance().getLastPrice(fiat);
-
-        if (transactionAdapter != null) {
-            transactionAdapter.notifyAdapterDataSetChanged(lastPrice);
-        }
+        priceUpdates = ExchangeRateFactory.getInstance().getLastPriceUpdates(fiat)
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(lastPrice -> {
+                    if (transactionAdapter != null) {
+                        transactionAdapter.notifyAdapterDataSetChanged(lastPrice);
+                    }
 
-        if (accountsAdapter != null) {
-            accountsAdapter.notifyFiatUnitsChanged(fiat, lastPrice);
-        }
+                    if (accountsAdapter != null) {
+                        accountsAdapter.notifyFiatUnitsChanged(fiat, lastPrice);
+                    }
+                }, throwable -> Log.e(TAG, "onResume: ", throwable));
     }
 
     @Override
     public void onPause() {
         super.onPause();
+        if (priceUpdates != null) priceUpdates.dispose();
         LocalBroadcastManager.getInstance(context).unregisterReceiver(receiver);
     }
 
@@ -331,7 +343,10 @@ public class BalanceFragment extends Fragment implements BalanceViewModel.DataLi
         String fiatString = viewModel.getPrefsUtil().getValue(PrefsUtil.KEY_SELECTED_FIAT, PrefsUtil.DEFAULT_CURRENCY);
         double lastPrice = ExchangeRateFactory.getInstance().getLastPrice(fiatString);
 
-        transactionAdapter = new BalanceListAdapter(viewModel.getTransactionList(), prefsUtil, viewModel.getMonetaryUtil(), dateUtil, lastPrice, isBTC);
+        // The adapter holds its own copy, which the view model's later updates are diffed against
+        List<Tx> transactions = new ArrayList<>();
+        ListUtil.addAllIfNotNull(transactions, viewModel.getTransactionList());
+        transactionAdapter = new BalanceListAdapter(transactions, prefsUtil, viewModel.getMonetaryUtil(), dateUtil, lastPrice, isBTC);
         transactionAdapter.setTxListClickListener(new BalanceListAdapter.TxListClickListener() {
             @Override
             public void onRowClicked(int position) {
@@ -424,6 +439,27 @@ public class BalanceFragment extends Fragment implements BalanceViewModel.DataLi
         startActivity(intent);
     }
 
+    @Thunk
+    void loadMoreTransactions() {
+        loadMorePending = false;
+        int count = viewModel.loadMoreTransactions();
+        if (count > 0) {
+            List<Tx> transactions = new ArrayList<>();
+            ListUtil.addAllIfNotNull(transactions, viewModel.getTransactionList());
+            transactionAdapter.onTransactionsAppended(transactions, count);
+        }
+    }
+
+    @Thunk
+    void prefetchVisibleTransactions() {
+        LinearLayoutManager layoutManager = (LinearLayoutManager) binding.rvTransactions.getLayoutManager();
+        if (layoutManager == null) return;
+
+        viewModel.prefetchTransactionDetails(
+                layoutManager.findFirstVisibleItemPosition(),
+                layoutManager.findLastVisibleItemPosition());
+    }
+
     @Override
     public void onRefreshAccounts() {
         //TODO revise
@@ -443,11 +479,19 @@ public class BalanceFragment extends Fragment implements BalanceViewModel.DataLi
 
     @Override
     public void onRefreshBalanceAndTransactions() {
-        // Notify adapter of change, let DiffUtil work out what needs changing
+        // Notify adapter of change. Apply the merge delta directly if there is one, otherwise let
+        // DiffUtil work out what needs changing
         List<Tx> newTransactions = new ArrayList<>();
         ListUtil.addAllIfNotNull(newTransactions, viewModel.getTransactionList());
-        transactionAdapter.onTransactionsUpdated(newTransactions);
+        TransactionListDelta delta = viewModel.getTransactionListDelta();
+        if (delta != null && !delta.isReset()) {
+            transactionAdapter.onTransactionsMerged(newTransactions, delta);
+        } else {
+            transactionAdapter.onTransactionsUpdated(newTransactions);
+        }
         binding.balanceLayout.post(() -> setToolbarOffset(0));
+        // Wait for the new rows to be laid out before finding which are visible
+        binding.rvTransactions.post(this::prefetchVisibleTransactions);
 
         //Display help text to user if no transactionList on selected account/address
         if (viewModel.getTransactionList().size() > 0) {
@@ -471,6 +515,7 @@ public class BalanceFragment extends Fragment implements BalanceViewModel.DataLi
     public void onDestroy() {
         super.onDestroy();
         viewModel.destroy();
+        if (transactionAdapter != null) transactionAdapter.destroy();
     }
 
     @Override
@@ -486,6 +531,41 @@ public class BalanceFragment extends Fragment implements BalanceViewModel.DataLi
 
     }
 
+    private class LoadMoreScrollListener extends RecyclerView.OnScrollListener {
+
+        LoadMoreScrollListener() {
+            // Empty Constructor
+        }
+
+        @Override
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            super.onScrolled(recyclerView, dx, dy);
+            LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+            if (dy > 0 && !loadMorePending && layoutManager.findLastVisibleItemPosition()
+                    >= transactionAdapter.getItemCount() - LOAD_MORE_THRESHOLD) {
+                // Defer, as the adapter mustn't be changed during a scroll callback
+                loadMorePending = true;
+                recyclerView.post(BalanceFragment.this::loadMoreTransactions);
+            }
+        }
+    }
+
+    private class PrefetchScrollListener extends RecyclerView.OnScrollListener {
+
+        PrefetchScrollListener() {
+            // Empty Constructor
+        }
+
+        @Override
+        public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+            super.onScrollStateChanged(recyclerView, newState);
+            // Only once scrolling stops, so that rows which are flung past aren't fetched
+            if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                prefetchVisibleTransactions();
+            }
+        }
+    }
+
     abstract class CollapseActionbarScrollListener extends RecyclerView.OnScrollListener {
 
         private int mToolbarOffset = 0;
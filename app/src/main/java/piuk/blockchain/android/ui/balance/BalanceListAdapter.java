@@ -18,7 +18,13 @@ import info.blockchain.wallet.transaction.Tx;
 
 import java.util.List;
 
+import io.reactivex.Observable;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.PublishSubject;
 import piuk.blockchain.android.R;
+import piuk.blockchain.android.data.stores.TransactionListDelta;
 import piuk.blockchain.android.util.DateUtil;
 import piuk.blockchain.android.util.MonetaryUtil;
 import piuk.blockchain.android.util.PrefsUtil;
@@ -32,6 +38,25 @@ class BalanceListAdapter extends RecyclerView.Adapter<BalanceListAdapter.ViewHol
     private double mBtcExchangeRate;
     private boolean mIsBtc;
     private TxListClickListener mListClickListener;
+    private final PublishSubject<List<Tx>> mDiffRequests = PublishSubject.create();
+    private final Disposable mDiffDisposable;
+    private List<Tx> mPendingTransactions;
+    private final TransactionListDelta.UpdateCallback mUpdateCallback = new TransactionListDelta.UpdateCallback() {
+        @Override
+        public void onInserted(int position) {
+            notifyItemInserted(position);
+        }
+
+        @Override
+        public void onRemoved(int position) {
+            notifyItemRemoved(position);
+        }
+
+        @Override
+        public void onChanged(int position) {
+            notifyItemChanged(position);
+        }
+    };
 
     BalanceListAdapter(List<Tx> transactions,
                        PrefsUtil prefsUtil,
@@ -46,6 +71,11 @@ class BalanceListAdapter extends RecyclerView.Adapter<BalanceListAdapter.ViewHol
         mDateUtil = dateUtil;
         mBtcExchangeRate = btcExchangeRate;
         mIsBtc = isBtc;
+
+        mDiffDisposable = mDiffRequests
+                .switchMap(this::calculateDiff)
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(this::applyDiff, Throwable::printStackTrace);
     }
 
     @Override
@@ -160,10 +190,100 @@ class BalanceListAdapter extends RecyclerView.Adapter<BalanceListAdapter.ViewHol
         return position;
     }
 
+    /**
+     * Diffs the new list against the current one on the computation scheduler and dispatches the
+     * result on the main thread. If another list arrives before the diff completes, the stale diff
+     * is dropped in favour of the newer one.
+     *
+     * @param transactions The new transaction list
+     */
     void onTransactionsUpdated(List<Tx> transactions) {
-        DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new BalanceDiffUtil(mTransactions, transactions));
+        mPendingTransactions = transactions;
+        mDiffRequests.onNext(transactions);
+    }
+
+    /**
+     * Applies a {@link TransactionListDelta} produced by merging a refreshed transaction list,
+     * notifying only the rows which were inserted, changed or removed. The adapter may hold only
+     * the first few pages of the list, in which case updates beyond them are skipped.
+     *
+     * @param transactions The loaded pages of the transaction list after the merge
+     * @param delta        The changes that produced it from the current list
+     */
+    void onTransactionsMerged(List<Tx> transactions, TransactionListDelta delta) {
+        if (mPendingTransactions != null) {
+            // Delta is relative to a list which hasn't been diffed in yet, supersede the diff
+            onTransactionsUpdated(transactions);
+            return;
+        }
+
+        int oldSize = getItemCount();
+        int mergedSize = delta.getWindowSizeAfter(oldSize);
         mTransactions = transactions;
-        diffResult.dispatchUpdatesTo(this);
+        if (mergedSize > getItemCount()) {
+            // Adapter is out of step with the store, so the positions can't be trusted
+            notifyDataSetChanged();
+        } else {
+            delta.dispatchUpdatesTo(mUpdateCallback, oldSize);
+            if (getItemCount() > mergedSize) {
+                notifyItemRangeInserted(mergedSize, getItemCount() - mergedSize);
+            }
+        }
+    }
+
+    /**
+     * Appends a newly loaded page of older transactions to the end of the list.
+     *
+     * @param transactions The loaded pages of the transaction list, including the new page
+     * @param count        The number of transactions in the new page
+     */
+    void onTransactionsAppended(List<Tx> transactions, int count) {
+        if (mPendingTransactions != null || getItemCount() + count != transactions.size()) {
+            onTransactionsUpdated(transactions);
+            return;
+        }
+
+        int oldSize = getItemCount();
+        mTransactions = transactions;
+        notifyItemRangeInserted(oldSize, count);
+    }
+
+    /**
+     * Cancels any diff still being calculated. Should be called when the hosting view is destroyed.
+     */
+    void destroy() {
+        mDiffDisposable.dispose();
+    }
+
+    private Observable<PendingDiff> calculateDiff(List<Tx> newTransactions) {
+        // Captured on the main thread, so is the list the diff will be dispatched against
+        List<Tx> oldTransactions = mTransactions;
+        return Observable.fromCallable(() -> new PendingDiff(
+                oldTransactions,
+                newTransactions,
+                DiffUtil.calculateDiff(new BalanceDiffUtil(oldTransactions, newTransactions))))
+                .subscribeOn(Schedulers.computation())
+                // Keeps the diff requests alive, the list is then refreshed in full
+                .onErrorReturn(throwable -> {
+                    throwable.printStackTrace();
+                    return new PendingDiff(oldTransactions, newTransactions, null);
+                });
+    }
+
+    private void applyDiff(PendingDiff pendingDiff) {
+        if (pendingDiff.newTransactions != mPendingTransactions) {
+            // Superseded by a more recent list
+            return;
+        }
+
+        mPendingTransactions = null;
+        List<Tx> oldTransactions = mTransactions;
+        mTransactions = pendingDiff.newTransactions;
+        if (pendingDiff.diffResult != null && pendingDiff.oldTransactions == oldTransactions) {
+            pendingDiff.diffResult.dispatchUpdatesTo(this);
+        } else {
+            notifyDataSetChanged();
+        }
     }
 
     void setTxListClickListener(TxListClickListener listClickListener) {
@@ -183,6 +303,20 @@ class BalanceListAdapter extends RecyclerView.Adapter<BalanceListAdapter.ViewHol
         notifyDataSetChanged();
     }
 
+    private static class PendingDiff {
+
+        final List<Tx> oldTransactions;
+        final List<Tx> newTransactions;
+        // Null if the diff failed
+        @Nullable final DiffUtil.DiffResult diffResult;
+
+        PendingDiff(List<Tx> oldTransactions, List<Tx> newTransactions, @Nullable DiffUtil.DiffResult diffResult) {
+            this.oldTransactions = oldTransactions;
+            this.newTransactions = newTransactions;
+            this.diffResult = diffResult;
+        }
+    }
+
     interface TxListClickListener {
 
         void onRowClicked(int position);
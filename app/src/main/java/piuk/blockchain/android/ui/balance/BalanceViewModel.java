@@ -8,6 +8,7 @@ import android.content.Intent;
 import android.databinding.BaseObservable;
 import android.databinding.Bindable;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 
 import info.blockchain.api.Settings;
@@ -26,10 +27,13 @@ import javax.inject.Inject;
 
 import io.reactivex.Observable;
 import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
 import piuk.blockchain.android.BR;
 import piuk.blockchain.android.R;
+import piuk.blockchain.android.data.cache.TransactionDetailsCache;
 import piuk.blockchain.android.data.datamanagers.TransactionListDataManager;
 import piuk.blockchain.android.data.rxjava.RxUtil;
+import piuk.blockchain.android.data.stores.TransactionListDelta;
 import piuk.blockchain.android.injection.Injector;
 import piuk.blockchain.android.ui.account.ItemAccount;
 import piuk.blockchain.android.ui.base.ViewModel;
@@ -49,10 +53,16 @@ public class BalanceViewModel extends BaseObservable implements ViewModel {
     private List<ItemAccount> activeAccountAndAddressList;
     private HashBiMap<Object, Integer> activeAccountAndAddressBiMap;
     private List<Tx> transactionList;
+    private TransactionListDelta transactionListDelta;
+    // The length of the prefix of the sorted list paged in so far. It only shrinks on a reset, as
+    // rows are never evicted: the detail screen resolves transactions by their list position
+    private int loadedTransactionCount;
     @Inject protected PrefsUtil prefsUtil;
     @Inject protected PayloadManager payloadManager;
     @Inject protected TransactionListDataManager transactionListDataManager;
     @VisibleForTesting CompositeDisposable compositeDisposable;
+    // Only the rows currently on screen are worth fetching, so each prefetch replaces the last
+    private Disposable prefetchDisposable;
 
     @Bindable
     public String getBalance() {
@@ -187,6 +197,7 @@ public class BalanceViewModel extends BaseObservable implements ViewModel {
         context = null;
         dataListener = null;
         compositeDisposable.clear();
+        if (prefetchDisposable != null) prefetchDisposable.dispose();
     }
 
     public List<ItemAccount> getActiveAccountAndAddressList() {
@@ -198,6 +209,8 @@ public class BalanceViewModel extends BaseObservable implements ViewModel {
         //activeAccountAndAddressList is linked to Adapter - do not reconstruct or loose reference otherwise notifyDataSetChanged won't work
         activeAccountAndAddressList.clear();
         activeAccountAndAddressBiMap.clear();
+        // Balances may have changed since the list was last drawn
+        transactionListDataManager.invalidateBalances();
 
         int spinnerIndex = 0;
 
@@ -338,6 +351,64 @@ public class BalanceViewModel extends BaseObservable implements ViewModel {
         return transactionList;
     }
 
+    /**
+     * Pages the next {@link TransactionListDataManager#PAGE_SIZE} transactions into {@link
+     * #getTransactionList()}, if there are any more to load. Pages are appended and kept, so after
+     * scrolling to the end the list holds the whole history. The {@link Tx} objects are shared with
+     * the data manager's list, so this costs only the references.
+     *
+     * @return The number of transactions appended, which may be zero
+     */
+    public int loadMoreTransactions() {
+        if (loadedTransactionCount >= transactionListDataManager.getTransactionCount()) return 0;
+
+        List<Tx> page = transactionListDataManager.getTransactionPage(loadedTransactionCount, TransactionListDataManager.PAGE_SIZE);
+        transactionList.addAll(page);
+        loadedTransactionCount += page.size();
+        return page.size();
+    }
+
+    /**
+     * Fetches the details of the confirmed transactions between two positions in {@link
+     * #getTransactionList()} in the background, so that they open instantly. Transactions with fewer
+     * than {@link TransactionDetailsCache#REQUIRED_CONFIRMATIONS} are skipped as their details
+     * aren't cached until then. Any earlier prefetch still running is cancelled, as its rows have
+     * been scrolled away from.
+     *
+     * @param firstPosition The first visible position
+     * @param lastPosition  The last visible position, inclusive
+     */
+    public void prefetchTransactionDetails(int firstPosition, int lastPosition) {
+        if (prefetchDisposable != null) prefetchDisposable.dispose();
+        if (firstPosition < 0 || lastPosition < firstPosition) return;
+
+        List<Tx> transactions = new ArrayList<>();
+        int end = Math.min(lastPosition, transactionList.size() - 1);
+        for (int i = firstPosition; i <= end; i++) {
+            Tx transaction = transactionList.get(i);
+            // Shallower transactions could still be changed by a reorg, so aren't cached
+            if (transaction.getConfirmations() >= TransactionDetailsCache.REQUIRED_CONFIRMATIONS) {
+                transactions.add(transaction);
+            }
+        }
+        if (transactions.isEmpty()) return;
+
+        prefetchDisposable = transactionListDataManager.prefetchTransactionDetails(transactions)
+                .subscribe(() -> {
+                    // No-op
+                }, Throwable::printStackTrace);
+    }
+
+    /**
+     * Returns the changes made to the transaction list by the last call to {@link
+     * #updateBalanceAndTransactionList(Intent, int, boolean)}, or null if they aren't known and the
+     * whole list should be diffed.
+     */
+    @Nullable
+    public TransactionListDelta getTransactionListDelta() {
+        return transactionListDelta;
+    }
+
     //TODO refactor isBTC out
     public void updateBalanceAndTransactionList(Intent intent, int accountSpinnerPosition, boolean isBTC) {
 
@@ -349,9 +420,14 @@ public class BalanceViewModel extends BaseObservable implements ViewModel {
             object = activeAccountAndAddressBiMap.inverse().get(accountSpinnerPosition);
         }
 
-        transactionListDataManager.clearTransactionList();
-        transactionListDataManager.generateTransactionList(object);
-        transactionList = transactionListDataManager.getTransactionList();
+        transactionListDelta = transactionListDataManager.mergeTransactionList(object);
+        int firstPageSize = Math.min(TransactionListDataManager.PAGE_SIZE, transactionListDataManager.getTransactionCount());
+        if (transactionListDelta.isReset()) {
+            loadedTransactionCount = firstPageSize;
+        } else {
+            // Keep whatever has been paged in so far, topping up to at least the first page
+            loadedTransactionCount = Math.max(firstPageSize, transactionListDelta.getWindowSizeAfter(loadedTransactionCount));
+        }
         double btc_balance = transactionListDataManager.getBtcBalance(object);
 
         // Returning from SendFragment the following will happen
@@ -365,10 +441,14 @@ public class BalanceViewModel extends BaseObservable implements ViewModel {
             @SuppressLint("UseSparseArrays")
             Tx tx = new Tx("", strNote, direction, amount, time, new HashMap<>());
 
-            transactionList = transactionListDataManager.insertTransactionIntoListAndReturnSorted(tx);
-        } else if (transactionList.size() > 0) {
-            if (transactionList.get(0).getHash().isEmpty()) transactionList.remove(0);
+            transactionListDataManager.insertTransactionIntoListAndReturnSorted(tx);
+            loadedTransactionCount = Math.min(loadedTransactionCount + 1, transactionListDataManager.getTransactionCount());
+            // Placeholder isn't part of the merge, so the whole list needs diffing
+            transactionListDelta = null;
         }
+        // Any previous placeholder is absent from the MultiAddr snapshot and so is removed by the merge
+
+        transactionList = transactionListDataManager.getTransactionPage(0, loadedTransactionCount);
 
         String balanceTotal = getBalanceString(isBTC, btc_balance);
 
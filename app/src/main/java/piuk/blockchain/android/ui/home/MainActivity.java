@@ -167,6 +167,7 @@ public class MainActivity extends BaseAuthActivity implements BalanceFragment.Co
         super.onResume();
         appUtil.deleteQR();
         mainViewModel.storeSwipeReceiveAddresses();
+        mainViewModel.startPeriodicRefresh();
         resetNavigationDrawer();
 
         if (AndroidUtils.is25orHigher() && mainViewModel.areLauncherShortcutsEnabled()) {
@@ -181,6 +182,12 @@ public class MainActivity extends BaseAuthActivity implements BalanceFragment.Co
         binding.bottomNavigation.restoreBottomNavigation(false);
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mainViewModel.stopPeriodicRefresh();
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
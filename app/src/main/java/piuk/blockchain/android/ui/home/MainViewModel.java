@@ -3,19 +3,18 @@ package piuk.blockchain.android.ui.home;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Looper;
+import android.support.v4.content.LocalBroadcastManager;
 
 import info.blockchain.api.Balance;
-import info.blockchain.api.DynamicFee;
-import info.blockchain.api.ExchangeTicker;
 import info.blockchain.api.Settings;
-import info.blockchain.api.Unspent;
 import info.blockchain.wallet.multiaddr.MultiAddrFactory;
 import info.blockchain.wallet.payload.Account;
+import info.blockchain.wallet.payload.LegacyAddress;
 import info.blockchain.wallet.payload.PayloadManager;
 import info.blockchain.wallet.util.WebUtil;
 
-import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
@@ -24,12 +23,14 @@ import javax.inject.Inject;
 
 import io.reactivex.Observable;
 import piuk.blockchain.android.data.access.AccessState;
-import piuk.blockchain.android.data.cache.DefaultAccountUnspentCache;
 import piuk.blockchain.android.data.cache.DynamicFeeCache;
+import piuk.blockchain.android.data.cache.TransactionListCache;
+import piuk.blockchain.android.data.cache.UnspentOutputsCache;
 import piuk.blockchain.android.data.connectivity.ConnectivityStatus;
 import piuk.blockchain.android.data.rxjava.RxUtil;
 import piuk.blockchain.android.data.websocket.WebSocketService;
 import piuk.blockchain.android.injection.Injector;
+import piuk.blockchain.android.ui.balance.BalanceFragment;
 import piuk.blockchain.android.ui.base.BaseViewModel;
 import piuk.blockchain.android.ui.swipetoreceive.SwipeToReceiveHelper;
 import piuk.blockchain.android.util.AppUtil;
@@ -50,6 +51,7 @@ public class MainViewModel extends BaseViewModel {
     @Inject protected AccessState accessState;
     @Inject protected PayloadManager payloadManager;
     @Inject protected SwipeToReceiveHelper swipeToReceiveHelper;
+    @Inject protected TransactionListCache transactionListCache;
 
     public interface DataListener {
         void onRooted();
@@ -160,15 +162,14 @@ public class MainViewModel extends BaseViewModel {
     }
 
     private void preLaunchChecks() {
-        exchangeRateThread();
+        checkSelectedFiat();
 
         if (AccessState.getInstance().isLoggedIn()) {
             dataListener.onFetchTransactionsStart();
 
             new Thread(() -> {
                 Looper.prepare();
-                cacheDynamicFee();
-                cacheDefaultAccountUnspentData();
+                cacheUnspentData();
                 logEvents();
                 Looper.loop();
             }).start();
@@ -177,15 +178,35 @@ public class MainViewModel extends BaseViewModel {
 
                 Looper.prepare();
 
+                // Draw the last known balance and transactions straight away if we have them, and
+                // let the network refresh below update the balance screen once it completes. The
+                // restored data is kept apart from MultiAddrFactory, which the refresh rewrites in
+                // place, and drawn from until the refresh has finished
+                boolean restoredFromCache = transactionListCache.restore();
+                if (restoredFromCache && dataListener != null) {
+                    dataListener.onFetchTransactionCompleted();
+                    dataListener.onStartBalanceFragment();
+                }
+
+                boolean refreshed = false;
                 try {
                     payloadManager.updateBalancesAndTransactions();
+                    refreshed = true;
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
 
+                if (refreshed) {
+                    transactionListCache.write();
+                }
+
                 storeSwipeReceiveAddresses();
 
-                if (dataListener != null) {
+                if (restoredFromCache) {
+                    transactionListCache.releaseSnapshot(refreshed);
+                    Intent intent = new Intent(BalanceFragment.ACTION_INTENT);
+                    LocalBroadcastManager.getInstance(context).sendBroadcast(intent);
+                } else if (dataListener != null) {
                     dataListener.onFetchTransactionCompleted();
                     dataListener.onStartBalanceFragment();
                 }
@@ -205,30 +226,34 @@ public class MainViewModel extends BaseViewModel {
         }
     }
 
-    private void cacheDynamicFee() {
-        try {
-            DynamicFeeCache.getInstance().setSuggestedFee(new DynamicFee().getDynamicFee());
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    private void cacheDefaultAccountUnspentData() {
+    /**
+     * Warms the unspent outputs cache for every active account, starting with the default, and for
+     * any spendable legacy addresses known to hold funds.
+     */
+    private void cacheUnspentData() {
+        List<String> keys = new ArrayList<>();
 
         if (payloadManager.getPayload().getHdWallet() != null) {
-
+            List<Account> accounts = payloadManager.getPayload().getHdWallet().getAccounts();
             int defaultAccountIndex = payloadManager.getPayload().getHdWallet().getDefaultIndex();
+            keys.add(accounts.get(defaultAccountIndex).getXpub());
 
-            Account defaultAccount = payloadManager.getPayload().getHdWallet().getAccounts().get(defaultAccountIndex);
-            String xpub = defaultAccount.getXpub();
+            for (int i = 0; i < accounts.size(); i++) {
+                if (i != defaultAccountIndex && !accounts.get(i).isArchived()) {
+                    keys.add(accounts.get(i).getXpub());
+                }
+            }
+        }
 
-            try {
-                JSONObject unspentResponse = new Unspent().getUnspentOutputs(xpub);
-                DefaultAccountUnspentCache.getInstance().setUnspentApiResponse(xpub, unspentResponse);
-            } catch (Exception e) {
-                e.printStackTrace();
+        for (LegacyAddress legacyAddress : payloadManager.getPayload().getLegacyAddressList()) {
+            if (legacyAddress.getTag() == LegacyAddress.NORMAL_ADDRESS
+                    && !legacyAddress.isWatchOnly()
+                    && MultiAddrFactory.getInstance().getLegacyBalance(legacyAddress.getAddress()) > 0) {
+                keys.add(legacyAddress.getAddress());
             }
         }
+
+        UnspentOutputsCache.getInstance().prefetch(keys);
     }
 
     @Override
@@ -238,39 +263,43 @@ public class MainViewModel extends BaseViewModel {
         context = null;
         dataListener = null;
         DynamicFeeCache.getInstance().destroy();
+        ExchangeRateFactory.getInstance().stopPeriodicRefresh();
+        UnspentOutputsCache.getInstance().destroy();
+    }
+
+    /**
+     * Starts polling the exchange rates and, once logged in, the dynamic fee. Should be called
+     * when the activity resumes, so that neither is polled whilst the app is in the background.
+     */
+    public void startPeriodicRefresh() {
+        ExchangeRateFactory.getInstance().startPeriodicRefresh();
+        if (AccessState.getInstance().isLoggedIn()) {
+            DynamicFeeCache.getInstance().startPeriodicRefresh();
+        }
     }
 
-    private void exchangeRateThread() {
+    /**
+     * Stops the polling started by {@link #startPeriodicRefresh()}. The last values fetched are
+     * kept, and refreshed immediately on resuming.
+     */
+    public void stopPeriodicRefresh() {
+        ExchangeRateFactory.getInstance().stopPeriodicRefresh();
+        DynamicFeeCache.getInstance().stopPeriodicRefresh();
+    }
 
+    private void checkSelectedFiat() {
         List<String> currencies = Arrays.asList(ExchangeRateFactory.getInstance().getCurrencies());
         String strCurrentSelectedFiat = prefs.getValue(PrefsUtil.KEY_SELECTED_FIAT, "");
         if (!currencies.contains(strCurrentSelectedFiat)) {
             prefs.setValue(PrefsUtil.KEY_SELECTED_FIAT, PrefsUtil.DEFAULT_CURRENCY);
         }
-
-        new Thread(() -> {
-            Looper.prepare();
-
-            String response = null;
-            try {
-                // TODO: 07/09/2016 Exchange rate only fetched once per session? Should try to update more often
-                response = new ExchangeTicker().getExchangeRate();
-
-                ExchangeRateFactory.getInstance().setData(response);
-                ExchangeRateFactory.getInstance().updateFxPricesForEnabledCurrencies();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-
-            Looper.loop();
-
-        }).start();
     }
 
     public void unpair() {
         dataListener.clearAllDynamicShortcuts();
         payloadManager.wipe();
         MultiAddrFactory.getInstance().wipe();
+        transactionListCache.clear();
         prefs.logOut();
         appUtil.restartApp();
         accessState.setPIN(null);
@@ -16,6 +16,8 @@ public class PendingTransaction {
     public String receivingAddress;
     public BigInteger bigIntFee;
     public BigInteger bigIntAmount;
+    // The fee per kilobyte that bigIntFee was calculated with, where known
+    public BigInteger feePerKb;
     public int addressToReceiveIndex;
 
     public boolean isHD() {
@@ -32,6 +34,7 @@ public class PendingTransaction {
                 ", receivingAddress='" + receivingAddress + '\'' +
                 ", bigIntFee=" + bigIntFee +
                 ", bigIntAmount=" + bigIntAmount +
+                ", feePerKb=" + feePerKb +
                 ", addressToReceiveIndex=" + addressToReceiveIndex +
                 '}';
     }
@@ -5,10 +5,8 @@ import android.databinding.Bindable;
 
 import info.blockchain.wallet.payment.data.SuggestedFee;
 
-import org.json.JSONObject;
 
 import java.math.BigInteger;
-import java.util.HashMap;
 
 import piuk.blockchain.android.BR;
 
@@ -34,7 +32,6 @@ public class SendModel extends BaseObservable {
     public String fiatUnit;
     public double exchangeRate;
     public SuggestedFee suggestedFee;
-    public HashMap<String, JSONObject> unspentApiResponse;//current selected <from address, unspent api response> - so we don't need to call api repeatedly
 
     public PendingTransaction pendingTransaction;
     public BigInteger maxAvailable;
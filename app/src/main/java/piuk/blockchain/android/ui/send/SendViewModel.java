@@ -6,14 +6,13 @@ import android.content.Context;
 import android.os.Looper;
 import android.support.annotation.Nullable;
 import android.support.annotation.StringRes;
+import android.support.annotation.WorkerThread;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AlertDialog;
 import android.util.Log;
 import android.view.View;
 
-import info.blockchain.api.DynamicFee;
 import info.blockchain.api.PersistentUrls;
-import info.blockchain.api.Unspent;
 import info.blockchain.util.FeeUtil;
 import info.blockchain.wallet.multiaddr.MultiAddrFactory;
 import info.blockchain.wallet.payload.Account;
@@ -35,7 +34,6 @@ import org.bitcoinj.core.AddressFormatException;
 import org.bitcoinj.core.ECKey;
 import org.bitcoinj.crypto.BIP38PrivateKey;
 import org.bitcoinj.params.MainNetParams;
-import org.json.JSONObject;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
@@ -46,16 +44,25 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.PublishSubject;
+
 import piuk.blockchain.android.R;
-import piuk.blockchain.android.data.cache.DefaultAccountUnspentCache;
 import piuk.blockchain.android.data.cache.DynamicFeeCache;
+import piuk.blockchain.android.data.cache.UnspentOutputsCache;
 import piuk.blockchain.android.data.payload.PayloadBridge;
+import piuk.blockchain.android.data.send.CoinSelector;
 import piuk.blockchain.android.injection.Injector;
 import piuk.blockchain.android.ui.account.ItemAccount;
 import piuk.blockchain.android.ui.account.PaymentConfirmationDetails;
@@ -83,7 +90,12 @@ public class SendViewModel extends BaseViewModel {
     private Payment payment;
     public SendModel sendModel;
 
-    private Thread unspentApiThread;
+    private static final long CALCULATION_DEBOUNCE_MS = 300L;
+
+    private final PublishSubject<FeeCalculationRequest> calculationRequests = PublishSubject.create();
+    // Calculations run one at a time, as coin selection sorts the shared list of outputs in place
+    private final ExecutorService calculationExecutor = Executors.newSingleThreadExecutor();
+    @Thunk CoinSelectionMemo coinSelectionMemo;
 
     private final static int SHOW_BTC = 1;
     private final static int SHOW_FIAT = 2;
@@ -118,13 +130,15 @@ public class SendViewModel extends BaseViewModel {
         sendModel.isBTC = getBtcDisplayState();
         sendModel.defaultSeparator = getDefaultDecimalSeparator();
         sendModel.exchangeRate = exchangeRate;
-        sendModel.unspentApiResponse = new HashMap<>();
         sendModel.btcExchange = ExchangeRateFactory.getInstance().getLastPrice(sendModel.fiatUnit);
 
         dataListener.onUpdateBtcUnit(sendModel.btcUnit);
         dataListener.onUpdateFiatUnit(sendModel.fiatUnit);
         getSuggestedFee();
 
+        coinSelectionMemo = new CoinSelectionMemo();
+        subscribeToFeeCalculations();
+
         sslVerifyUtil.validateSSL();
     }
 
@@ -146,6 +160,7 @@ public class SendViewModel extends BaseViewModel {
     @Override
     public void destroy() {
         super.destroy();
+        calculationExecutor.shutdownNow();
         context = null;
         dataListener = null;
     }
@@ -482,28 +497,19 @@ public class SendViewModel extends BaseViewModel {
     }
 
     /**
-     * Get cached dynamic fee from Bci dynamic fee API
+     * Get cached dynamic fee from Bci dynamic fee API, refreshing it if it has gone stale
      */
     private void getSuggestedFee() {
 
         //Get cached fee
         sendModel.suggestedFee = DynamicFeeCache.getInstance().getSuggestedFee();
 
-        //Refresh cache
-        new Thread(() -> {
-
-            SuggestedFee suggestedFee;
-            try {
-                suggestedFee = new DynamicFee().getDynamicFee();
-
-            } catch (Exception e) {
-                Log.e(TAG, "getSuggestedFee: ", e);
-                suggestedFee = new DynamicFee().getDefaultFee();
-            }
-            DynamicFeeCache.getInstance().setSuggestedFee(suggestedFee);
-
-            sendModel.suggestedFee = DynamicFeeCache.getInstance().getSuggestedFee();
-        }).start();
+        //Refresh cache if necessary
+        compositeDisposable.add(
+                DynamicFeeCache.getInstance().getFreshSuggestedFee()
+                        .subscribe(
+                                suggestedFee -> sendModel.suggestedFee = suggestedFee,
+                                throwable -> Log.e(TAG, "getSuggestedFee: ", throwable)));
     }
 
     /**
@@ -527,9 +533,11 @@ public class SendViewModel extends BaseViewModel {
     }
 
     /**
-     * TODO - could be cleaned up more (kept this mostly in tact from previous send code)
-     *
-     * Fetches unspent data Gets spendable coins Mixed checks and updates
+     * Queues a recalculation of the spendable coins, fee and max available amount. Requests made
+     * while typing are debounced, and are abandoned in favour of any newer request. Requests which
+     * the user is waiting on, such as Send or Max, are always completed, in order. The listener, if
+     * any, is called on the main thread once the calculation it belongs to has been applied, or an
+     * error is shown should it fail.
      */
     private void calculateTransactionAmounts(boolean spendAll, ItemAccount sendAddressItem,
                                              String amountToSendText, String customFeeText, TransactionDataListener listener) {
@@ -549,137 +557,193 @@ public class SendViewModel extends BaseViewModel {
             address = ((LegacyAddress) sendAddressItem.accountObject).getAddress();
         }
 
-        if (unspentApiThread != null) {
-            unspentApiThread.interrupt();
-        }
-
-        unspentApiThread = new Thread(() -> {
-            Looper.prepare();
+        calculationRequests.onNext(
+                new FeeCalculationRequest(spendAll, address, amountToSendText, customFeeText, listener));
+    }
 
-            JSONObject unspentResponse = null;
-            try {
-                unspentResponse = getUnspentApiResponse(address);
+    private void subscribeToFeeCalculations() {
+        Scheduler calculationScheduler = Schedulers.from(calculationExecutor);
+
+        compositeDisposable.add(
+                calculationRequests
+                        .publish(requests -> {
+                            Observable<FeeCalculationRequest> immediateRequests =
+                                    requests.filter(FeeCalculationRequest::isImmediate);
+
+                            // Keystrokes are debounced, and dropped by any newer request
+                            Observable<FeeCalculation> debouncedCalculations = requests
+                                    .switchMap(request -> request.isImmediate()
+                                            ? Observable.<FeeCalculationRequest>empty()
+                                            : Observable.timer(CALCULATION_DEBOUNCE_MS, TimeUnit.MILLISECONDS)
+                                                    .map(tick -> request))
+                                    .switchMap(request -> getFeeCalculation(request, calculationScheduler)
+                                            .takeUntil(immediateRequests));
+
+                            // Explicit actions are never abandoned, as the user is waiting on them
+                            Observable<FeeCalculation> immediateCalculations = immediateRequests
+                                    .concatMap(request -> getFeeCalculation(request, calculationScheduler));
+
+                            return Observable.merge(debouncedCalculations, immediateCalculations);
+                        })
+                        .observeOn(AndroidSchedulers.mainThread())
+                        .subscribe(this::applyFeeCalculation, Throwable::printStackTrace));
+    }
 
-                if(context == null){
-                    return;
-                }
+    private Observable<FeeCalculation> getFeeCalculation(FeeCalculationRequest request, Scheduler scheduler) {
+        return Observable.fromCallable(() -> calculateFees(request))
+                .subscribeOn(scheduler)
+                .onErrorReturn(throwable -> {
+                    Log.e(TAG, "calculateFees: ", throwable);
+                    FeeCalculation calculation = new FeeCalculation(request);
+                    calculation.failed = true;
+                    return calculation;
+                });
+    }
 
-            } catch (Exception e) {
-                Log.w(TAG, "Thread deliberately interrupted", e);
-                return;
-            }
-            if (unspentResponse != null) {
+    /**
+     * Runs the coin selection for a request off the main thread, without touching any state which
+     * is bound to the UI.
+     */
+    @WorkerThread
+    private FeeCalculation calculateFees(FeeCalculationRequest request) throws Exception {
+        FeeCalculation calculation = new FeeCalculation(request);
+
+        CoinSelector coinSelector = coinSelectionMemo.getCoinSelector(request.address);
+        if (coinSelector == null) {
+            //No unspent outputs
+            return calculation;
+        }
 
-                BigInteger amountToSend = getSatoshisFromText(amountToSendText);
-                BigInteger customFee = getSatoshisFromText(customFeeText);
+        calculation.hasCoins = true;
+        calculation.notice = coinSelectionMemo.getNotice();
 
-                final UnspentOutputs coins = payment.getCoins(unspentResponse);
+        SuggestedFee suggestedFee = sendModel.suggestedFee;
+        if (suggestedFee == null) {
+            return calculation;
+        }
 
-                //Future use. There might be some unconfirmed funds. Not displaying a warning currently (to line up with iOS and Web wallet)
-                if (coins.getNotice() != null) {
-                    sendModel.setUnconfirmedFunds(coins.getNotice());
-                } else {
-                    sendModel.setUnconfirmedFunds("");
-                }
+        BigInteger requestedAmount = getSatoshisFromText(request.amountToSendText);
+        BigInteger amountToSend = requestedAmount;
+        BigInteger customFee = getSatoshisFromText(request.customFeeText);
 
-                sendModel.absoluteSuggestedFee = getSuggestedAbsoluteFee(coins, amountToSend);
+        calculation.isCustomFee = request.customFeeText != null && !request.customFeeText.isEmpty() || customFee.compareTo(BigInteger.ZERO) == 1;
 
-                if (customFeeText != null && !customFeeText.isEmpty() || customFee.compareTo(BigInteger.ZERO) == 1) {
-                    customFeePayment(coins, amountToSend, customFee, spendAll);
-                } else {
-                    suggestedFeePayment(coins, amountToSend, spendAll);
-                }
+        if (calculation.isCustomFee) {
+            //Payment will use customized fee
+            SweepBundle sweepBundle = coinSelector.getSweepBundle(BigInteger.ZERO);
+            calculation.sweepAmount = sweepBundle.getSweepAmount();
+            calculation.balanceAfterFee = sweepBundle.getSweepAmount().longValue() - customFee.longValue();
+            if (request.spendAll) amountToSend = BigInteger.valueOf(calculation.balanceAfterFee);
 
-            } else {
-                //No unspent outputs
-                updateMaxAvailable(0);
-                sendModel.pendingTransaction.unspentOutputBundle = null;
-            }
-
-            if (listener != null) listener.onReady();
+            calculation.unspentOutputBundle = coinSelector.getSpendableCoins(amountToSend.add(customFee), BigInteger.ZERO);
+            calculation.fee = customFee;
+        } else {
+            //Payment will use suggested dynamic fee
+            SweepBundle sweepBundle = coinSelector.getSweepBundle(suggestedFee.defaultFeePerKb);
+            calculation.balanceAfterFee = sweepBundle.getSweepAmount().longValue();
+            if (request.spendAll) amountToSend = BigInteger.valueOf(calculation.balanceAfterFee);
 
-            Looper.loop();
-        });
+            calculation.unspentOutputBundle = coinSelector.getSpendableCoins(amountToSend, suggestedFee.defaultFeePerKb);
+            calculation.fee = calculation.unspentOutputBundle.getAbsoluteFee();
+        }
+        calculation.amountToSend = amountToSend;
 
-        unspentApiThread.start();
+        // One pass over the coins finds the fee at the default rate and at every estimate's rate
+        List<BigInteger> feesPerKb = new ArrayList<>();
+        if (suggestedFee.estimateList != null) {
+            for (SuggestedFee.Estimates estimate : suggestedFee.estimateList) {
+                feesPerKb.add(estimate.fee);
+            }
+        }
+        feesPerKb.add(suggestedFee.defaultFeePerKb);
+        BigInteger[] absoluteFees = coinSelector.getAbsoluteFees(amountToSend, feesPerKb);
 
-    }
+        if (suggestedFee.estimateList != null) {
+            calculation.feeEstimates = Arrays.copyOf(absoluteFees, absoluteFees.length - 1);
+        }
 
-    private BigInteger getSuggestedAbsoluteFee(final UnspentOutputs coins, BigInteger amountToSend) {
-        if (sendModel.suggestedFee != null) {
-            SpendableUnspentOutputs spendableCoins = payment.getSpendableCoins(coins, amountToSend, sendModel.suggestedFee.defaultFeePerKb);
-            return spendableCoins.getAbsoluteFee();
+        if (amountToSend.equals(requestedAmount)) {
+            calculation.absoluteSuggestedFee = absoluteFees[absoluteFees.length - 1];
         } else {
-            // App is likely in low memory environment, leave page gracefully
-            if (dataListener != null)
-                dataListener.finishPage();
-            return null;
+            calculation.absoluteSuggestedFee = coinSelector.getSpendableCoins(requestedAmount, suggestedFee.defaultFeePerKb).getAbsoluteFee();
         }
+
+        return calculation;
     }
 
     /**
-     * Payment will use customized fee
+     * Applies the result of {@link #calculateFees(FeeCalculationRequest)} to the {@link SendModel}
+     * and pending transaction. Errors are handled here rather than passed on, as an error reaching
+     * the subscriber would end the subscription and leave every later request unanswered.
      */
-    private void customFeePayment(final UnspentOutputs coins, BigInteger amountToSend, BigInteger customFee, boolean spendAll) {
+    @Thunk
+    void applyFeeCalculation(FeeCalculation calculation) {
+        if (context == null) {
+            return;
+        }
 
-        SweepBundle sweepBundle = payment.getSweepBundle(coins, BigInteger.ZERO);
-        long balanceAfterFee = sweepBundle.getSweepAmount().longValue() - customFee.longValue();
-        updateMaxAvailable(balanceAfterFee);
+        try {
+            if (calculation.failed) {
+                onFeeCalculationFailed(calculation.request);
+            } else {
+                applySuccessfulFeeCalculation(calculation);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "applyFeeCalculation: ", e);
+            onFeeCalculationFailed(calculation.request);
+        }
+    }
 
-        if (spendAll) {
-            amountToSend = BigInteger.valueOf(balanceAfterFee);
-            if (dataListener != null)
-                dataListener.onSetSpendAllAmount(getTextFromSatoshis(balanceAfterFee));
+    private void onFeeCalculationFailed(FeeCalculationRequest request) {
+        sendModel.setMaxAvailableProgressVisibility(View.GONE);
+        sendModel.setMaxAvailableVisibility(View.VISIBLE);
+        if (request.isImmediate() && dataListener != null) {
+            dataListener.onShowToast(R.string.unexpected_error, ToastCustom.TYPE_ERROR);
         }
+    }
 
-        validateCustomFee(amountToSend.add(customFee), sweepBundle.getSweepAmount());
+    private void applySuccessfulFeeCalculation(FeeCalculation calculation) {
+        FeeCalculationRequest request = calculation.request;
 
-        SpendableUnspentOutputs unspentOutputBundle = payment.getSpendableCoins(coins,
-                amountToSend.add(customFee),
-                BigInteger.ZERO);
+        if (!calculation.hasCoins) {
+            //No unspent outputs
+            updateMaxAvailable(0);
+            sendModel.pendingTransaction.unspentOutputBundle = null;
+            if (request.listener != null) request.listener.onReady();
+            return;
+        }
 
-        sendModel.pendingTransaction.bigIntAmount = amountToSend;
-        sendModel.pendingTransaction.unspentOutputBundle = unspentOutputBundle;
-        sendModel.pendingTransaction.bigIntFee = customFee;
+        //Future use. There might be some unconfirmed funds. Not displaying a warning currently (to line up with iOS and Web wallet)
+        sendModel.setUnconfirmedFunds(calculation.notice != null ? calculation.notice : "");
 
-        if (sendModel.suggestedFee != null && sendModel.suggestedFee.estimateList != null) {
-            updateEstimateConfirmationTime(amountToSend, customFee.longValue(), coins);
+        if (calculation.absoluteSuggestedFee == null) {
+            // App is likely in low memory environment, leave page gracefully
+            sendModel.absoluteSuggestedFee = null;
+            if (dataListener != null)
+                dataListener.finishPage();
+            return;
         }
-    }
 
-    /**
-     * Payment will use suggested dynamic fee
-     */
-    private void suggestedFeePayment(final UnspentOutputs coins, BigInteger amountToSend, boolean spendAll) {
-        if (sendModel.suggestedFee != null) {
-            SweepBundle sweepBundle = payment.getSweepBundle(coins, sendModel.suggestedFee.defaultFeePerKb);
-            long balanceAfterFee = sweepBundle.getSweepAmount().longValue();
-            updateMaxAvailable(balanceAfterFee);
-
-            if (spendAll) {
-                amountToSend = BigInteger.valueOf(balanceAfterFee);
-                if (dataListener != null)
-                    dataListener.onSetSpendAllAmount(getTextFromSatoshis(balanceAfterFee));
-            }
+        sendModel.absoluteSuggestedFee = calculation.absoluteSuggestedFee;
+        updateMaxAvailable(calculation.balanceAfterFee);
 
-            BigInteger feePerKb = sendModel.suggestedFee.defaultFeePerKb;
+        if (request.spendAll && dataListener != null) {
+            dataListener.onSetSpendAllAmount(getTextFromSatoshis(calculation.balanceAfterFee));
+        }
 
-            SpendableUnspentOutputs unspentOutputBundle = payment.getSpendableCoins(coins,
-                    amountToSend,
-                    feePerKb);
+        if (calculation.isCustomFee) {
+            validateCustomFee(calculation.amountToSend.add(calculation.fee), calculation.sweepAmount);
+        }
 
-            sendModel.pendingTransaction.bigIntAmount = amountToSend;
-            sendModel.pendingTransaction.unspentOutputBundle = unspentOutputBundle;
-            sendModel.pendingTransaction.bigIntFee = sendModel.pendingTransaction.unspentOutputBundle.getAbsoluteFee();
+        sendModel.pendingTransaction.bigIntAmount = calculation.amountToSend;
+        sendModel.pendingTransaction.unspentOutputBundle = calculation.unspentOutputBundle;
+        sendModel.pendingTransaction.bigIntFee = calculation.fee;
 
-            if (sendModel.suggestedFee != null && sendModel.suggestedFee.estimateList != null) {
-                updateEstimateConfirmationTime(amountToSend, sendModel.pendingTransaction.bigIntFee.longValue(), coins);
-            }
-        } else {
-            // App is likely in low memory environment, leave page gracefully
-            if (dataListener != null)
-                dataListener.finishPage();
+        if (calculation.feeEstimates != null) {
+            updateEstimateConfirmationTime(calculation.fee.longValue(), calculation.feeEstimates);
         }
+
+        if (request.listener != null) request.listener.onReady();
     }
 
     /**
@@ -724,58 +788,6 @@ public class SendViewModel extends BaseViewModel {
      *
      * @return List of fees needed to be included in co-responding blocks
      */
-    private BigInteger[] getEstimatedBlocks(BigInteger amountToSend, ArrayList<SuggestedFee.Estimates> estimates, UnspentOutputs coins) {
-        BigInteger[] absoluteFeeSuggestedEstimates = new BigInteger[estimates.size()];
-
-        for (int i = 0; i < absoluteFeeSuggestedEstimates.length; i++) {
-
-            BigInteger feePerKb = estimates.get(i).fee;
-            SpendableUnspentOutputs unspentOutputBundle = payment.getSpendableCoins(coins, amountToSend, feePerKb);
-
-            if (unspentOutputBundle != null) {
-                absoluteFeeSuggestedEstimates[i] = unspentOutputBundle.getAbsoluteFee();
-            }
-        }
-
-        return absoluteFeeSuggestedEstimates;
-    }
-
-    /**
-     * Retrieves unspent api data in memory. If not in memory yet, it will be retrieved and added.
-     * Default account will be retrieved from cache to speed up loading
-     *
-     * TODO - can speed up by checking if multi_address balance > 0 before calling unspent_api
-     */
-    private JSONObject getUnspentApiResponse(String address) throws Exception {
-        if (sendModel.unspentApiResponse.containsKey(address)) {
-            return sendModel.unspentApiResponse.get(address);
-        } else {
-
-            JSONObject unspentResponse;
-
-            //Get cache if is default account
-            DefaultAccountUnspentCache cache = DefaultAccountUnspentCache.getInstance();
-            if (payloadManager.getPayload().getHdWallet() != null && address.equals(cache.getXpub())) {
-                unspentResponse = cache.getUnspentApiResponse();
-
-                //Refresh default account cache
-                new Thread(() -> {
-                    try {
-                        cache.setUnspentApiResponse(address, new Unspent().getUnspentOutputs(address));
-                    } catch (Exception e) {
-                        Log.e(TAG, "getUnspentApiResponse: ", e);
-                    }
-                }).start();
-            } else {
-                unspentResponse = new Unspent().getUnspentOutputs(address);
-            }
-
-            sendModel.unspentApiResponse.put(address, unspentResponse);
-
-            return unspentResponse;
-        }
-    }
-
     /**
      * Returns amount of satoshis from btc amount. This could be btc, mbtc or bits.
      *
@@ -814,9 +826,9 @@ public class SendViewModel extends BaseViewModel {
     /**
      * Updates text displaying what block tx will be included in
      */
-    private String updateEstimateConfirmationTime(BigInteger amountToSend, long fee, UnspentOutputs coins) {
+    private String updateEstimateConfirmationTime(long fee, BigInteger[] feeEstimates) {
 
-        sendModel.absoluteSuggestedFeeEstimates = getEstimatedBlocks(amountToSend, sendModel.suggestedFee.estimateList, coins);
+        sendModel.absoluteSuggestedFeeEstimates = feeEstimates;
 
         String likelyToConfirmMessage = context.getText(R.string.estimate_confirm_block_count).toString();
         String unlikelyToConfirmMessage = context.getText(R.string.fee_too_low_no_confirm).toString();
@@ -1245,14 +1257,12 @@ public class SendViewModel extends BaseViewModel {
     @Thunk
     void clearUnspentResponseCache() {
 
-        DefaultAccountUnspentCache.getInstance().destroy();
-
         if (sendModel.pendingTransaction.isHD()) {
             Account account = ((Account) sendModel.pendingTransaction.sendingObject.accountObject);
-            sendModel.unspentApiResponse.remove(account.getXpub());
+            UnspentOutputsCache.getInstance().invalidate(account.getXpub());
         } else {
             LegacyAddress legacyAddress = ((LegacyAddress) sendModel.pendingTransaction.sendingObject.accountObject);
-            sendModel.unspentApiResponse.remove(legacyAddress.getAddress());
+            UnspentOutputsCache.getInstance().invalidate(legacyAddress.getAddress());
         }
     }
 
@@ -1366,4 +1376,87 @@ public class SendViewModel extends BaseViewModel {
     public PrefsUtil getPrefsUtil() {
         return prefsUtil;
     }
+
+    private static class FeeCalculationRequest {
+
+        final boolean spendAll;
+        final String address;
+        final String amountToSendText;
+        final String customFeeText;
+        @Nullable final TransactionDataListener listener;
+
+        FeeCalculationRequest(boolean spendAll,
+                              String address,
+                              String amountToSendText,
+                              String customFeeText,
+                              @Nullable TransactionDataListener listener) {
+            this.spendAll = spendAll;
+            this.address = address;
+            this.amountToSendText = amountToSendText;
+            this.customFeeText = customFeeText;
+            this.listener = listener;
+        }
+
+        /**
+         * Requests which the user is waiting on aren't debounced
+         */
+        boolean isImmediate() {
+            return spendAll || listener != null;
+        }
+    }
+
+    private static class FeeCalculation {
+
+        final FeeCalculationRequest request;
+        boolean failed;
+        boolean hasCoins;
+        String notice;
+        boolean isCustomFee;
+        BigInteger amountToSend;
+        BigInteger fee;
+        BigInteger absoluteSuggestedFee;
+        BigInteger sweepAmount;
+        long balanceAfterFee;
+        SpendableUnspentOutputs unspentOutputBundle;
+        BigInteger[] feeEstimates;
+
+        FeeCalculation(FeeCalculationRequest request) {
+            this.request = request;
+        }
+    }
+
+    /**
+     * Remembers the unspent outputs of the most recently used address, so that repeated
+     * calculations for the same coins (for instance while editing the fee) don't fetch, copy and
+     * sort them again. Only accessed from the calculation thread.
+     */
+    private static class CoinSelectionMemo {
+
+        private String address;
+        private int version;
+        private String notice;
+        private CoinSelector coinSelector;
+
+        /**
+         * @return A {@link CoinSelector} for the address's unspent outputs, or null if there are none
+         */
+        @Nullable
+        CoinSelector getCoinSelector(String address) throws Exception {
+            UnspentOutputsCache cache = UnspentOutputsCache.getInstance();
+            int currentVersion = cache.getVersion(address);
+            if (!address.equals(this.address) || currentVersion != version || !cache.contains(address)) {
+                UnspentOutputs coins = cache.getUnspentOutputs(address);
+                this.coinSelector = coins != null ? new CoinSelector(coins) : null;
+                this.notice = coins != null ? coins.getNotice() : null;
+                this.address = address;
+                this.version = currentVersion;
+            }
+            return coinSelector;
+        }
+
+        @Nullable
+        String getNotice() {
+            return notice;
+        }
+    }
 }
@@ -36,12 +36,14 @@ import piuk.blockchain.android.util.ExchangeRateFactory;
 import piuk.blockchain.android.util.MonetaryUtil;
 import piuk.blockchain.android.util.PrefsUtil;
 
+import static piuk.blockchain.android.data.cache.TransactionDetailsCache.REQUIRED_CONFIRMATIONS;
 import static piuk.blockchain.android.ui.balance.BalanceFragment.KEY_TRANSACTION_LIST_POSITION;
 
 @SuppressWarnings("WeakerAccess")
 public class TransactionDetailViewModel extends BaseViewModel {
 
-    private static final int REQUIRED_CONFIRMATIONS = 3;
+    // How many transactions either side of this one to fetch historic prices for
+    private static final int PREFETCH_RADIUS = 5;
 
     private DataListener mDataListener;
     private MonetaryUtil mMonetaryUtil;
@@ -110,14 +112,32 @@ public class TransactionDetailViewModel extends BaseViewModel {
             if (transactionPosition == -1) {
                 mDataListener.pageFinish();
             } else {
-                mTransaction = mTransactionListDataManager.getTransactionList().get(transactionPosition);
+                List<Tx> transactions = mTransactionListDataManager.getTransactionList();
+                mTransaction = transactions.get(transactionPosition);
                 updateUiFromTransaction(mTransaction);
+                prefetchHistoricPrices(transactions, transactionPosition);
             }
         } else {
             mDataListener.pageFinish();
         }
     }
 
+    /**
+     * Warms the historic price cache for neighbouring transactions, as the user is likely to look
+     * at those next
+     */
+    private void prefetchHistoricPrices(List<Tx> transactions, int position) {
+        if (!mFiatType.equals("USD")) return;
+
+        int from = Math.max(0, position - PREFETCH_RADIUS);
+        int to = Math.min(transactions.size(), position + PREFETCH_RADIUS + 1);
+        compositeDisposable.add(
+                mExchangeRateFactory.prefetchHistoricPrices(mFiatType, new ArrayList<>(transactions.subList(from, to)))
+                        .subscribe(() -> {
+                            // No-op
+                        }, Throwable::printStackTrace));
+    }
+
     public void updateTransactionNote(String description) {
         compositeDisposable.add(
                 mTransactionListDataManager.updateTransactionNotes(mTransaction.getHash(), description)
@@ -145,7 +165,7 @@ public class TransactionDetailViewModel extends BaseViewModel {
         // Combines two Observables so that onCompleted is only called when both emit objects
         // Zip those objects into a new Pair<> for consumption
         Observable<Pair<Transaction, String>> zip = Observable.zip(
-                mTransactionListDataManager.getTransactionFromHash(transaction.getHash()),
+                mTransactionListDataManager.getTransactionFromHash(transaction.getHash(), transaction.getConfirmations()),
                 getTransactionValueString(mFiatType, transaction),
                 Pair::new);
 
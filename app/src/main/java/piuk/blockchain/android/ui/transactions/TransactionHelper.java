@@ -4,68 +4,34 @@ import android.support.annotation.NonNull;
 import android.support.v4.util.Pair;
 
 import info.blockchain.wallet.multiaddr.MultiAddrFactory;
-import info.blockchain.wallet.payload.Account;
-import info.blockchain.wallet.payload.HDWallet;
-import info.blockchain.wallet.payload.Payload;
-import info.blockchain.wallet.payload.PayloadManager;
 import info.blockchain.wallet.transaction.Transaction;
 import info.blockchain.wallet.transaction.Tx;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
+import java.util.HashSet;
+
+import piuk.blockchain.android.data.stores.AddressIndex;
 
 public class TransactionHelper {
 
-    private PayloadManager payloadManager;
     private MultiAddrFactory multiAddrFactory;
+    private AddressIndex addressIndex;
 
-    public TransactionHelper(PayloadManager payloadManager, MultiAddrFactory multiAddrFactory) {
-        this.payloadManager = payloadManager;
+    public TransactionHelper(MultiAddrFactory multiAddrFactory, AddressIndex addressIndex) {
         this.multiAddrFactory = multiAddrFactory;
+        this.addressIndex = addressIndex;
     }
 
     /**
-     * Searches the list of Accounts to find if the address is labeled and returns that label
+     * Looks up the label of the account or legacy address which owns the address
      *
      * @param address A bitcoin address
      * @return Either the label associated with the address, or the original address
      */
     @NonNull
     public String addressToLabel(String address) {
-
-        HDWallet hdWallet = payloadManager.getPayload().getHdWallet();
-        List<Account> accountList = new ArrayList<>();
-        if (hdWallet != null && hdWallet.getAccounts() != null) {
-            accountList = hdWallet.getAccounts();
-        }
-
-        // If address belongs to owned xpub
-        if (multiAddrFactory.isOwnHDAddress(address)) {
-            HashMap<String, String> addressToXpubMap = multiAddrFactory.getAddress2Xpub();
-            String xpub = addressToXpubMap.get(address);
-            if (xpub != null) {
-                // Even though it looks like this shouldn't happen, it sometimes happens with
-                // transfers if user clicks to view details immediately.
-                // TODO - see if isOwnHDAddress could be updated to solve this
-                int accIndex = payloadManager.getXpubToAccountIndexMap().get(xpub);
-                String label = accountList.get(accIndex).getLabel();
-                if (label != null && !label.isEmpty())
-                    return label;
-            }
-            // If address one of owned legacy addresses
-        } else if (payloadManager.getPayload().getLegacyAddressStringList().contains(address)
-                || payloadManager.getPayload().getWatchOnlyAddressStringList().contains(address)) {
-
-            Payload payload = payloadManager.getPayload();
-
-            String label = payload.getLegacyAddressList().get(payload.getLegacyAddressStringList().indexOf(address)).getLabel();
-            if (label != null && !label.isEmpty()) {
-                return label;
-            }
-        }
-
-        return address;
+        String label = addressIndex.getLabel(address);
+        return label != null ? label : address;
     }
 
     /**
@@ -84,7 +50,7 @@ public class TransactionHelper {
         HashMap<String, Long> inputMap = new HashMap<>();
         HashMap<String, Long> outputMap = new HashMap<>();
 
-        ArrayList<String> inputXpubList = new ArrayList<>();
+        HashSet<String> inputXpubs = new HashSet<>();
 
         // Inputs / From field
         if (transaction.getDirection().equals(MultiAddrFactory.RECEIVED) && transactionDetails.getInputs().size() > 0) {
@@ -99,9 +65,8 @@ public class TransactionHelper {
                 // Address belongs to xpub we own
                 if (xpub != null) {
                     // Only add xpub once
-                    if (!inputXpubList.contains(xpub)) {
+                    if (inputXpubs.add(xpub)) {
                         inputMap.put(input.addr, input.value);
-                        inputXpubList.add(xpub);
                     }
                 } else {
                     // Legacy Address we own
@@ -116,7 +81,7 @@ public class TransactionHelper {
             if (multiAddrFactory.isOwnHDAddress(output.addr)) {
                 // If output address belongs to an xpub we own - we have to check if it's change
                 String xpub = addressToXpubMap.get(output.addr);
-                if (inputXpubList.contains(xpub)) {
+                if (inputXpubs.contains(xpub)) {
                     continue;// change back to same xpub
                 }
 
@@ -128,8 +93,7 @@ public class TransactionHelper {
                     outputMap.put(output.addr, output.value);
                 }
 
-            } else if (payloadManager.getPayload().getLegacyAddressStringList().contains(output.addr)
-                    || payloadManager.getPayload().getWatchOnlyAddressStringList().contains(output.addr)) {
+            } else if (addressIndex.isLegacyAddress(output.addr)) {
                 // If output address belongs to a legacy address we own - we have to check if it's change
                 // If it goes back to same address AND if it's not the total amount sent
                 // (inputs x and y could send to output y in which case y is not receiving change, but rather the total amount)
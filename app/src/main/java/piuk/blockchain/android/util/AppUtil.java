@@ -17,6 +17,9 @@ import javax.inject.Inject;
 
 import piuk.blockchain.android.R;
 import piuk.blockchain.android.data.access.AccessState;
+import piuk.blockchain.android.data.cache.HistoricPriceCache;
+import piuk.blockchain.android.data.cache.TransactionDetailsCache;
+import piuk.blockchain.android.data.cache.TransactionListCache;
 import piuk.blockchain.android.injection.Injector;
 import piuk.blockchain.android.ui.customviews.ToastCustom;
 import piuk.blockchain.android.ui.launcher.LauncherActivity;
@@ -27,6 +30,9 @@ public class AppUtil {
 
     @Inject protected PrefsUtil prefs;
     @Inject protected PayloadManager payloadManager;
+    @Inject protected TransactionListCache transactionListCache;
+    @Inject protected HistoricPriceCache historicPriceCache;
+    @Inject protected TransactionDetailsCache transactionDetailsCache;
     private Context context;
     private AlertDialog alertDialog;
     private String receiveQRFileName;
@@ -39,6 +45,9 @@ public class AppUtil {
 
     public void clearCredentials() {
         payloadManager.wipe();
+        transactionListCache.clear();
+        historicPriceCache.clear();
+        transactionDetailsCache.clear();
         prefs.clear();
     }
 
@@ -52,6 +61,9 @@ public class AppUtil {
      */
     public void clearCredentialsAndKeepEnvironment() {
         payloadManager.wipe();
+        transactionListCache.clear();
+        historicPriceCache.clear();
+        transactionDetailsCache.clear();
         prefs.clearPrefsAndKeepEnvironment();
         restartApp();
     }
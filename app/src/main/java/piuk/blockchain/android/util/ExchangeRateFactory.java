@@ -1,36 +1,71 @@
 package piuk.blockchain.android.util;
 
 
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 
-import info.blockchain.api.ExchangeTicker;
+import info.blockchain.api.PersistentUrls;
+import info.blockchain.wallet.transaction.Tx;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Locale;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.inject.Inject;
 
+import piuk.blockchain.android.data.cache.HistoricPriceCache;
 import piuk.blockchain.android.data.rxjava.RxUtil;
 import piuk.blockchain.android.injection.Injector;
+import io.reactivex.Completable;
 import io.reactivex.Observable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.BehaviorSubject;
+import io.reactivex.subjects.Subject;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
 
 /**
  * This class obtains info on the currencies communicated via https://blockchain.info/ticker
+ *
+ * <p>Rates are refreshed at a regular interval by {@link #startPeriodicRefresh()}. Until a refresh
+ * completes the previous rates continue to be served, and the last known rates are persisted once
+ * per refresh so that they're available at the next launch.
+ *
+ * <p>Each refresh publishes an immutable {@link Snapshot} of all rates, which replaces the previous
+ * one atomically and is emitted by {@link #getSnapshots()}, so readers on any thread always see a
+ * complete and consistent set of rates without locking.
  */
 public class ExchangeRateFactory {
 
+    private static final String TAG = ExchangeRateFactory.class.getSimpleName();
+    private static final String KEY_LAST_KNOWN_VALUE = "LAST_KNOWN_VALUE_FOR_CURRENCY_";
+    static final long DEFAULT_REFRESH_INTERVAL_MS = TimeUnit.MINUTES.toMillis(2);
+    private static final String TICKER_PATH = "ticker";
+
     private static JSONObject jsonObject = null;
     @Inject protected PrefsUtil mPrefsUtil;
-
-    private static HashMap<String, Double> fxRates = null;
-    private static HashMap<String, String> fxSymbols = null;
+    @Inject protected HistoricPriceCache historicPriceCache;
+    @Inject protected OkHttpClient okHttpClient;
 
     private static ExchangeRateFactory instance = null;
 
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(Snapshot.EMPTY);
+    private final Subject<Snapshot> snapshots =
+            BehaviorSubject.createDefault(Snapshot.EMPTY).toSerialized();
+
+    private Observable<String> inFlightRequest;
+    private Disposable periodicRefresh;
+
     /**
      * Currencies handles by https://blockchain.info/ticker
      */
@@ -68,32 +103,62 @@ public class ExchangeRateFactory {
         Injector.getInstance().getAppComponent().inject(this);
     }
 
+    @VisibleForTesting
+    ExchangeRateFactory(PrefsUtil prefsUtil, HistoricPriceCache historicPriceCache, OkHttpClient okHttpClient) {
+        mPrefsUtil = prefsUtil;
+        this.historicPriceCache = historicPriceCache;
+        this.okHttpClient = okHttpClient;
+    }
+
     public static ExchangeRateFactory getInstance() {
         if (instance == null) {
-            fxRates = new HashMap<>();
-            fxSymbols = new HashMap<>();
-
             instance = new ExchangeRateFactory();
         }
 
         return instance;
     }
 
+    /**
+     * @return The most recently fetched rate for the currency, or the last known rate from a
+     * previous session if none has been fetched yet. Never blocks.
+     */
     public double getLastPrice(String currency) {
-        if (fxRates.get(currency) != null && fxRates.get(currency) > 0.0) {
-            mPrefsUtil.setValue("LAST_KNOWN_VALUE_FOR_CURRENCY_" + currency, Double.toString(fxRates.get(currency)));
-            return fxRates.get(currency);
+        return getLastPrice(snapshot.get(), currency);
+    }
+
+    private double getLastPrice(Snapshot rates, String currency) {
+        Double rate = rates.getRate(currency);
+        if (rate != null && rate > 0.0) {
+            return rate;
         } else {
-            return Double.parseDouble(mPrefsUtil.getValue("LAST_KNOWN_VALUE_FOR_CURRENCY_" + currency, "0.0"));
+            return Double.parseDouble(mPrefsUtil.getValue(KEY_LAST_KNOWN_VALUE + currency, "0.0"));
         }
     }
 
+    @Nullable
     public String getSymbol(String currency) {
-        if (fxSymbols.get(currency) != null) {
-            return fxSymbols.get(currency);
-        } else {
-            return null;
-        }
+        return snapshot.get().getSymbol(currency);
+    }
+
+    /**
+     * @return The current {@link Snapshot} of all rates, followed by each new one as it is
+     * published
+     */
+    public Observable<Snapshot> getSnapshots() {
+        return snapshots;
+    }
+
+    /**
+     * Emits the price of a currency as returned by {@link #getLastPrice(String)}, immediately and
+     * then only when a refresh actually changes it, so that views can re-render only when needed.
+     * Emissions happen on whichever thread published the rates.
+     *
+     * @param currency The currency as a 3 letter acronym, eg USD, GBP
+     * @return An {@link Observable} of prices for the currency
+     */
+    public Observable<Double> getLastPriceUpdates(String currency) {
+        return snapshots.map(rates -> getLastPrice(rates, currency))
+                .distinctUntilChanged();
     }
 
     public String[] getCurrencies() {
@@ -106,7 +171,8 @@ public class ExchangeRateFactory {
 
     /**
      * Returns the historic value of a number of Satoshi at a given time in a given currency. NOTE:
-     * Currently only works with USD. May support other currencies in the future.
+     * Currently only works with USD. May support other currencies in the future. Prices are served
+     * from {@link HistoricPriceCache} where possible.
      *
      * @param satoshis     The amount of Satoshi to be converted
      * @param currency     The currency to be converted to as a 3 letter acronym, eg USD, GBP
@@ -114,17 +180,115 @@ public class ExchangeRateFactory {
      * @return A double value
      */
     public Observable<Double> getHistoricPrice(long satoshis, String currency, long timeInMillis) {
-        return Observable.fromCallable(() -> new ExchangeTicker().getHistoricPrice(satoshis, currency, timeInMillis))
-                .flatMap(this::parseStringValue)
+        return historicPriceCache.getHistoricPrice(satoshis, currency, timeInMillis)
                 .compose(RxUtil.applySchedulersToObservable());
     }
 
-    private Observable<Double> parseStringValue(String value) {
-        return Observable.fromCallable(() -> {
-            NumberFormat format = NumberFormat.getInstance(Locale.getDefault());
-            Number number = format.parse(value);
-            return number.doubleValue();
-        });
+    /**
+     * Fetches and caches the historic prices needed for the given transactions, so that they can
+     * be shown without waiting when their details are opened
+     *
+     * @param currency     The currency as a 3 letter acronym, eg USD, GBP
+     * @param transactions The transactions likely to be viewed next
+     */
+    public Completable prefetchHistoricPrices(String currency, List<Tx> transactions) {
+        List<Long> times = new ArrayList<>();
+        for (Tx transaction : transactions) {
+            times.add(transaction.getTS() * 1000);
+        }
+        return historicPriceCache.prefetch(currency, times);
+    }
+
+    /**
+     * Starts refreshing the rates in the background every {@link #DEFAULT_REFRESH_INTERVAL_MS},
+     * beginning immediately. Should be stopped with {@link #stopPeriodicRefresh()} whenever the app
+     * goes into the background.
+     */
+    public void startPeriodicRefresh() {
+        startPeriodicRefresh(DEFAULT_REFRESH_INTERVAL_MS);
+    }
+
+    /**
+     * Starts refreshing the rates in the background at the given interval, beginning immediately.
+     * Has no effect if already started.
+     *
+     * @param intervalMs The time between refreshes in milliseconds
+     */
+    public synchronized void startPeriodicRefresh(long intervalMs) {
+        if (periodicRefresh != null && !periodicRefresh.isDisposed()) return;
+
+        periodicRefresh = Observable.interval(0, intervalMs, TimeUnit.MILLISECONDS, Schedulers.io())
+                .flatMap(tick -> refresh()
+                        .doOnError(throwable -> Log.e(TAG, "startPeriodicRefresh: ", throwable))
+                        .onErrorResumeNext(Observable.empty()))
+                .subscribe(
+                        response -> {
+                            // No-op, rates are updated by refresh()
+                        },
+                        throwable -> Log.e(TAG, "startPeriodicRefresh: ", throwable));
+    }
+
+    public synchronized void stopPeriodicRefresh() {
+        if (periodicRefresh != null) {
+            periodicRefresh.dispose();
+            periodicRefresh = null;
+        }
+    }
+
+    /**
+     * Fetches the latest rates, sharing a fetch which is already in progress rather than starting
+     * another. The previous rates are served until it completes.
+     *
+     * @return An {@link Observable} emitting the raw ticker response
+     */
+    public synchronized Observable<String> refresh() {
+        if (inFlightRequest == null) {
+            inFlightRequest = Observable.fromCallable(this::fetchExchangeRates)
+                    .doOnNext(response -> {
+                        setData(response);
+                        updateFxPricesForEnabledCurrencies();
+                        persistLastKnownRates();
+                    })
+                    .subscribeOn(Schedulers.io())
+                    .doFinally(this::clearInFlightRequest)
+                    .cache();
+        }
+        return inFlightRequest;
+    }
+
+    private synchronized void clearInFlightRequest() {
+        inFlightRequest = null;
+    }
+
+    /**
+     * Fetches the ticker through the shared {@link OkHttpClient}, so that it can be revalidated
+     * rather than downloaded in full and served from the HTTP cache when offline
+     */
+    private String fetchExchangeRates() throws Exception {
+        Request request = new Request.Builder()
+                .url(PersistentUrls.getInstance().getDefaultBaseServerUrl() + TICKER_PATH)
+                .build();
+        Response response = okHttpClient.newCall(request).execute();
+        String body = response.body().string();
+        if (!response.isSuccessful()) {
+            throw new Exception("Failed to get exchange rate: " + response.code());
+        }
+        return body;
+    }
+
+    /**
+     * Saves every valid rate in a single preferences write
+     */
+    private void persistLastKnownRates() {
+        Map<String, String> values = new HashMap<>();
+        for (Map.Entry<String, Double> entry : snapshot.get().rates.entrySet()) {
+            if (entry.getValue() != null && entry.getValue() > 0.0) {
+                values.put(KEY_LAST_KNOWN_VALUE + entry.getKey(), Double.toString(entry.getValue()));
+            }
+        }
+        if (!values.isEmpty()) {
+            mPrefsUtil.setValues(values);
+        }
     }
 
     /**
@@ -139,32 +303,68 @@ public class ExchangeRateFactory {
     }
 
     public void updateFxPricesForEnabledCurrencies() {
+        HashMap<String, Double> rates = new HashMap<>();
+        HashMap<String, String> symbols = new HashMap<>();
         for (String currency : currencies) {
-            setFxPriceForCurrency(currency);
+            setFxPriceForCurrency(currency, rates, symbols);
         }
+        Snapshot updated = new Snapshot(rates, symbols);
+        snapshot.set(updated);
+        snapshots.onNext(updated);
     }
 
-    private void setFxPriceForCurrency(String currency) {
+    private void setFxPriceForCurrency(String currency, Map<String, Double> rates, Map<String, String> symbols) {
         try {
             if (jsonObject.has(currency)) {
                 JSONObject jsonCurr = jsonObject.getJSONObject(currency);
                 if (jsonCurr != null) {
                     double last_price = jsonCurr.getDouble("last");
-                    fxRates.put(currency, last_price);
+                    rates.put(currency, last_price);
                     String symbol = jsonCurr.getString("symbol");
-                    fxSymbols.put(currency, symbol);
+                    symbols.put(currency, symbol);
                 }
             } else {
-                setDefaultExchangeRate(currency);
+                setDefaultExchangeRate(currency, rates, symbols);
             }
         } catch (JSONException e) {
             Log.e(getClass().getSimpleName(), "setData: ", e);
-            setDefaultExchangeRate(currency);
+            setDefaultExchangeRate(currency, rates, symbols);
         }
     }
 
-    private void setDefaultExchangeRate(String currency) {
-        fxRates.put(currency, -1.0);
-        fxSymbols.put(currency, null);
+    private void setDefaultExchangeRate(String currency, Map<String, Double> rates, Map<String, String> symbols) {
+        rates.put(currency, -1.0);
+        symbols.put(currency, null);
+    }
+
+    /**
+     * An immutable set of exchange rates and currency symbols, as published by a single refresh
+     */
+    public static final class Snapshot {
+
+        static final Snapshot EMPTY =
+                new Snapshot(Collections.emptyMap(), Collections.emptyMap());
+
+        private final Map<String, Double> rates;
+        private final Map<String, String> symbols;
+
+        Snapshot(Map<String, Double> rates, Map<String, String> symbols) {
+            this.rates = Collections.unmodifiableMap(new HashMap<>(rates));
+            this.symbols = Collections.unmodifiableMap(new HashMap<>(symbols));
+        }
+
+        /**
+         * @return The rate for the currency, or null if it wasn't supplied. A rate of -1.0 means
+         * the currency couldn't be parsed.
+         */
+        @Nullable
+        public Double getRate(String currency) {
+            return rates.get(currency);
+        }
+
+        @Nullable
+        public String getSymbol(String currency) {
+            return symbols.get(currency);
+        }
     }
 }
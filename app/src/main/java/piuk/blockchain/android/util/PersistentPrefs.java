@@ -1,5 +1,7 @@
 package piuk.blockchain.android.util;
 
+import java.util.Map;
+
 interface PersistentPrefs {
 
     String DEFAULT_CURRENCY = "USD";
@@ -39,6 +41,11 @@ interface PersistentPrefs {
 
     void setValue(String name, String value);
 
+    /**
+     * Writes several String values in a single edit
+     */
+    void setValues(Map<String, String> values);
+
     int getValue(String name, int value);
 
     void setValue(String name, int value);
@@ -5,6 +5,8 @@ import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.preference.PreferenceManager;
 
+import java.util.Map;
+
 import piuk.blockchain.android.data.api.DebugSettings;
 
 public class PrefsUtil implements PersistentPrefs {
@@ -27,6 +29,16 @@ public class PrefsUtil implements PersistentPrefs {
         editor.apply();
     }
 
+    @Override
+    public void setValues(Map<String, String> values) {
+        Editor editor = preferenceManager.edit();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            String value = entry.getValue();
+            editor.putString(entry.getKey(), (value == null || value.isEmpty()) ? "" : value);
+        }
+        editor.apply();
+    }
+
     @Override
     public int getValue(String name, int value) {
         return preferenceManager.getInt(name, 0);
@@ -0,0 +1,162 @@
+package piuk.blockchain.android.data.cache;
+
+import info.blockchain.api.DynamicFee;
+import info.blockchain.wallet.payment.data.SuggestedFee;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.reactivex.Observable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.plugins.RxJavaPlugins;
+import io.reactivex.schedulers.TestScheduler;
+import piuk.blockchain.android.RxTest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DynamicFeeCacheTest extends RxTest {
+
+    private DynamicFeeCache subject;
+    private long now = 1000000L;
+    @Mock DynamicFee dynamicFee;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        MockitoAnnotations.initMocks(this);
+
+        subject = new DynamicFeeCache(dynamicFee) {
+            @Override
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void getFreshSuggestedFeeFetchesWhenEmpty() throws Exception {
+        // Arrange
+        SuggestedFee fee = new SuggestedFee();
+        when(dynamicFee.getDynamicFee()).thenReturn(fee);
+        // Act
+        TestObserver<SuggestedFee> observer = subject.getFreshSuggestedFee().test();
+        // Assert
+        observer.assertComplete();
+        observer.assertNoErrors();
+        observer.assertValue(fee);
+        assertSame(fee, subject.getSuggestedFee());
+        assertTrue(subject.isFresh());
+    }
+
+    @Test
+    public void getFreshSuggestedFeeWithinTtl() throws Exception {
+        // Arrange
+        SuggestedFee fee = new SuggestedFee();
+        subject.setSuggestedFee(fee);
+        now += DynamicFeeCache.FEE_TTL_MS - 1;
+        // Act
+        TestObserver<SuggestedFee> observer = subject.getFreshSuggestedFee().test();
+        // Assert
+        observer.assertComplete();
+        observer.assertValue(fee);
+        verify(dynamicFee, never()).getDynamicFee();
+    }
+
+    @Test
+    public void getFreshSuggestedFeeAfterTtl() throws Exception {
+        // Arrange
+        SuggestedFee stale = new SuggestedFee();
+        SuggestedFee fresh = new SuggestedFee();
+        subject.setSuggestedFee(stale);
+        now += DynamicFeeCache.FEE_TTL_MS;
+        assertFalse(subject.isFresh());
+        when(dynamicFee.getDynamicFee()).thenReturn(fresh);
+        // Act
+        TestObserver<SuggestedFee> observer = subject.getFreshSuggestedFee().test();
+        // Assert
+        observer.assertComplete();
+        observer.assertValue(fresh);
+        assertTrue(subject.isFresh());
+    }
+
+    @Test
+    public void getFreshSuggestedFeeSharesInFlightRequest() throws Exception {
+        // Arrange
+        SuggestedFee fee = new SuggestedFee();
+        when(dynamicFee.getDynamicFee()).thenReturn(fee);
+        // Act
+        Observable<SuggestedFee> first = subject.getFreshSuggestedFee();
+        Observable<SuggestedFee> second = subject.getFreshSuggestedFee();
+        TestObserver<SuggestedFee> firstObserver = first.test();
+        TestObserver<SuggestedFee> secondObserver = second.test();
+        // Assert
+        assertSame(first, second);
+        firstObserver.assertValue(fee);
+        secondObserver.assertValue(fee);
+        verify(dynamicFee, times(1)).getDynamicFee();
+    }
+
+    @Test
+    public void getSuggestedFeeStaleWhileRefreshInFlight() throws Exception {
+        // Arrange
+        SuggestedFee stale = new SuggestedFee();
+        SuggestedFee fresh = new SuggestedFee();
+        subject.setSuggestedFee(stale);
+        now += DynamicFeeCache.FEE_TTL_MS;
+        when(dynamicFee.getDynamicFee()).thenReturn(fresh);
+        TestScheduler scheduler = new TestScheduler();
+        RxJavaPlugins.setIoSchedulerHandler(ignored -> scheduler);
+        TestObserver<SuggestedFee> observer = subject.getFreshSuggestedFee().test();
+        // Act
+        SuggestedFee duringRefresh = subject.getSuggestedFee();
+        scheduler.triggerActions();
+        // Assert
+        assertSame(stale, duringRefresh);
+        assertSame(fresh, subject.getSuggestedFee());
+        observer.assertValue(fresh);
+    }
+
+    @Test
+    public void getFreshSuggestedFeeFailureReturnsStaleFee() throws Exception {
+        // Arrange
+        SuggestedFee stale = new SuggestedFee();
+        subject.setSuggestedFee(stale);
+        now += DynamicFeeCache.FEE_TTL_MS;
+        when(dynamicFee.getDynamicFee()).thenThrow(new Exception());
+        // Act
+        TestObserver<SuggestedFee> observer = subject.getFreshSuggestedFee().test();
+        // Assert
+        observer.assertComplete();
+        observer.assertNoErrors();
+        observer.assertValue(stale);
+        // Still stale, so that the next request tries again
+        assertFalse(subject.isFresh());
+        verify(dynamicFee, never()).getDefaultFee();
+    }
+
+    @Test
+    public void getFreshSuggestedFeeFailureReturnsDefaultFee() throws Exception {
+        // Arrange
+        SuggestedFee defaultFee = new SuggestedFee();
+        when(dynamicFee.getDynamicFee()).thenThrow(new Exception());
+        when(dynamicFee.getDefaultFee()).thenReturn(defaultFee);
+        // Act
+        TestObserver<SuggestedFee> observer = subject.getFreshSuggestedFee().test();
+        // Assert
+        observer.assertComplete();
+        observer.assertNoErrors();
+        observer.assertValue(defaultFee);
+        assertEquals(defaultFee, subject.getSuggestedFee());
+        assertFalse(subject.isFresh());
+    }
+
+}
@@ -0,0 +1,221 @@
+package piuk.blockchain.android.data.cache;
+
+import info.blockchain.api.ExchangeTicker;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.reactivex.observers.TestObserver;
+import io.reactivex.plugins.RxJavaPlugins;
+import io.reactivex.schedulers.TestScheduler;
+import piuk.blockchain.android.RxTest;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class HistoricPriceCacheTest extends RxTest {
+
+    private static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+    private static final long SATOSHIS_PER_BTC = 100_000_000L;
+    // 18th July 2016, UTC
+    private static final long DAY_START = 17000L * DAY_MS;
+    private static final long MIDDAY = DAY_START + DAY_MS / 2;
+
+    private HistoricPriceCache subject;
+    private File cacheFile;
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    @Mock ExchangeTicker exchangeTicker;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        MockitoAnnotations.initMocks(this);
+
+        when(exchangeTicker.getHistoricPrice(anyLong(), anyString(), anyLong())).thenReturn("600");
+
+        cacheFile = new File(temporaryFolder.getRoot(), "historic_prices.json");
+        subject = new HistoricPriceCache(cacheFile, exchangeTicker);
+    }
+
+    @Test
+    public void getHistoricPriceSharesDay() throws Exception {
+        // Act
+        TestObserver<Double> morning = subject.getHistoricPrice(SATOSHIS_PER_BTC, "USD", DAY_START + 1000L).test();
+        TestObserver<Double> evening = subject.getHistoricPrice(SATOSHIS_PER_BTC / 2, "USD", DAY_START + DAY_MS - 1L).test();
+        // Assert
+        morning.assertComplete();
+        morning.assertValue(600D);
+        evening.assertComplete();
+        evening.assertValue(300D);
+        // Fetched once, as the price of 1 BTC at midday
+        verify(exchangeTicker, times(1)).getHistoricPrice(anyLong(), anyString(), anyLong());
+        verify(exchangeTicker).getHistoricPrice(SATOSHIS_PER_BTC, "USD", MIDDAY);
+        assertTrue(cacheFile.exists());
+    }
+
+    @Test
+    public void getHistoricPriceKeyedByCurrencyAndDay() throws Exception {
+        // Arrange
+        when(exchangeTicker.getHistoricPrice(anyLong(), eq("GBP"), anyLong())).thenReturn("450");
+        // Act
+        TestObserver<Double> usd = subject.getHistoricPrice(SATOSHIS_PER_BTC, "USD", DAY_START).test();
+        TestObserver<Double> gbp = subject.getHistoricPrice(SATOSHIS_PER_BTC, "GBP", DAY_START).test();
+        TestObserver<Double> nextDay = subject.getHistoricPrice(SATOSHIS_PER_BTC, "USD", DAY_START + DAY_MS).test();
+        // Assert
+        usd.assertValue(600D);
+        gbp.assertValue(450D);
+        nextDay.assertValue(600D);
+        verify(exchangeTicker).getHistoricPrice(SATOSHIS_PER_BTC, "USD", MIDDAY);
+        verify(exchangeTicker).getHistoricPrice(SATOSHIS_PER_BTC, "GBP", MIDDAY);
+        verify(exchangeTicker).getHistoricPrice(SATOSHIS_PER_BTC, "USD", MIDDAY + DAY_MS);
+    }
+
+    @Test
+    public void getHistoricPriceCurrentDayNotCached() throws Exception {
+        // Arrange
+        long now = System.currentTimeMillis();
+        // Act
+        TestObserver<Double> first = subject.getHistoricPrice(50000L, "USD", now).test();
+        TestObserver<Double> second = subject.getHistoricPrice(50000L, "USD", now).test();
+        // Assert
+        first.assertValue(600D);
+        second.assertValue(600D);
+        // Fetched for the exact amount and time requested, every time
+        verify(exchangeTicker, times(2)).getHistoricPrice(50000L, "USD", now);
+        assertFalse(cacheFile.exists());
+    }
+
+    @Test
+    public void getHistoricPriceSharesInFlightRequest() throws Exception {
+        // Arrange
+        TestScheduler scheduler = new TestScheduler();
+        RxJavaPlugins.setIoSchedulerHandler(ignored -> scheduler);
+        TestObserver<Double> first = subject.getHistoricPrice(SATOSHIS_PER_BTC, "USD", DAY_START).test();
+        TestObserver<Double> second = subject.getHistoricPrice(SATOSHIS_PER_BTC, "USD", DAY_START).test();
+        first.assertNoValues();
+        second.assertNoValues();
+        // Act
+        scheduler.triggerActions();
+        // Assert
+        first.assertValue(600D);
+        second.assertValue(600D);
+        verify(exchangeTicker, times(1)).getHistoricPrice(anyLong(), anyString(), anyLong());
+    }
+
+    @Test
+    public void getHistoricPriceErrorNotCached() throws Exception {
+        // Arrange
+        when(exchangeTicker.getHistoricPrice(anyLong(), anyString(), anyLong())).thenReturn(null);
+        // Act
+        TestObserver<Double> first = subject.getHistoricPrice(SATOSHIS_PER_BTC, "USD", DAY_START).test();
+        TestObserver<Double> second = subject.getHistoricPrice(SATOSHIS_PER_BTC, "USD", DAY_START).test();
+        // Assert
+        first.assertError(Exception.class);
+        second.assertError(Exception.class);
+        verify(exchangeTicker, times(2)).getHistoricPrice(SATOSHIS_PER_BTC, "USD", MIDDAY);
+        assertFalse(cacheFile.exists());
+    }
+
+    @Test
+    public void prefetchWritesOnce() throws Exception {
+        // Arrange
+        subject.getHistoricPrice(SATOSHIS_PER_BTC, "USD", DAY_START).test();
+        FileUtils.deleteQuietly(cacheFile);
+        // Failures are swallowed by prefetch, so record this rather than asserting in the answer
+        AtomicBoolean writtenDuringFetch = new AtomicBoolean();
+        when(exchangeTicker.getHistoricPrice(anyLong(), anyString(), anyLong())).thenAnswer(invocation -> {
+            if (cacheFile.exists()) writtenDuringFetch.set(true);
+            return "700";
+        });
+        // Act
+        TestObserver<Void> observer = subject.prefetch("USD", Arrays.asList(
+                DAY_START,
+                DAY_START + DAY_MS,
+                DAY_START + DAY_MS + 1000L,
+                DAY_START + 2 * DAY_MS,
+                System.currentTimeMillis())).test();
+        // Assert
+        observer.assertComplete();
+        observer.assertNoErrors();
+        // Nothing is written until every day has been fetched
+        assertFalse(writtenDuringFetch.get());
+        // Skips the cached day, the duplicate day and the current day
+        verify(exchangeTicker, times(1)).getHistoricPrice(SATOSHIS_PER_BTC, "USD", MIDDAY);
+        verify(exchangeTicker).getHistoricPrice(SATOSHIS_PER_BTC, "USD", MIDDAY + DAY_MS);
+        verify(exchangeTicker).getHistoricPrice(SATOSHIS_PER_BTC, "USD", MIDDAY + 2 * DAY_MS);
+        verify(exchangeTicker, times(3)).getHistoricPrice(anyLong(), anyString(), anyLong());
+        String stored = FileUtils.readFileToString(cacheFile, "UTF-8");
+        assertTrue(stored.contains("USD|17001"));
+        assertTrue(stored.contains("USD|17002"));
+    }
+
+    @Test
+    public void prefetchIgnoresFailures() throws Exception {
+        // Arrange
+        when(exchangeTicker.getHistoricPrice(SATOSHIS_PER_BTC, "USD", MIDDAY)).thenThrow(new Exception());
+        // Act
+        TestObserver<Void> observer = subject.prefetch("USD", Arrays.asList(DAY_START, DAY_START + DAY_MS)).test();
+        // Assert
+        observer.assertComplete();
+        observer.assertNoErrors();
+        String stored = FileUtils.readFileToString(cacheFile, "UTF-8");
+        assertFalse(stored.contains("USD|17000"));
+        assertTrue(stored.contains("USD|17001"));
+    }
+
+    @Test
+    public void restoreFromDisk() throws Exception {
+        // Arrange
+        subject.getHistoricPrice(SATOSHIS_PER_BTC, "USD", DAY_START).test();
+        ExchangeTicker offlineTicker = mock(ExchangeTicker.class);
+        HistoricPriceCache restored = new HistoricPriceCache(cacheFile, offlineTicker);
+        // Act
+        TestObserver<Double> observer = restored.getHistoricPrice(SATOSHIS_PER_BTC / 4, "USD", DAY_START).test();
+        // Assert
+        observer.assertComplete();
+        observer.assertValue(150D);
+        verify(offlineTicker, never()).getHistoricPrice(anyLong(), anyString(), anyLong());
+    }
+
+    @Test
+    public void restoreVersionMismatch() throws Exception {
+        // Arrange
+        FileUtils.writeStringToFile(cacheFile, "{\"version\":0,\"prices\":{\"USD|17000\":1}}", "UTF-8");
+        // Act
+        TestObserver<Double> observer = subject.getHistoricPrice(SATOSHIS_PER_BTC, "USD", DAY_START).test();
+        // Assert
+        observer.assertValue(600D);
+        verify(exchangeTicker).getHistoricPrice(SATOSHIS_PER_BTC, "USD", MIDDAY);
+    }
+
+    @Test
+    public void clear() throws Exception {
+        // Arrange
+        subject.getHistoricPrice(SATOSHIS_PER_BTC, "USD", DAY_START).test();
+        assertTrue(cacheFile.exists());
+        // Act
+        subject.clear();
+        subject.getHistoricPrice(SATOSHIS_PER_BTC, "USD", DAY_START).test();
+        // Assert
+        verify(exchangeTicker, times(2)).getHistoricPrice(SATOSHIS_PER_BTC, "USD", MIDDAY);
+    }
+
+}
@@ -0,0 +1,262 @@
+package piuk.blockchain.android.data.cache;
+
+import info.blockchain.wallet.crypto.AESUtil;
+import info.blockchain.wallet.multiaddr.MultiAddrFactory;
+import info.blockchain.wallet.payload.Payload;
+import info.blockchain.wallet.payload.PayloadManager;
+import info.blockchain.wallet.transaction.Tx;
+import info.blockchain.wallet.util.CharSequenceX;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import piuk.blockchain.android.BlockchainTestApplication;
+import piuk.blockchain.android.BuildConfig;
+import piuk.blockchain.android.util.AESUtilWrapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+@Config(sdk = 23, constants = BuildConfig.class, application = BlockchainTestApplication.class)
+@RunWith(RobolectricTestRunner.class)
+public class TransactionListCacheTest {
+
+    private static final String GUID = "a09910d9-1906-4ea1-a956-2508c3fe0661";
+    private static final CharSequenceX PASSWORD = new CharSequenceX("password");
+
+    private TransactionListCache subject;
+    private File cacheFile;
+    private AESUtilWrapper aesUtil = new AESUtilWrapper();
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    @Mock PayloadManager payloadManager;
+    @Mock Payload payload;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        resetMultiAddrFactory();
+
+        when(payloadManager.getPayload()).thenReturn(payload);
+        when(payloadManager.getTempPassword()).thenReturn(PASSWORD);
+        when(payload.getGuid()).thenReturn(GUID);
+        when(payload.getLegacyAddressStringList()).thenReturn(Collections.singletonList("address"));
+
+        cacheFile = new File(temporaryFolder.getRoot(), "transaction_cache.dat");
+        subject = new TransactionListCache(cacheFile, payloadManager, aesUtil);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        resetMultiAddrFactory();
+    }
+
+    @Test
+    public void writeAndRestore() throws Exception {
+        // Arrange
+        MultiAddrFactory multiAddrFactory = MultiAddrFactory.getInstance();
+        multiAddrFactory.setXpubBalance(150000L);
+        multiAddrFactory.setXpubAmount("xpub", 150000L);
+        HashMap<Integer, String> tags = new HashMap<>();
+        tags.put(0, "tag");
+        Tx xpubTx = new Tx("xpub_hash", "note", MultiAddrFactory.RECEIVED, 150000D, 1480000000L, tags);
+        xpubTx.setConfirmations(6L);
+        xpubTx.setIsMove(true);
+        multiAddrFactory.getXpubTxs().put("xpub", new ArrayList<>(Collections.singletonList(xpubTx)));
+        multiAddrFactory.setLegacyBalance(25000L);
+        multiAddrFactory.setLegacyBalance("address", 25000L);
+        Tx legacyTx = new Tx("legacy_hash", null, MultiAddrFactory.SENT, -5000D, 1470000000L, new HashMap<>());
+        legacyTx.setIsWatchOnly(true);
+        legacyTx.setDoubleSpend(true);
+        multiAddrFactory.getLegacyTxs().add(legacyTx);
+        // Act
+        boolean written = subject.write();
+        resetMultiAddrFactory();
+        boolean restored = subject.restore();
+        // Assert
+        assertTrue(written);
+        assertTrue(restored);
+        // Stored encrypted
+        assertFalse(FileUtils.readFileToString(cacheFile, "UTF-8").contains("xpub_hash"));
+        // Held apart from MultiAddrFactory, which the refresh rewrites
+        assertTrue(MultiAddrFactory.getInstance().getXpubTxs().isEmpty());
+        assertTrue(MultiAddrFactory.getInstance().getLegacyTxs().isEmpty());
+
+        TransactionListCache.Snapshot snapshot = subject.getSnapshot();
+        assertNotNull(snapshot);
+        assertEquals(150000L, snapshot.getXpubBalance());
+        assertEquals(Long.valueOf(150000L), snapshot.getXpubAmounts().get("xpub"));
+        assertEquals(25000L, snapshot.getLegacyBalance());
+        assertEquals(25000L, snapshot.getLegacyBalance("address"));
+
+        List<Tx> xpubTxs = snapshot.getXpubTxs().get("xpub");
+        assertEquals(1, xpubTxs.size());
+        Tx restoredXpubTx = xpubTxs.get(0);
+        assertEquals("xpub_hash", restoredXpubTx.getHash());
+        assertEquals("note", restoredXpubTx.getNote());
+        assertEquals(MultiAddrFactory.RECEIVED, restoredXpubTx.getDirection());
+        assertEquals(150000D, restoredXpubTx.getAmount(), 0D);
+        assertEquals(1480000000L, restoredXpubTx.getTS());
+        assertEquals(6L, restoredXpubTx.getConfirmations());
+        assertTrue(restoredXpubTx.isMove());
+        assertFalse(restoredXpubTx.isWatchOnly());
+        assertEquals("tag", restoredXpubTx.getTags().get(0));
+
+        assertEquals(1, snapshot.getLegacyTxs().size());
+        Tx restoredLegacyTx = snapshot.getLegacyTxs().get(0);
+        assertEquals("legacy_hash", restoredLegacyTx.getHash());
+        assertNull(restoredLegacyTx.getNote());
+        assertEquals(-5000D, restoredLegacyTx.getAmount(), 0D);
+        assertFalse(restoredLegacyTx.isMove());
+        assertTrue(restoredLegacyTx.isWatchOnly());
+        assertTrue(restoredLegacyTx.isDoubleSpend());
+    }
+
+    @Test
+    public void restoreGuidMismatch() throws Exception {
+        // Arrange
+        MultiAddrFactory.getInstance().setXpubBalance(150000L);
+        subject.write();
+        resetMultiAddrFactory();
+        when(payload.getGuid()).thenReturn("another-guid");
+        // Act
+        boolean restored = subject.restore();
+        // Assert
+        assertFalse(restored);
+        assertFalse(cacheFile.exists());
+        assertNull(subject.getSnapshot());
+    }
+
+    @Test
+    public void restoreVersionMismatch() throws Exception {
+        // Arrange
+        String plaintext = "{\"version\":0,\"guid\":\"" + GUID + "\",\"xpub_balance\":150000,"
+                + "\"legacy_balance\":0,\"xpubs\":[],\"legacy\":[],\"txs\":[]}";
+        FileUtils.writeStringToFile(cacheFile,
+                aesUtil.encrypt(plaintext, PASSWORD, AESUtil.PIN_PBKDF2_ITERATIONS), "UTF-8");
+        // Act
+        boolean restored = subject.restore();
+        // Assert
+        assertFalse(restored);
+        assertFalse(cacheFile.exists());
+        assertNull(subject.getSnapshot());
+    }
+
+    @Test
+    public void restoreWrongPassword() throws Exception {
+        // Arrange
+        subject.write();
+        when(payloadManager.getTempPassword()).thenReturn(new CharSequenceX("wrong"));
+        // Act
+        boolean restored = subject.restore();
+        // Assert
+        assertFalse(restored);
+        assertFalse(cacheFile.exists());
+    }
+
+    @Test
+    public void restoreAfterFreshData() throws Exception {
+        // Arrange
+        subject.write();
+        MultiAddrFactory.getInstance().getLegacyTxs().add(
+                new Tx("hash", null, MultiAddrFactory.SENT, -5000D, 1470000000L, new HashMap<>()));
+        // Act
+        boolean restored = subject.restore();
+        // Assert
+        assertFalse(restored);
+        assertNull(subject.getSnapshot());
+        // Kept for the next cold start
+        assertTrue(cacheFile.exists());
+    }
+
+    @Test
+    public void releaseSnapshotAfterRefresh() throws Exception {
+        // Arrange
+        MultiAddrFactory.getInstance().setXpubBalance(150000L);
+        MultiAddrFactory.getInstance().getXpubTxs().put("xpub", new ArrayList<>(Collections.singletonList(
+                new Tx("hash", null, MultiAddrFactory.RECEIVED, 150000D, 1480000000L, new HashMap<>()))));
+        subject.write();
+        resetMultiAddrFactory();
+        subject.restore();
+        // Act
+        subject.releaseSnapshot(true);
+        // Assert
+        assertNull(subject.getSnapshot());
+        // Left to the refresh
+        assertEquals(0L, MultiAddrFactory.getInstance().getXpubBalance());
+        assertTrue(MultiAddrFactory.getInstance().getXpubTxs().isEmpty());
+    }
+
+    @Test
+    public void releaseSnapshotAfterFailedRefresh() throws Exception {
+        // Arrange
+        MultiAddrFactory.getInstance().setXpubBalance(150000L);
+        MultiAddrFactory.getInstance().setXpubAmount("xpub", 150000L);
+        MultiAddrFactory.getInstance().getXpubTxs().put("xpub", new ArrayList<>(Collections.singletonList(
+                new Tx("hash", null, MultiAddrFactory.RECEIVED, 150000D, 1480000000L, new HashMap<>()))));
+        MultiAddrFactory.getInstance().setLegacyBalance("address", 25000L);
+        subject.write();
+        resetMultiAddrFactory();
+        subject.restore();
+        // Act
+        subject.releaseSnapshot(false);
+        // Assert
+        assertNull(subject.getSnapshot());
+        // Copied in so that the last known balances stay visible offline
+        MultiAddrFactory multiAddrFactory = MultiAddrFactory.getInstance();
+        assertEquals(150000L, multiAddrFactory.getXpubBalance());
+        assertEquals(Long.valueOf(150000L), multiAddrFactory.getXpubAmounts().get("xpub"));
+        assertEquals(1, multiAddrFactory.getXpubTxs().get("xpub").size());
+        assertEquals("hash", multiAddrFactory.getXpubTxs().get("xpub").get(0).getHash());
+        assertEquals(25000L, multiAddrFactory.getLegacyBalance("address"));
+    }
+
+    @Test
+    public void writeWithoutPassword() throws Exception {
+        // Arrange
+        when(payloadManager.getTempPassword()).thenReturn(null);
+        // Act
+        boolean written = subject.write();
+        // Assert
+        assertFalse(written);
+        assertFalse(cacheFile.exists());
+    }
+
+    @Test
+    public void clear() throws Exception {
+        // Arrange
+        subject.write();
+        subject.restore();
+        assertTrue(cacheFile.exists());
+        // Act
+        subject.clear();
+        // Assert
+        assertFalse(cacheFile.exists());
+        assertNull(subject.getSnapshot());
+        assertFalse(subject.restore());
+    }
+
+    private static void resetMultiAddrFactory() {
+        // The next getInstance() replaces all of its static state
+        MultiAddrFactory.getInstance().wipe();
+    }
+
+}
@@ -0,0 +1,183 @@
+package piuk.blockchain.android.data.cache;
+
+import info.blockchain.api.Unspent;
+import info.blockchain.wallet.payment.Payment;
+import info.blockchain.wallet.payment.data.UnspentOutputs;
+import info.blockchain.wallet.send.MyTransactionOutPoint;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class UnspentOutputsCacheTest {
+
+    private UnspentOutputsCache subject;
+    private long now = 1000000L;
+    @Mock Unspent unspentApi;
+    @Mock Payment payment;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        when(unspentApi.getUnspentOutputs(anyString())).thenReturn(mock(JSONObject.class));
+        when(payment.getCoins(any(JSONObject.class))).thenAnswer(invocation -> createOutputs());
+
+        subject = new UnspentOutputsCache(unspentApi, payment) {
+            @Override
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void getUnspentOutputsCachesResult() throws Exception {
+        // Act
+        UnspentOutputs first = subject.getUnspentOutputs("address");
+        UnspentOutputs second = subject.getUnspentOutputs("address");
+        // Assert
+        verify(unspentApi, times(1)).getUnspentOutputs("address");
+        assertTrue(subject.contains("address"));
+        // Each caller gets its own copy of the list, as Payment sorts it in place
+        assertNotSame(first.getOutputs(), second.getOutputs());
+        assertEquals(first.getOutputs(), second.getOutputs());
+        assertEquals(BigInteger.valueOf(10000L), second.getBalance());
+    }
+
+    @Test
+    public void getUnspentOutputsNoneCached() throws Exception {
+        // Arrange
+        when(unspentApi.getUnspentOutputs("empty")).thenReturn(null);
+        // Act
+        UnspentOutputs first = subject.getUnspentOutputs("empty");
+        UnspentOutputs second = subject.getUnspentOutputs("empty");
+        // Assert
+        assertNull(first);
+        assertNull(second);
+        verify(unspentApi, times(1)).getUnspentOutputs("empty");
+    }
+
+    @Test
+    public void getUnspentOutputsEvictsLeastRecentlyUsed() throws Exception {
+        // Arrange
+        for (int i = 0; i < UnspentOutputsCache.MAX_ENTRIES; i++) {
+            subject.getUnspentOutputs("address" + i);
+        }
+        // Touch the eldest, so that the second eldest is evicted instead
+        subject.getUnspentOutputs("address0");
+        // Act
+        subject.getUnspentOutputs("new");
+        // Assert
+        assertTrue(subject.contains("new"));
+        assertTrue(subject.contains("address0"));
+        assertFalse(subject.contains("address1"));
+        for (int i = 2; i < UnspentOutputsCache.MAX_ENTRIES; i++) {
+            assertTrue(subject.contains("address" + i));
+        }
+        verify(unspentApi, times(1)).getUnspentOutputs("address0");
+    }
+
+    @Test
+    public void getUnspentOutputsWithinTtl() throws Exception {
+        // Arrange
+        subject.getUnspentOutputs("address");
+        now += UnspentOutputsCache.ENTRY_TTL_MS - 1;
+        // Act
+        subject.getUnspentOutputs("address");
+        // Assert
+        assertTrue(subject.contains("address"));
+        verify(unspentApi, times(1)).getUnspentOutputs("address");
+    }
+
+    @Test
+    public void getUnspentOutputsExpired() throws Exception {
+        // Arrange
+        subject.getUnspentOutputs("address");
+        now += UnspentOutputsCache.ENTRY_TTL_MS;
+        // Act
+        boolean containedAfterExpiry = subject.contains("address");
+        subject.getUnspentOutputs("address");
+        // Assert
+        assertFalse(containedAfterExpiry);
+        assertTrue(subject.contains("address"));
+        verify(unspentApi, times(2)).getUnspentOutputs("address");
+    }
+
+    @Test
+    public void invalidateOnlyAffectsKey() throws Exception {
+        // Arrange
+        subject.getUnspentOutputs("address1");
+        subject.getUnspentOutputs("address2");
+        int versionBefore = subject.getVersion("address1");
+        // Act
+        subject.invalidate("address1");
+        // Assert
+        assertFalse(subject.contains("address1"));
+        assertTrue(subject.contains("address2"));
+        assertEquals(versionBefore + 1, subject.getVersion("address1"));
+        assertEquals(0, subject.getVersion("address2"));
+        subject.getUnspentOutputs("address1");
+        subject.getUnspentOutputs("address2");
+        verify(unspentApi, times(2)).getUnspentOutputs("address1");
+        verify(unspentApi, times(1)).getUnspentOutputs("address2");
+    }
+
+    @Test
+    public void invalidateDuringFetchIsNotCached() throws Exception {
+        // Arrange
+        doAnswer(invocation -> {
+            // A utx event arrives while the request is in flight
+            subject.invalidate("address");
+            return mock(JSONObject.class);
+        }).when(unspentApi).getUnspentOutputs("address");
+        // Act
+        UnspentOutputs outputs = subject.getUnspentOutputs("address");
+        // Assert
+        assertEquals(1, outputs.getOutputs().size());
+        assertFalse(subject.contains("address"));
+    }
+
+    @Test
+    public void prefetch() throws Exception {
+        // Arrange
+        subject.getUnspentOutputs("cached");
+        // Act
+        subject.prefetch(new ArrayList<String>() {{
+            add("cached");
+            add("address");
+        }});
+        // Assert
+        verify(unspentApi, times(1)).getUnspentOutputs("cached");
+        verify(unspentApi, times(1)).getUnspentOutputs("address");
+        assertTrue(subject.contains("address"));
+    }
+
+    private static UnspentOutputs createOutputs() {
+        MyTransactionOutPoint output = mock(MyTransactionOutPoint.class);
+        return new UnspentOutputs(
+                new ArrayList<>(Collections.singletonList(output)),
+                BigInteger.valueOf(10000L),
+                null);
+    }
+
+}
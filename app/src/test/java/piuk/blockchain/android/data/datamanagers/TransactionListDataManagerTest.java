@@ -22,19 +22,26 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
+import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.reactivex.observers.TestObserver;
 import io.reactivex.subjects.Subject;
 import piuk.blockchain.android.BlockchainTestApplication;
 import piuk.blockchain.android.BuildConfig;
 import piuk.blockchain.android.RxTest;
+import piuk.blockchain.android.data.cache.TransactionListCache;
 import piuk.blockchain.android.data.services.TransactionDetailsService;
+import piuk.blockchain.android.data.stores.BalanceIndex;
+import piuk.blockchain.android.data.stores.TransactionListDelta;
 import piuk.blockchain.android.data.stores.TransactionListStore;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
-import static org.mockito.Matchers.anyString;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @Config(sdk = 23, constants = BuildConfig.class, application = BlockchainTestApplication.class)
@@ -43,17 +50,22 @@ public class TransactionListDataManagerTest extends RxTest {
 
     @Mock PayloadManager mPayloadManager;
     @Mock TransactionDetailsService mTransactionDetails;
+    @Mock TransactionListCache mTransactionListCache;
     private TransactionListStore mTransactionList;
+    private BalanceIndex mBalanceIndex;
     private TransactionListDataManager mSubject;
 
     @Before
     public void setUp() throws Exception {
         super.setUp();
         MockitoAnnotations.initMocks(this);
+        // MultiAddrFactory's state is static, so start each test from empty
+        MultiAddrFactory.getInstance().wipe();
 
         mTransactionList = new TransactionListStore();
+        mBalanceIndex = new BalanceIndex(mPayloadManager, MultiAddrFactory.getInstance(), mTransactionListCache);
 
-        mSubject = new TransactionListDataManager(mPayloadManager, mTransactionDetails, mTransactionList);
+        mSubject = new TransactionListDataManager(mPayloadManager, mTransactionDetails, mTransactionList, mBalanceIndex, mTransactionListCache);
     }
 
     @Test
@@ -118,6 +130,30 @@ public class TransactionListDataManagerTest extends RxTest {
 
     }
 
+    @Test
+    public void mergeTransactionListNewObjectResets() throws Exception {
+        // Arrange
+        LegacyAddress legacyAddress = new LegacyAddress();
+        legacyAddress.setAddress("addr");
+        // Act
+        TransactionListDelta value = mSubject.mergeTransactionList(legacyAddress);
+        // Assert
+        assertTrue(value.isReset());
+    }
+
+    @Test
+    public void mergeTransactionListSameObject() throws Exception {
+        // Arrange
+        LegacyAddress legacyAddress = new LegacyAddress();
+        legacyAddress.setAddress("addr");
+        mSubject.generateTransactionList(legacyAddress);
+        // Act
+        TransactionListDelta value = mSubject.mergeTransactionList(legacyAddress);
+        // Assert
+        assertFalse(value.isReset());
+        assertTrue(value.isEmpty());
+    }
+
     @Test
     public void getTransactionList() throws Exception {
         // Arrange
@@ -129,6 +165,21 @@ public class TransactionListDataManagerTest extends RxTest {
         assertEquals(Collections.emptyList(), value);
     }
 
+    @Test
+    public void getTransactionPage() throws Exception {
+        // Arrange
+        Tx tx0 = new Tx("hash0", "", "", 0D, 0L, new HashMap<>());
+        Tx tx1 = new Tx("hash1", "", "", 0D, 500L, new HashMap<>());
+        Tx tx2 = new Tx("hash2", "", "", 0D, 1000L, new HashMap<>());
+        mTransactionList.insertTransactions(Arrays.asList(tx0, tx1, tx2));
+        // Act
+        List<Tx> value = mSubject.getTransactionPage(1, 5);
+        // Assert
+        assertEquals(Arrays.asList(tx1, tx0), value);
+        assertEquals(3, mSubject.getTransactionCount());
+        assertTrue(mSubject.getTransactionPage(3, 5).isEmpty());
+    }
+
     @Test
     public void clearTransactionList() throws Exception {
         // Arrange
@@ -152,9 +203,9 @@ public class TransactionListDataManagerTest extends RxTest {
     @Test
     public void insertTransactionIntoListAndReturnSorted() throws Exception {
         // Arrange
-        Tx tx0 = new Tx("", "", "", 0D, 0L, new HashMap<>());
-        Tx tx1 = new Tx("", "", "", 0D, 500L, new HashMap<>());
-        Tx tx2 = new Tx("", "", "", 0D, 1000L, new HashMap<>());
+        Tx tx0 = new Tx("hash0", "", "", 0D, 0L, new HashMap<>());
+        Tx tx1 = new Tx("hash1", "", "", 0D, 500L, new HashMap<>());
+        Tx tx2 = new Tx("hash2", "", "", 0D, 1000L, new HashMap<>());
 
         mTransactionList.insertTransactions(Arrays.asList(tx1, tx0));
         // Act
@@ -185,6 +236,78 @@ public class TransactionListDataManagerTest extends RxTest {
         assertEquals(2, value.size());
     }
 
+    @Test
+    public void getAllXpubAndLegacyTxsNewestFirst() {
+        // Arrange
+        Tx tx0 = new Tx("hash0", "", "", 0D, 0L, new HashMap<>());
+        Tx tx1 = new Tx("hash1", "", "", 0D, 1000L, new HashMap<>());
+        Tx tx2 = new Tx("hash2", "", "", 0D, 2000L, new HashMap<>());
+        Tx tx3 = new Tx("hash3", "", "", 0D, 3000L, new HashMap<>());
+        Tx tx4 = new Tx("hash4", "", "", 0D, 4000L, new HashMap<>());
+        Tx tx5 = new Tx("hash5", "", "", 0D, 5000L, new HashMap<>());
+        MultiAddrFactory.getInstance().getXpubTxs().put("xpub1", new ArrayList<>(Arrays.asList(tx5, tx2)));
+        MultiAddrFactory.getInstance().getXpubTxs().put("xpub2", new ArrayList<>(Arrays.asList(tx4, tx1)));
+        MultiAddrFactory.getInstance().getLegacyTxs().add(tx3);
+        MultiAddrFactory.getInstance().getLegacyTxs().add(tx0);
+        // Act
+        List<Tx> value = mSubject.getAllXpubAndLegacyTxs();
+        // Assert
+        assertEquals(Arrays.asList(tx5, tx4, tx3, tx2, tx1, tx0), value);
+    }
+
+    @Test
+    public void getAllXpubAndLegacyTxsRemovesDuplicates() {
+        // Arrange
+        Tx xpubCopy = new Tx("shared", "", "", 0D, 2000L, new HashMap<>());
+        Tx legacyCopy = new Tx("shared", "", "", 0D, 2000L, new HashMap<>());
+        Tx older = new Tx("older", "", "", 0D, 1000L, new HashMap<>());
+        MultiAddrFactory.getInstance().getXpubTxs().put("xpub1", new ArrayList<>(Arrays.asList(xpubCopy, older)));
+        MultiAddrFactory.getInstance().getLegacyTxs().add(legacyCopy);
+        // Act
+        List<Tx> value = mSubject.getAllXpubAndLegacyTxs();
+        // Assert
+        assertEquals(2, value.size());
+        assertSame(xpubCopy, value.get(0));
+        assertSame(older, value.get(1));
+    }
+
+    @Test
+    public void getAllXpubAndLegacyTxsSortsOutOfOrderSource() {
+        // Arrange
+        Tx tx1 = new Tx("hash1", "", "", 0D, 1000L, new HashMap<>());
+        Tx tx2 = new Tx("hash2", "", "", 0D, 2000L, new HashMap<>());
+        Tx tx3 = new Tx("hash3", "", "", 0D, 3000L, new HashMap<>());
+        Tx tx4 = new Tx("hash4", "", "", 0D, 4000L, new HashMap<>());
+        MultiAddrFactory.getInstance().getXpubTxs().put("xpub1", new ArrayList<>(Collections.singletonList(tx4)));
+        List<Tx> legacyTxs = MultiAddrFactory.getInstance().getLegacyTxs();
+        legacyTxs.add(tx1);
+        legacyTxs.add(tx3);
+        legacyTxs.add(tx2);
+        // Act
+        List<Tx> value = mSubject.getAllXpubAndLegacyTxs();
+        // Assert
+        assertEquals(Arrays.asList(tx4, tx3, tx2, tx1), value);
+        // The source list is sorted as a copy, not in place
+        assertEquals(Arrays.asList(tx1, tx3, tx2), legacyTxs);
+    }
+
+    @Test
+    public void getAllXpubAndLegacyTxsFromSnapshot() {
+        // Arrange
+        Tx live = new Tx("live", "", "", 0D, 2000L, new HashMap<>());
+        Tx restoredXpub = new Tx("xpub", "", "", 0D, 1000L, new HashMap<>());
+        Tx restoredLegacy = new Tx("legacy", "", "", 0D, 500L, new HashMap<>());
+        MultiAddrFactory.getInstance().getLegacyTxs().add(live);
+        TransactionListCache.Snapshot snapshot = mock(TransactionListCache.Snapshot.class);
+        when(snapshot.getXpubTxs()).thenReturn(Collections.singletonMap("xpub", Collections.singletonList(restoredXpub)));
+        when(snapshot.getLegacyTxs()).thenReturn(Collections.singletonList(restoredLegacy));
+        when(mTransactionListCache.getSnapshot()).thenReturn(snapshot);
+        // Act
+        List<Tx> value = mSubject.getAllXpubAndLegacyTxs();
+        // Assert
+        assertEquals(Arrays.asList(restoredXpub, restoredLegacy), value);
+    }
+
     @Test()
     public void getBtcBalanceInvalidObject() throws Exception {
         // Arrange
@@ -246,6 +369,53 @@ public class TransactionListDataManagerTest extends RxTest {
         assertEquals(0D, value, 0D);
     }
 
+    @Test()
+    public void getBtcBalanceAccountV3IndividualAfterInvalidate() throws Exception {
+        // Arrange
+        Account account = new Account();
+        account.setXpub("test");
+        MultiAddrFactory.getInstance().getXpubAmounts().put("test", 0L);
+        mSubject.getBtcBalance(account);
+        MultiAddrFactory.getInstance().getXpubAmounts().put("test", 100L);
+        // Act
+        mSubject.invalidateBalances();
+        double value = mSubject.getBtcBalance(account);
+        // Assert
+        assertEquals(100D, value, 0D);
+    }
+
+    @Test()
+    public void getBtcBalanceAccountV3IndividualAppliesDelta() throws Exception {
+        // Arrange
+        Account account = new Account();
+        account.setXpub("test");
+        MultiAddrFactory.getInstance().getXpubAmounts().put("test", 100L);
+        mSubject.invalidateBalances();
+        mSubject.getBtcBalance(account);
+        // Act
+        boolean applied = mBalanceIndex.applyXpubDelta("test", -40L);
+        double value = mSubject.getBtcBalance(account);
+        // Assert
+        assertTrue(applied);
+        assertEquals(60D, value, 0D);
+    }
+
+    @Test()
+    public void getBtcBalanceAccountV3IndividualFromSnapshot() throws Exception {
+        // Arrange
+        Account account = new Account();
+        account.setXpub("test");
+        MultiAddrFactory.getInstance().getXpubAmounts().put("test", 100L);
+        TransactionListCache.Snapshot snapshot = mock(TransactionListCache.Snapshot.class);
+        when(snapshot.getXpubAmounts()).thenReturn(Collections.singletonMap("test", 250L));
+        when(mTransactionListCache.getSnapshot()).thenReturn(snapshot);
+        // Act
+        mSubject.invalidateBalances();
+        double value = mSubject.getBtcBalance(account);
+        // Assert
+        assertEquals(250D, value, 0D);
+    }
+
     @Test()
     public void getBtcBalanceLegacyAddress() throws Exception {
         // Arrange
@@ -260,15 +430,28 @@ public class TransactionListDataManagerTest extends RxTest {
     public void getTransactionFromHash() throws Exception {
         // Arrange
         Transaction mockTransaction = mock(Transaction.class);
-        when(mTransactionDetails.getTransactionDetailsFromHash(anyString())).thenReturn(Observable.just(mockTransaction));
+        when(mTransactionDetails.getTransactionDetailsFromHash("hash", 3L)).thenReturn(Observable.just(mockTransaction));
         // Act
-        TestObserver<Transaction> observer = mSubject.getTransactionFromHash("hash").test();
+        TestObserver<Transaction> observer = mSubject.getTransactionFromHash("hash", 3L).test();
         // Assert
         assertEquals(mockTransaction, observer.values().get(0));
         observer.onComplete();
         observer.assertNoErrors();
     }
 
+    @Test
+    public void prefetchTransactionDetails() throws Exception {
+        // Arrange
+        List<Tx> transactions = Arrays.asList(mock(Tx.class), mock(Tx.class));
+        when(mTransactionDetails.prefetchTransactionDetails(transactions)).thenReturn(Completable.complete());
+        // Act
+        TestObserver<Void> observer = mSubject.prefetchTransactionDetails(transactions).test();
+        // Assert
+        observer.assertComplete();
+        observer.assertNoErrors();
+        verify(mTransactionDetails).prefetchTransactionDetails(transactions);
+    }
+
     @Test
     public void updateTransactionNotes() throws Exception {
         // Arrange
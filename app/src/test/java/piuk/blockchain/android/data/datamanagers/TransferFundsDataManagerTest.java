@@ -1,6 +1,7 @@
 package piuk.blockchain.android.data.datamanagers;
 
 import info.blockchain.api.Unspent;
+import info.blockchain.util.FeeUtil;
 import info.blockchain.wallet.multiaddr.MultiAddrFactory;
 import info.blockchain.wallet.payload.Account;
 import info.blockchain.wallet.payload.HDWallet;
@@ -12,6 +13,7 @@ import info.blockchain.wallet.payment.data.SpendableUnspentOutputs;
 import info.blockchain.wallet.payment.data.SuggestedFee;
 import info.blockchain.wallet.payment.data.SweepBundle;
 import info.blockchain.wallet.payment.data.UnspentOutputs;
+import info.blockchain.wallet.send.MyTransactionOutPoint;
 import info.blockchain.wallet.util.CharSequenceX;
 
 import org.apache.commons.lang3.tuple.Triple;
@@ -35,18 +37,27 @@ import piuk.blockchain.android.ui.account.ItemAccount;
 import piuk.blockchain.android.ui.send.PendingTransaction;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 public class TransferFundsDataManagerTest extends RxTest {
 
+    private static final BigInteger FEE_PER_KB = new BigInteger("30000");
+    // The fee of sweeping one output in a transaction of its own
+    private static final BigInteger SEPARATE_FEE = FeeUtil.estimatedFee(1, 1, FEE_PER_KB);
+
     private TransferFundsDataManager subject;
     @Mock PayloadManager payloadManager;
     @Mock Unspent unspentApi;
@@ -102,6 +113,37 @@ public class TransferFundsDataManagerTest extends RxTest {
         observer.assertNoErrors();
     }
 
+    @Test
+    public void getTransferableFundTransactionListBatchesAddresses() throws Exception {
+        // Arrange
+        Payload mockPayload = mock(Payload.class);
+        LegacyAddress legacyAddress1 = new LegacyAddress();
+        legacyAddress1.setAddress("address1");
+        LegacyAddress legacyAddress2 = new LegacyAddress();
+        legacyAddress2.setAddress("address2");
+        List<LegacyAddress> legacyAddresses = new ArrayList<LegacyAddress>() {{
+            add(legacyAddress1);
+            add(legacyAddress2);
+        }};
+        SuggestedFee suggestedFee = new SuggestedFee();
+        suggestedFee.defaultFeePerKb = new BigInteger("100");
+        DynamicFeeCache.getInstance().setSuggestedFee(suggestedFee);
+        when(multiAddrFactory.getLegacyBalance(anyString())).thenReturn(1000000L);
+        when(payloadManager.getPayload()).thenReturn(mockPayload);
+        when(mockPayload.getLegacyAddressList()).thenReturn(legacyAddresses);
+        // No free outputs in either address
+        when(unspentApi.getUnspentOutputs("address1|address2")).thenReturn(null);
+        // Act
+        TestObserver<Triple<List<PendingTransaction>, Long, Long>> observer = subject.getTransferableFundTransactionList(0).test();
+        // Assert
+        observer.assertComplete();
+        observer.assertNoErrors();
+        observer.assertValueCount(1);
+        assertEquals(0, observer.values().get(0).getLeft().size());
+        verify(unspentApi).getUnspentOutputs("address1|address2");
+        verifyNoMoreInteractions(unspentApi);
+    }
+
     @Test
     public void sendPaymentSuccessNoEncryption() throws Exception {
         // Arrange
@@ -258,6 +300,171 @@ public class TransferFundsDataManagerTest extends RxTest {
         observer.assertNoValues();
     }
 
+    @Test
+    public void sendConsolidatedPaymentSendsOneTransaction() throws Exception {
+        // Arrange
+        Payment mockPayment = mock(Payment.class);
+        doAnswer(invocation -> {
+            ((Payment.SubmitPaymentListener) invocation.getArguments()[6]).onSuccess("hash");
+            return null;
+        }).when(mockPayment).submitPayment(
+                any(SpendableUnspentOutputs.class),
+                anyListOf(ECKey.class),
+                anyString(),
+                anyString(),
+                any(BigInteger.class),
+                any(BigInteger.class),
+                any(Payment.SubmitPaymentListener.class));
+
+        List<PendingTransaction> pendingTransactions = new ArrayList<PendingTransaction>() {{
+            add(createPendingTransaction("address1", 1000000L));
+            add(createPendingTransaction("address2", 2000000L));
+            add(createPendingTransaction("address3", 3000000L));
+        }};
+        when(payloadManager.savePayloadToServer()).thenReturn(true);
+        Payload mockPayload = mock(Payload.class, RETURNS_DEEP_STUBS);
+        when(mockPayload.getHdWallet().getAccounts().get(anyInt())).thenReturn(mock(Account.class));
+        when(mockPayload.isDoubleEncrypted()).thenReturn(false);
+        when(payloadManager.getPayload()).thenReturn(mockPayload);
+        // Act
+        TestObserver<String> observer = subject.sendConsolidatedPayment(mockPayment, pendingTransactions, null).test();
+        // Assert
+        observer.assertComplete();
+        observer.assertNoErrors();
+        observer.assertValues("hash");
+        // One fee for a single three input transaction, with the saving sent to the account
+        BigInteger fee = FeeUtil.estimatedFee(3, 1, FEE_PER_KB);
+        verify(mockPayment).submitPayment(
+                any(SpendableUnspentOutputs.class),
+                anyListOf(ECKey.class),
+                anyString(),
+                anyString(),
+                eq(fee),
+                eq(BigInteger.valueOf(6000000L).subtract(fee)),
+                any(Payment.SubmitPaymentListener.class));
+        verify(payloadManager, times(1)).savePayloadToServer();
+    }
+
+    @Test
+    public void sendConsolidatedPaymentFallsBackToIndividualTransactions() throws Exception {
+        // Arrange
+        Payment mockPayment = mock(Payment.class);
+        doAnswer(invocation -> {
+            Payment.SubmitPaymentListener listener = (Payment.SubmitPaymentListener) invocation.getArguments()[6];
+            if (((SpendableUnspentOutputs) invocation.getArguments()[0]).getSpendableOutputs().size() > 1) {
+                listener.onFail("Consolidated transaction rejected");
+            } else {
+                listener.onSuccess("hash");
+            }
+            return null;
+        }).when(mockPayment).submitPayment(
+                any(SpendableUnspentOutputs.class),
+                anyListOf(ECKey.class),
+                anyString(),
+                anyString(),
+                any(BigInteger.class),
+                any(BigInteger.class),
+                any(Payment.SubmitPaymentListener.class));
+
+        List<PendingTransaction> pendingTransactions = new ArrayList<PendingTransaction>() {{
+            add(createPendingTransaction("address1", 1000000L));
+            add(createPendingTransaction("address2", 2000000L));
+        }};
+        when(payloadManager.savePayloadToServer()).thenReturn(true);
+        Payload mockPayload = mock(Payload.class, RETURNS_DEEP_STUBS);
+        when(mockPayload.getHdWallet().getAccounts().get(anyInt())).thenReturn(mock(Account.class));
+        when(mockPayload.isDoubleEncrypted()).thenReturn(false);
+        when(payloadManager.getPayload()).thenReturn(mockPayload);
+        // Act
+        TestObserver<String> observer = subject.sendConsolidatedPayment(mockPayment, pendingTransactions, null).test();
+        // Assert
+        observer.assertComplete();
+        observer.assertNoErrors();
+        observer.assertValues("hash", "hash");
+        verify(payloadManager, times(1)).savePayloadToServer();
+    }
+
+    @Test
+    public void getConsolidationGroupsSplitsOnSize() throws Exception {
+        // Arrange
+        // Each input adds 148 bytes
+        int maxInputs = (TransferFundsDataManager.MAX_CONSOLIDATED_TX_SIZE - FeeUtil.estimatedSize(0, 1)) / 148;
+        List<PendingTransaction> pendingTransactions = new ArrayList<>();
+        for (int i = 0; i < maxInputs + 1; i++) {
+            pendingTransactions.add(createPendingTransaction("address" + i, 100000L));
+        }
+        // Act
+        List<List<PendingTransaction>> groups = subject.getConsolidationGroups(pendingTransactions);
+        // Assert
+        assertEquals(2, groups.size());
+        assertEquals(maxInputs, groups.get(0).size());
+        assertEquals(1, groups.get(1).size());
+    }
+
+    @Test
+    public void getConsolidatedFeeLowerThanSeparateFees() throws Exception {
+        // Arrange
+        List<PendingTransaction> group = new ArrayList<PendingTransaction>() {{
+            add(createPendingTransaction("address1", 1000000L));
+            add(createPendingTransaction("address2", 2000000L));
+            add(createPendingTransaction("address3", 3000000L));
+        }};
+        BigInteger separateFees = SEPARATE_FEE.multiply(BigInteger.valueOf(3L));
+        // Act
+        BigInteger fee = TransferFundsDataManager.getConsolidatedFee(group);
+        // Assert
+        assertTrue(fee.compareTo(separateFees) < 0);
+        assertEquals(FeeUtil.estimatedFee(3, 1, FEE_PER_KB), fee);
+    }
+
+    @Test
+    public void getConsolidatedFeeSingleAddress() throws Exception {
+        // Arrange
+        List<PendingTransaction> group = new ArrayList<PendingTransaction>() {{
+            add(createPendingTransaction("address1", 1000000L));
+        }};
+        // Act
+        BigInteger fee = TransferFundsDataManager.getConsolidatedFee(group);
+        // Assert
+        assertEquals(SEPARATE_FEE, fee);
+    }
+
+    @Test
+    public void getTransferTotals() throws Exception {
+        // Arrange
+        List<PendingTransaction> pendingTransactions = new ArrayList<PendingTransaction>() {{
+            add(createPendingTransaction("address1", 1000000L));
+            add(createPendingTransaction("address2", 2000000L));
+        }};
+        // Act
+        Triple<List<PendingTransaction>, Long, Long> totals = subject.getTransferTotals(pendingTransactions);
+        // Assert
+        long fee = FeeUtil.estimatedFee(2, 1, FEE_PER_KB).longValue();
+        assertEquals(pendingTransactions, totals.getLeft());
+        assertEquals(Long.valueOf(3000000L - fee), totals.getMiddle());
+        assertEquals(Long.valueOf(fee), totals.getRight());
+        assertTrue(totals.getRight() < SEPARATE_FEE.longValue() * 2);
+    }
+
+    private static PendingTransaction createPendingTransaction(String address, long value) {
+        MyTransactionOutPoint output = mock(MyTransactionOutPoint.class);
+        when(output.getValue()).thenReturn(BigInteger.valueOf(value));
+        SpendableUnspentOutputs spendableOutputs = new SpendableUnspentOutputs();
+        spendableOutputs.setSpendableOutputs(new ArrayList<MyTransactionOutPoint>() {{
+            add(output);
+        }});
+
+        LegacyAddress legacyAddress = new LegacyAddress();
+        legacyAddress.setAddress(address);
+        PendingTransaction pendingTransaction = new PendingTransaction();
+        pendingTransaction.sendingObject = new ItemAccount("", "", null, null, legacyAddress);
+        pendingTransaction.unspentOutputBundle = spendableOutputs;
+        pendingTransaction.bigIntFee = SEPARATE_FEE;
+        pendingTransaction.bigIntAmount = BigInteger.valueOf(value).subtract(SEPARATE_FEE);
+        pendingTransaction.feePerKb = FEE_PER_KB;
+        return pendingTransaction;
+    }
+
     @Test
     public void savePayloadToServer() throws Exception {
         // Arrange
@@ -0,0 +1,136 @@
+package piuk.blockchain.android.data.send;
+
+import info.blockchain.wallet.payment.Payment;
+import info.blockchain.wallet.payment.data.SpendableUnspentOutputs;
+import info.blockchain.wallet.payment.data.SweepBundle;
+import info.blockchain.wallet.payment.data.UnspentOutputs;
+import info.blockchain.wallet.send.MyTransactionOutPoint;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CoinSelectorTest {
+
+    private static final List<BigInteger> FEES_PER_KB = Arrays.asList(
+            BigInteger.valueOf(0L),
+            BigInteger.valueOf(10000L),
+            BigInteger.valueOf(35000L),
+            BigInteger.valueOf(60000L),
+            BigInteger.valueOf(120000L),
+            BigInteger.valueOf(250000L));
+
+    private static final long[] AMOUNTS = {0L, 546L, 5000L, 12345L, 80000L, 150000L, 400000L, 10000000L};
+
+    private Payment mPayment;
+    private List<MyTransactionOutPoint> mOutputs;
+
+    @Before
+    public void setUp() throws Exception {
+        mPayment = new Payment();
+        mOutputs = new ArrayList<>();
+        for (long value : new long[]{1000L, 100000L, 20000L, 5460L, 250000L, 30L, 20000L, 75000L}) {
+            mOutputs.add(createOutput(value));
+        }
+    }
+
+    @Test
+    public void getSweepBundleMatchesPayment() throws Exception {
+        // Arrange
+        CoinSelector subject = new CoinSelector(createCoins());
+        for (BigInteger feePerKb : FEES_PER_KB) {
+            // Act
+            SweepBundle expected = mPayment.getSweepBundle(createCoins(), feePerKb);
+            SweepBundle actual = subject.getSweepBundle(feePerKb);
+            // Assert
+            assertEquals(expected.getSweepAmount(), actual.getSweepAmount());
+            assertEquals(expected.getSweepFee(), actual.getSweepFee());
+        }
+    }
+
+    @Test
+    public void getSpendableCoinsMatchesPayment() throws Exception {
+        // Arrange
+        CoinSelector subject = new CoinSelector(createCoins());
+        for (long amount : AMOUNTS) {
+            for (BigInteger feePerKb : FEES_PER_KB) {
+                // Act
+                SpendableUnspentOutputs expected = mPayment.getSpendableCoins(createCoins(), BigInteger.valueOf(amount), feePerKb);
+                SpendableUnspentOutputs actual = subject.getSpendableCoins(BigInteger.valueOf(amount), feePerKb);
+                // Assert
+                assertEquals(expected.getAbsoluteFee(), actual.getAbsoluteFee());
+                assertEquals(expected.getConsumedAmount(), actual.getConsumedAmount());
+                assertEquals(expected.getSpendableOutputs().size(), actual.getSpendableOutputs().size());
+            }
+        }
+    }
+
+    @Test
+    public void getSpendableCoinsDustChangeMatchesPayment() throws Exception {
+        // Arrange
+        // One input and one output at 10000 sat/kb is 192 bytes, a fee of 1920. Sending 97780
+        // from 100000 leaves 300 in change, which is below the 546 dust limit.
+        mOutputs.clear();
+        mOutputs.add(createOutput(100000L));
+        CoinSelector subject = new CoinSelector(createCoins());
+        BigInteger amount = BigInteger.valueOf(97780L);
+        BigInteger feePerKb = BigInteger.valueOf(10000L);
+        // Act
+        SpendableUnspentOutputs expected = mPayment.getSpendableCoins(createCoins(), amount, feePerKb);
+        SpendableUnspentOutputs actual = subject.getSpendableCoins(amount, feePerKb);
+        // Assert
+        assertEquals(BigInteger.valueOf(-300L), expected.getConsumedAmount());
+        assertEquals(expected.getConsumedAmount(), actual.getConsumedAmount());
+        assertEquals(expected.getAbsoluteFee(), actual.getAbsoluteFee());
+        assertEquals(expected.getSpendableOutputs().size(), actual.getSpendableOutputs().size());
+    }
+
+    @Test
+    public void getAbsoluteFeesMatchesPayment() throws Exception {
+        // Arrange
+        CoinSelector subject = new CoinSelector(createCoins());
+        for (long amount : AMOUNTS) {
+            // Act
+            BigInteger[] actual = subject.getAbsoluteFees(BigInteger.valueOf(amount), FEES_PER_KB);
+            // Assert
+            assertEquals(FEES_PER_KB.size(), actual.length);
+            for (int i = 0; i < actual.length; i++) {
+                SpendableUnspentOutputs expected = mPayment.getSpendableCoins(createCoins(), BigInteger.valueOf(amount), FEES_PER_KB.get(i));
+                assertEquals(expected.getAbsoluteFee(), actual[i]);
+            }
+        }
+    }
+
+    @Test
+    public void constructorDoesNotReorderCoins() throws Exception {
+        // Arrange
+        UnspentOutputs coins = createCoins();
+        List<MyTransactionOutPoint> original = new ArrayList<>(coins.getOutputs());
+        // Act
+        new CoinSelector(coins);
+        // Assert
+        assertEquals(original, coins.getOutputs());
+    }
+
+    private UnspentOutputs createCoins() {
+        BigInteger balance = BigInteger.ZERO;
+        for (MyTransactionOutPoint output : mOutputs) {
+            balance = balance.add(output.getValue());
+        }
+        return new UnspentOutputs(new ArrayList<>(mOutputs), balance, null);
+    }
+
+    private static MyTransactionOutPoint createOutput(long value) {
+        MyTransactionOutPoint output = mock(MyTransactionOutPoint.class);
+        when(output.getValue()).thenReturn(BigInteger.valueOf(value));
+        return output;
+    }
+}
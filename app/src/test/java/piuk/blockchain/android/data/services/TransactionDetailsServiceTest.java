@@ -2,31 +2,39 @@ package piuk.blockchain.android.data.services;
 
 import info.blockchain.api.TransactionDetails;
 import info.blockchain.wallet.transaction.Transaction;
+import info.blockchain.wallet.transaction.Tx;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.Arrays;
+
 import io.reactivex.observers.TestObserver;
 import piuk.blockchain.android.RxTest;
+import piuk.blockchain.android.data.cache.TransactionDetailsCache;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class TransactionDetailsServiceTest extends RxTest {
 
     private TransactionDetailsService subject;
     @Mock TransactionDetails transactionDetails;
+    @Mock TransactionDetailsCache transactionDetailsCache;
 
     @Before
     public void setUp() throws Exception {
         super.setUp();
         MockitoAnnotations.initMocks(this);
 
-        subject = new TransactionDetailsService(transactionDetails);
+        subject = new TransactionDetailsService(transactionDetails, transactionDetailsCache);
     }
 
     @Test
@@ -35,11 +43,91 @@ public class TransactionDetailsServiceTest extends RxTest {
         Transaction mockTransaction = mock(Transaction.class);
         when(transactionDetails.getTransactionDetails(anyString())).thenReturn(mockTransaction);
         // Act
-        TestObserver<Transaction> observer = subject.getTransactionDetailsFromHash("hash").test();
+        TestObserver<Transaction> observer = subject.getTransactionDetailsFromHash("hash", 0L).test();
+        // Assert
+        observer.assertComplete();
+        observer.assertNoErrors();
+        assertEquals(mockTransaction, observer.values().get(0));
+        verify(transactionDetailsCache, never()).put(any(Transaction.class));
+    }
+
+    @Test
+    public void getTransactionDetailsFromHashCached() throws Exception {
+        // Arrange
+        Transaction mockTransaction = mock(Transaction.class);
+        when(transactionDetailsCache.get("hash")).thenReturn(mockTransaction);
+        // Act
+        TestObserver<Transaction> observer = subject.getTransactionDetailsFromHash("hash", 0L).test();
         // Assert
         observer.assertComplete();
         observer.assertNoErrors();
         assertEquals(mockTransaction, observer.values().get(0));
+        verify(transactionDetails, never()).getTransactionDetails(anyString());
+    }
+
+    @Test
+    public void getTransactionDetailsFromHashConfirmed() throws Exception {
+        // Arrange
+        Transaction mockTransaction = mock(Transaction.class);
+        when(mockTransaction.getHeight()).thenReturn(450000L);
+        when(transactionDetails.getTransactionDetails(anyString())).thenReturn(mockTransaction);
+        // Act
+        TestObserver<Transaction> observer = subject.getTransactionDetailsFromHash("hash", 3L).test();
+        // Assert
+        observer.assertComplete();
+        observer.assertNoErrors();
+        verify(transactionDetailsCache).put(mockTransaction);
+        verify(transactionDetailsCache).write();
+    }
+
+    @Test
+    public void getTransactionDetailsFromHashTooFewConfirmations() throws Exception {
+        // Arrange
+        Transaction mockTransaction = mock(Transaction.class);
+        when(mockTransaction.getHeight()).thenReturn(450000L);
+        when(transactionDetails.getTransactionDetails(anyString())).thenReturn(mockTransaction);
+        // Act
+        TestObserver<Transaction> observer = subject.getTransactionDetailsFromHash("hash", 2L).test();
+        // Assert
+        observer.assertComplete();
+        observer.assertNoErrors();
+        verify(transactionDetailsCache, never()).put(any(Transaction.class));
+        verify(transactionDetailsCache, never()).write();
+    }
+
+    @Test
+    public void prefetchTransactionDetails() throws Exception {
+        // Arrange
+        Transaction confirmed = mock(Transaction.class);
+        when(confirmed.getHeight()).thenReturn(450000L);
+        Transaction unconfirmed = mock(Transaction.class);
+        when(unconfirmed.getHeight()).thenReturn(-1L);
+        when(transactionDetailsCache.contains("cached")).thenReturn(true);
+        when(transactionDetails.getTransactionDetails("confirmed")).thenReturn(confirmed);
+        when(transactionDetails.getTransactionDetails("unconfirmed")).thenReturn(unconfirmed);
+        when(transactionDetails.getTransactionDetails("failed")).thenThrow(new RuntimeException());
+        // Act
+        TestObserver<Void> observer = subject.prefetchTransactionDetails(Arrays.asList(
+                createTx("cached", 10L),
+                createTx("confirmed", 10L),
+                createTx("shallow", 2L),
+                createTx("unconfirmed", 10L),
+                createTx("failed", 10L))).test();
+        // Assert
+        observer.assertComplete();
+        observer.assertNoErrors();
+        verify(transactionDetails, never()).getTransactionDetails("cached");
+        verify(transactionDetails, never()).getTransactionDetails("shallow");
+        verify(transactionDetailsCache).put(confirmed);
+        verify(transactionDetailsCache, never()).put(unconfirmed);
+        verify(transactionDetailsCache).write();
+    }
+
+    private static Tx createTx(String hash, long confirmations) {
+        Tx tx = mock(Tx.class);
+        when(tx.getHash()).thenReturn(hash);
+        when(tx.getConfirmations()).thenReturn(confirmations);
+        return tx;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,137 @@
+package piuk.blockchain.android.data.stores;
+
+import info.blockchain.wallet.multiaddr.MultiAddrFactory;
+import info.blockchain.wallet.payload.Account;
+import info.blockchain.wallet.payload.HDWallet;
+import info.blockchain.wallet.payload.LegacyAddress;
+import info.blockchain.wallet.payload.Payload;
+import info.blockchain.wallet.payload.PayloadManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+public class AddressIndexTest {
+
+    private AddressIndex mSubject;
+    @Mock PayloadManager mPayloadManager;
+    @Mock MultiAddrFactory mMultiAddrFactory;
+    private Payload mPayload;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        mPayload = new Payload();
+        mPayload.setLegacyAddressList(new ArrayList<>());
+        when(mPayloadManager.getPayload()).thenReturn(mPayload);
+        when(mMultiAddrFactory.getAddress2Xpub()).thenReturn(new HashMap<>());
+
+        mSubject = new AddressIndex(mPayloadManager, mMultiAddrFactory);
+    }
+
+    @Test
+    public void legacyAndWatchOnlyAddresses() throws Exception {
+        // Arrange
+        mPayload.getLegacyAddressList().add(createLegacyAddress("addr0", "label0", false));
+        mPayload.getLegacyAddressList().add(createLegacyAddress("addr1", "label1", true));
+        // Act
+
+        // Assert
+        assertTrue(mSubject.isLegacyAddress("addr0"));
+        assertFalse(mSubject.isWatchOnly("addr0"));
+        assertTrue(mSubject.isLegacyAddress("addr1"));
+        assertTrue(mSubject.isWatchOnly("addr1"));
+        assertFalse(mSubject.isLegacyAddress("addr2"));
+        assertEquals("label1", mSubject.getLabel("addr1"));
+        assertNull(mSubject.getLabel("addr2"));
+    }
+
+    @Test
+    public void rebuildsWhenAddressAdded() throws Exception {
+        // Arrange
+        mPayload.getLegacyAddressList().add(createLegacyAddress("addr0", "label0", false));
+        assertFalse(mSubject.isLegacyAddress("addr1"));
+        // Act
+        mPayload.getLegacyAddressList().add(createLegacyAddress("addr1", "label1", false));
+        // Assert
+        assertTrue(mSubject.isLegacyAddress("addr1"));
+    }
+
+    @Test
+    public void rebuildsWhenAddressReplaced() throws Exception {
+        // Arrange
+        mPayload.getLegacyAddressList().add(createLegacyAddress("addr0", "label0", false));
+        mPayload.getLegacyAddressList().add(createLegacyAddress("addr1", "label1", false));
+        assertTrue(mSubject.isLegacyAddress("addr0"));
+        // Act
+        mPayload.getLegacyAddressList().remove(0);
+        mPayload.getLegacyAddressList().add(createLegacyAddress("addr2", "label2", false));
+        // Assert
+        assertFalse(mSubject.isLegacyAddress("addr0"));
+        assertTrue(mSubject.isLegacyAddress("addr1"));
+        assertTrue(mSubject.isLegacyAddress("addr2"));
+    }
+
+    @Test
+    public void rebuildsWhenPayloadReplaced() throws Exception {
+        // Arrange
+        mPayload.getLegacyAddressList().add(createLegacyAddress("addr0", "label0", false));
+        assertTrue(mSubject.isLegacyAddress("addr0"));
+        Payload payload = new Payload();
+        payload.setLegacyAddressList(new ArrayList<>());
+        // Act
+        when(mPayloadManager.getPayload()).thenReturn(payload);
+        // Assert
+        assertFalse(mSubject.isLegacyAddress("addr0"));
+    }
+
+    @Test
+    public void labelChangesAreSeenWithoutRebuilding() throws Exception {
+        // Arrange
+        LegacyAddress legacyAddress = createLegacyAddress("addr0", "label0", false);
+        mPayload.getLegacyAddressList().add(legacyAddress);
+        assertEquals("label0", mSubject.getLabel("addr0"));
+        // Act
+        legacyAddress.setLabel("renamed");
+        // Assert
+        assertEquals("renamed", mSubject.getLabel("addr0"));
+    }
+
+    @Test
+    public void accountLabelForHdAddress() throws Exception {
+        // Arrange
+        HDWallet hdWallet = new HDWallet();
+        Account account = new Account();
+        account.setXpub("xpub0");
+        account.setLabel("account");
+        hdWallet.getAccounts().add(account);
+        mPayload.setHdWallets(hdWallet);
+        HashMap<String, String> addressToXpub = new HashMap<>();
+        addressToXpub.put("addr0", "xpub0");
+        when(mMultiAddrFactory.getAddress2Xpub()).thenReturn(addressToXpub);
+        when(mMultiAddrFactory.isOwnHDAddress("addr0")).thenReturn(true);
+        // Act
+        String value = mSubject.getLabel("addr0");
+        // Assert
+        assertEquals("account", value);
+        assertEquals(account, mSubject.getAccount("addr0"));
+    }
+
+    private LegacyAddress createLegacyAddress(String address, String label, boolean watchOnly) {
+        LegacyAddress legacyAddress = new LegacyAddress();
+        legacyAddress.setAddress(address);
+        legacyAddress.setLabel(label);
+        legacyAddress.setWatchOnly(watchOnly);
+        return legacyAddress;
+    }
+}
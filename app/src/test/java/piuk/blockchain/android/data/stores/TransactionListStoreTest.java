@@ -0,0 +1,225 @@
+package piuk.blockchain.android.data.stores;
+
+import info.blockchain.wallet.transaction.Tx;
+import info.blockchain.wallet.transaction.TxMostRecentDateComparator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TransactionListStoreTest {
+
+    private TransactionListStore mSubject;
+
+    @Before
+    public void setUp() throws Exception {
+        mSubject = new TransactionListStore();
+    }
+
+    @Test
+    public void insertTransactionIntoListAndSort() throws Exception {
+        // Arrange
+        Tx tx0 = createTx("hash0", 0L);
+        Tx tx1 = createTx("hash1", 500L);
+        Tx tx2 = createTx("hash2", 1000L);
+        mSubject.insertTransactions(Arrays.asList(tx0, tx2));
+        // Act
+        mSubject.insertTransactionIntoListAndSort(tx1);
+        // Assert
+        List<Tx> value = mSubject.getList();
+        assertEquals(3, value.size());
+        assertEquals(tx2, value.get(0));
+        assertEquals(tx1, value.get(1));
+        assertEquals(tx0, value.get(2));
+    }
+
+    @Test
+    public void insertOrUpdateTransactionReplacesExistingHash() throws Exception {
+        // Arrange
+        Tx original = createTx("hash0", 500L);
+        Tx updated = createTx("hash0", 500L);
+        updated.setConfirmations(6L);
+        mSubject.insertTransactions(Arrays.asList(createTx("hash1", 1000L), original, createTx("hash2", 0L)));
+        // Act
+        mSubject.insertOrUpdateTransaction(updated);
+        // Assert
+        assertEquals(3, mSubject.getList().size());
+        assertEquals(updated, mSubject.getList().get(1));
+        assertEquals(updated, mSubject.getTransaction("hash0"));
+    }
+
+    @Test
+    public void insertOrUpdateTransactionMovesOnTimestampChange() throws Exception {
+        // Arrange
+        Tx original = createTx("hash0", 0L);
+        Tx updated = createTx("hash0", 2000L);
+        mSubject.insertTransactions(Arrays.asList(createTx("hash1", 1000L), original));
+        // Act
+        mSubject.insertOrUpdateTransaction(updated);
+        // Assert
+        assertEquals(2, mSubject.getList().size());
+        assertEquals(updated, mSubject.getList().get(0));
+    }
+
+    @Test
+    public void insertTransactionsMergesAndDeduplicates() throws Exception {
+        // Arrange
+        Tx tx0 = createTx("hash0", 0L);
+        Tx tx1 = createTx("hash1", 500L);
+        Tx tx2 = createTx("hash2", 1000L);
+        Tx tx3 = createTx("hash3", 1500L);
+        mSubject.insertTransactions(Arrays.asList(tx2, tx0));
+        // Act
+        mSubject.insertTransactions(Arrays.asList(tx1, tx3, tx1, tx0));
+        // Assert
+        List<Tx> value = mSubject.getList();
+        assertEquals(4, value.size());
+        assertEquals(tx3, value.get(0));
+        assertEquals(tx2, value.get(1));
+        assertEquals(tx1, value.get(2));
+        assertEquals(tx0, value.get(3));
+    }
+
+    @Test
+    public void removeTransaction() throws Exception {
+        // Arrange
+        Tx tx0 = createTx("hash0", 0L);
+        Tx tx1 = createTx("hash1", 0L);
+        mSubject.insertTransactions(Arrays.asList(tx0, tx1));
+        // Act
+        Tx value = mSubject.removeTransaction("hash1");
+        // Assert
+        assertEquals(tx1, value);
+        assertEquals(1, mSubject.getList().size());
+        assertEquals(tx0, mSubject.getList().get(0));
+        assertNull(mSubject.removeTransaction("hash1"));
+    }
+
+    @Test
+    public void clearList() throws Exception {
+        // Arrange
+        mSubject.insertTransactionIntoListAndSort(createTx("hash0", 0L));
+        // Act
+        mSubject.clearList();
+        // Assert
+        assertTrue(mSubject.getList().isEmpty());
+        assertNull(mSubject.getTransaction("hash0"));
+    }
+
+    @Test
+    public void sortIsNoOpForDefaultComparator() throws Exception {
+        // Arrange
+        Tx tx0 = createTx("hash0", 0L);
+        Tx tx1 = createTx("hash1", 1000L);
+        mSubject.insertTransactions(Arrays.asList(tx0, tx1));
+        // Act
+        mSubject.sort(new TxMostRecentDateComparator());
+        // Assert
+        assertEquals(tx1, mSubject.getList().get(0));
+        assertEquals(tx0, mSubject.getList().get(1));
+    }
+
+    @Test
+    public void mergeTransactions() throws Exception {
+        // Arrange
+        Tx tx0 = createTx("hash0", 0L);
+        Tx tx1 = createTx("hash1", 500L);
+        Tx tx2 = createTx("hash2", 1000L);
+        mSubject.insertTransactions(Arrays.asList(tx0, tx1, tx2));
+        Tx updated = createTx("hash1", 500L);
+        updated.setConfirmations(3L);
+        Tx tx3 = createTx("hash3", 1500L);
+        List<Tx> mirror = new ArrayList<>(mSubject.getList());
+        // Act
+        TransactionListDelta value = mSubject.mergeTransactions(Arrays.asList(tx3, updated, tx0));
+        // Assert
+        assertFalse(value.isReset());
+        assertEquals(Collections.singletonList(tx3), value.getInserted());
+        assertEquals(Collections.singletonList(updated), value.getChanged());
+        assertEquals(Collections.singletonList(tx2), value.getRemoved());
+        assertEquals(0, value.getSizeChange());
+        assertEquals(Arrays.asList(tx3, updated, tx0), mSubject.getList());
+
+        List<Tx> after = mSubject.getList();
+        value.dispatchUpdatesTo(new TransactionListDelta.UpdateCallback() {
+            @Override
+            public void onInserted(int position) {
+                mirror.add(position, after.get(position));
+            }
+
+            @Override
+            public void onRemoved(int position) {
+                mirror.remove(position);
+            }
+
+            @Override
+            public void onChanged(int position) {
+                mirror.set(position, mSubject.getTransaction(mirror.get(position).getHash()));
+            }
+        });
+        assertEquals(after, mirror);
+    }
+
+    @Test
+    public void mergeTransactionsWindowed() throws Exception {
+        // Arrange
+        Tx tx0 = createTx("hash0", 0L);
+        Tx tx1 = createTx("hash1", 500L);
+        Tx tx2 = createTx("hash2", 1000L);
+        mSubject.insertTransactions(Arrays.asList(tx0, tx1, tx2));
+        Tx tx3 = createTx("hash3", 1500L);
+        List<Integer> inserted = new ArrayList<>();
+        List<Integer> removed = new ArrayList<>();
+        // Act
+        TransactionListDelta value = mSubject.mergeTransactions(Arrays.asList(tx3, tx2, tx1));
+        int windowSize = value.dispatchUpdatesTo(new TransactionListDelta.UpdateCallback() {
+            @Override
+            public void onInserted(int position) {
+                inserted.add(position);
+            }
+
+            @Override
+            public void onRemoved(int position) {
+                removed.add(position);
+            }
+
+            @Override
+            public void onChanged(int position) {
+                // No-op
+            }
+        }, 2);
+        // Assert
+        assertEquals(Collections.singletonList(0), inserted);
+        assertTrue(removed.isEmpty());
+        assertEquals(3, windowSize);
+        assertEquals(3, value.getWindowSizeAfter(2));
+    }
+
+    @Test
+    public void mergeTransactionsUnchanged() throws Exception {
+        // Arrange
+        Tx tx0 = createTx("hash0", 0L);
+        Tx tx1 = createTx("hash1", 500L);
+        mSubject.insertTransactions(Arrays.asList(tx0, tx1));
+        // Act
+        TransactionListDelta value = mSubject.mergeTransactions(
+                Arrays.asList(createTx("hash0", 0L), createTx("hash1", 500L)));
+        // Assert
+        assertTrue(value.isEmpty());
+        assertEquals(2, mSubject.getList().size());
+    }
+
+    private Tx createTx(String hash, long timestamp) {
+        return new Tx(hash, "", "", 0D, timestamp, new HashMap<>());
+    }
+}
@@ -0,0 +1,101 @@
+package piuk.blockchain.android.data.websocket;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReconnectionBackoffTest {
+
+    private static final long INITIAL_DELAY_MS = 1000L;
+    private static final long MAX_DELAY_MS = 16000L;
+
+    @Test
+    public void nextDelayDoubles() throws Exception {
+        // Arrange
+        // Always the top of the range, so each delay is the full backoff
+        ReconnectionBackoff subject = new ReconnectionBackoff(INITIAL_DELAY_MS, MAX_DELAY_MS, new FixedRandom(1.0));
+        // Act
+        long first = subject.nextDelay();
+        long second = subject.nextDelay();
+        long third = subject.nextDelay();
+        // Assert
+        assertEquals(1000L, first);
+        assertEquals(2000L, second);
+        assertEquals(4000L, third);
+        assertEquals(3, subject.getAttempts());
+    }
+
+    @Test
+    public void nextDelayIsCapped() throws Exception {
+        // Arrange
+        ReconnectionBackoff subject = new ReconnectionBackoff(INITIAL_DELAY_MS, MAX_DELAY_MS, new FixedRandom(1.0));
+        for (int i = 0; i < 5; i++) {
+            subject.nextDelay();
+        }
+        // Act
+        long delay = subject.nextDelay();
+        long nextDelay = subject.nextDelay();
+        // Assert
+        assertEquals(MAX_DELAY_MS, delay);
+        assertEquals(MAX_DELAY_MS, nextDelay);
+    }
+
+    @Test
+    public void nextDelayJitterRange() throws Exception {
+        // Arrange
+        ReconnectionBackoff lowest = new ReconnectionBackoff(INITIAL_DELAY_MS, MAX_DELAY_MS, new FixedRandom(0.0));
+        ReconnectionBackoff highest = new ReconnectionBackoff(INITIAL_DELAY_MS, MAX_DELAY_MS, new FixedRandom(1.0));
+        ReconnectionBackoff random = new ReconnectionBackoff(INITIAL_DELAY_MS, MAX_DELAY_MS, new Random(42L));
+        // Act
+        long lowestDelay = lowest.nextDelay();
+        long highestDelay = highest.nextDelay();
+        // Assert
+        // Drawn from the upper half of the current backoff
+        assertEquals(INITIAL_DELAY_MS / 2, lowestDelay);
+        assertEquals(INITIAL_DELAY_MS, highestDelay);
+        long backoff = INITIAL_DELAY_MS;
+        for (int i = 0; i < 10; i++) {
+            long delay = random.nextDelay();
+            assertTrue(delay >= backoff / 2);
+            assertTrue(delay <= backoff);
+            backoff = Math.min(backoff * 2, MAX_DELAY_MS);
+        }
+    }
+
+    @Test
+    public void reset() throws Exception {
+        // Arrange
+        ReconnectionBackoff subject = new ReconnectionBackoff(INITIAL_DELAY_MS, MAX_DELAY_MS, new FixedRandom(1.0));
+        subject.nextDelay();
+        subject.nextDelay();
+        subject.nextDelay();
+        // Act
+        subject.reset();
+        // Assert
+        assertEquals(0, subject.getAttempts());
+        assertEquals(INITIAL_DELAY_MS, subject.nextDelay());
+        assertEquals(1, subject.getAttempts());
+    }
+
+    /**
+     * Returns the same value from every call to {@link #nextDouble()}. A value of 1.0, which {@link
+     * Random} never returns, is used to reach the top of the jitter range.
+     */
+    private static class FixedRandom extends Random {
+
+        private final double value;
+
+        FixedRandom(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public double nextDouble() {
+            return value;
+        }
+    }
+
+}
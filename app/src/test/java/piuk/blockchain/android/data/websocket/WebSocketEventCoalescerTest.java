@@ -0,0 +1,123 @@
+package piuk.blockchain.android.data.websocket;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.schedulers.TestScheduler;
+
+import static org.junit.Assert.assertEquals;
+
+public class WebSocketEventCoalescerTest {
+
+    private static final long WINDOW_MS = 750L;
+
+    private WebSocketEventCoalescer subject;
+    private TestScheduler scheduler;
+    private int refreshes;
+    // Run during the next refresh, to simulate events arriving while it's running
+    private Runnable duringRefresh;
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = new TestScheduler();
+        subject = new WebSocketEventCoalescer(() -> {
+            refreshes++;
+            if (duringRefresh != null) {
+                Runnable action = duringRefresh;
+                duringRefresh = null;
+                action.run();
+            }
+        }, WINDOW_MS, scheduler);
+    }
+
+    @Test
+    public void onEventCoalescesBurst() throws Exception {
+        // Act
+        subject.onEvent();
+        scheduler.advanceTimeBy(100L, TimeUnit.MILLISECONDS);
+        subject.onEvent();
+        subject.onEvent();
+        scheduler.advanceTimeBy(WINDOW_MS - 101L, TimeUnit.MILLISECONDS);
+        int refreshesBeforeWindow = refreshes;
+        scheduler.advanceTimeBy(1L, TimeUnit.MILLISECONDS);
+        // Assert
+        assertEquals(0, refreshesBeforeWindow);
+        assertEquals(1, refreshes);
+        assertEquals(3L, subject.getEventsReceived());
+        assertEquals(1L, subject.getRefreshesPerformed());
+    }
+
+    @Test
+    public void onEventAfterRefreshSchedulesAnother() throws Exception {
+        // Arrange
+        subject.onEvent();
+        scheduler.advanceTimeBy(WINDOW_MS, TimeUnit.MILLISECONDS);
+        // Act
+        subject.onEvent();
+        scheduler.advanceTimeBy(WINDOW_MS, TimeUnit.MILLISECONDS);
+        // Assert
+        assertEquals(2, refreshes);
+        assertEquals(2L, subject.getRefreshesPerformed());
+    }
+
+    @Test
+    public void onEventWhileRunningRefreshesOnceMore() throws Exception {
+        // Arrange
+        duringRefresh = () -> {
+            subject.onEvent();
+            subject.onEvent();
+        };
+        // Act
+        subject.onEvent();
+        scheduler.advanceTimeBy(WINDOW_MS, TimeUnit.MILLISECONDS);
+        int refreshesAfterFirstWindow = refreshes;
+        scheduler.advanceTimeBy(WINDOW_MS, TimeUnit.MILLISECONDS);
+        scheduler.advanceTimeBy(WINDOW_MS * 10, TimeUnit.MILLISECONDS);
+        // Assert
+        // The events during the first refresh are served by exactly one more, after another window
+        assertEquals(1, refreshesAfterFirstWindow);
+        assertEquals(2, refreshes);
+        assertEquals(3L, subject.getEventsReceived());
+        assertEquals(2L, subject.getRefreshesPerformed());
+    }
+
+    @Test
+    public void cancelDropsPendingRefresh() throws Exception {
+        // Arrange
+        subject.onEvent();
+        // Act
+        subject.cancel();
+        scheduler.advanceTimeBy(WINDOW_MS * 10, TimeUnit.MILLISECONDS);
+        // Assert
+        assertEquals(0, refreshes);
+    }
+
+    @Test
+    public void cancelWhileRunningDropsFollowingRefresh() throws Exception {
+        // Arrange
+        duringRefresh = () -> {
+            subject.onEvent();
+            subject.cancel();
+        };
+        // Act
+        subject.onEvent();
+        scheduler.advanceTimeBy(WINDOW_MS * 10, TimeUnit.MILLISECONDS);
+        // Assert
+        assertEquals(1, refreshes);
+    }
+
+    @Test
+    public void onEventAfterCancelSchedulesRefresh() throws Exception {
+        // Arrange
+        subject.onEvent();
+        subject.cancel();
+        // Act
+        subject.onEvent();
+        scheduler.advanceTimeBy(WINDOW_MS, TimeUnit.MILLISECONDS);
+        // Assert
+        assertEquals(1, refreshes);
+    }
+
+}
@@ -0,0 +1,158 @@
+package piuk.blockchain.android.data.websocket;
+
+import info.blockchain.api.Balance;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.when;
+
+public class WebSocketGapDetectorTest {
+
+    private WebSocketGapDetector subject;
+    // The transaction counts the mocked balance endpoint reports
+    private Map<String, Long> serverCounts = new HashMap<>();
+    @Mock Balance balanceApi;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        when(balanceApi.getBalance(anyListOf(String.class))).thenAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            List<String> batch = (List<String>) invocation.getArguments()[0];
+            return createResponse(batch);
+        });
+
+        subject = new WebSocketGapDetector(balanceApi);
+    }
+
+    @Test
+    public void checkpointFirstReturnsEmpty() throws Exception {
+        // Arrange
+        serverCounts.put("xpub1", 5L);
+        serverCounts.put("addr1", 2L);
+        assertFalse(subject.hasCheckpoint());
+        // Act
+        Set<String> changed = subject.checkpoint(Arrays.asList("xpub1", "addr1"));
+        // Assert
+        assertTrue(changed.isEmpty());
+        assertTrue(subject.hasCheckpoint());
+    }
+
+    @Test
+    public void checkpointReportsChangedCount() throws Exception {
+        // Arrange
+        serverCounts.put("xpub1", 5L);
+        serverCounts.put("addr1", 2L);
+        subject.checkpoint(Arrays.asList("xpub1", "addr1"));
+        // A transaction is missed whilst disconnected
+        serverCounts.put("addr1", 3L);
+        // Act
+        Set<String> changed = subject.checkpoint(Arrays.asList("xpub1", "addr1"));
+        // Assert
+        assertEquals(Collections.singleton("addr1"), changed);
+    }
+
+    @Test
+    public void onTransactionSuppressesFalsePositive() throws Exception {
+        // Arrange
+        serverCounts.put("xpub1", 5L);
+        serverCounts.put("addr1", 2L);
+        subject.checkpoint(Arrays.asList("xpub1", "addr1"));
+        // A transaction is received live
+        serverCounts.put("xpub1", 6L);
+        subject.onTransaction(Collections.singleton("xpub1"));
+        // Act
+        Set<String> changed = subject.checkpoint(Arrays.asList("xpub1", "addr1"));
+        // Assert
+        assertTrue(changed.isEmpty());
+    }
+
+    @Test
+    public void checkpointFailedBatchKeepsPreviousCheckpoint() throws Exception {
+        // Arrange
+        List<String> subscriptions = createSubscriptions(30);
+        subject.checkpoint(subscriptions);
+        serverCounts.put("addr0", 2L);
+        serverCounts.put("addr25", 2L);
+        // The second batch fails
+        doThrow(new Exception()).when(balanceApi).getBalance(subscriptions.subList(20, 30));
+        // Act
+        Exception error = null;
+        try {
+            subject.checkpoint(subscriptions);
+        } catch (Exception e) {
+            error = e;
+        }
+        doReturn(createResponse(subscriptions.subList(20, 30))).when(balanceApi).getBalance(subscriptions.subList(20, 30));
+        Set<String> changed = subject.checkpoint(subscriptions);
+        // Assert
+        assertNotNull(error);
+        // Both changes are still measured against the checkpoint made before the failure
+        assertEquals(new HashSet<>(Arrays.asList("addr0", "addr25")), changed);
+    }
+
+    @Test
+    public void onTransactionDuringCheckpointIsKept() throws Exception {
+        // Arrange
+        List<String> subscriptions = createSubscriptions(30);
+        subject.checkpoint(subscriptions);
+        // Whilst the second batch is fetched, a transaction arrives for each batch. The first
+        // batch's count has already been fetched without it, the second's includes it
+        doAnswer(invocation -> {
+            serverCounts.put("addr0", 2L);
+            serverCounts.put("addr25", 2L);
+            subject.onTransaction(Arrays.asList("addr0", "addr25"));
+            return createResponse(subscriptions.subList(20, 30));
+        }).when(balanceApi).getBalance(subscriptions.subList(20, 30));
+        Set<String> duringFetch = subject.checkpoint(subscriptions);
+        doReturn(createResponse(subscriptions.subList(20, 30))).when(balanceApi).getBalance(subscriptions.subList(20, 30));
+        // Act
+        Set<String> changed = subject.checkpoint(subscriptions);
+        // Assert
+        assertTrue(duringFetch.isEmpty());
+        assertTrue(changed.isEmpty());
+    }
+
+    private List<String> createSubscriptions(int count) {
+        List<String> subscriptions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            subscriptions.add("addr" + i);
+            serverCounts.put("addr" + i, 1L);
+        }
+        return subscriptions;
+    }
+
+    private JSONObject createResponse(List<String> batch) throws Exception {
+        JSONObject response = new JSONObject();
+        for (String key : batch) {
+            JSONObject summary = new JSONObject();
+            summary.put("final_balance", 0L);
+            summary.put("n_tx", serverCounts.get(key));
+            summary.put("total_received", 0L);
+            response.put(key, summary);
+        }
+        return response;
+    }
+}
@@ -0,0 +1,118 @@
+package piuk.blockchain.android.data.websocket;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class WebSocketMessageTest {
+
+    @Test
+    public void parseUtx() throws Exception {
+        // Arrange
+        String message = "{\"op\":\"utx\",\"x\":{"
+                + "\"hash\":\"abc\","
+                + "\"inputs\":[{\"sequence\":1,\"prev_out\":{\"value\":1000,\"addr\":\"addr1\","
+                + "\"xpub\":{\"m\":\"xpub1\",\"path\":\"M/0/1\"}}},"
+                + "{\"prev_out\":{\"value\":2000,\"addr\":\"addr2\"}}],"
+                + "\"out\":[{\"value\":2500,\"addr\":\"addr3\"},"
+                + "{\"value\":400,\"addr\":\"addr4\",\"xpub\":{\"m\":\"xpub1\",\"path\":\"M/1/0\"}}]}}";
+        // Act
+        WebSocketMessage result = WebSocketMessage.parse(message);
+        // Assert
+        assertEquals(WebSocketMessage.OP_UTX, result.op);
+        assertNull(result.checksum);
+        assertEquals(2, result.inputs.size());
+        assertEquals(1000L, result.inputs.get(0).value);
+        assertEquals("addr1", result.inputs.get(0).addr);
+        assertEquals("xpub1", result.inputs.get(0).xpub);
+        assertEquals(2000L, result.inputs.get(1).value);
+        assertEquals("addr2", result.inputs.get(1).addr);
+        assertNull(result.inputs.get(1).xpub);
+        assertEquals(2, result.outputs.size());
+        assertEquals(2500L, result.outputs.get(0).value);
+        assertEquals("addr3", result.outputs.get(0).addr);
+        assertNull(result.outputs.get(0).xpub);
+        assertEquals(400L, result.outputs.get(1).value);
+        assertEquals("addr4", result.outputs.get(1).addr);
+        assertEquals("xpub1", result.outputs.get(1).xpub);
+    }
+
+    @Test
+    public void parseXpubWithoutM() throws Exception {
+        // Arrange
+        String message = "{\"op\":\"utx\",\"x\":{\"out\":[{\"value\":400,\"xpub\":{\"path\":\"M/1/0\"}}]}}";
+        // Act
+        WebSocketMessage result = WebSocketMessage.parse(message);
+        // Assert
+        assertEquals(1, result.outputs.size());
+        assertEquals(400L, result.outputs.get(0).value);
+        assertNull(result.outputs.get(0).xpub);
+    }
+
+    @Test
+    public void parseOnChangeWithChecksum() throws Exception {
+        // Arrange
+        String message = "{\"op\":\"on_change\",\"checksum\":\"0123abcd\"}";
+        // Act
+        WebSocketMessage result = WebSocketMessage.parse(message);
+        // Assert
+        assertEquals(WebSocketMessage.OP_ON_CHANGE, result.op);
+        assertEquals("0123abcd", result.checksum);
+        assertNull(result.inputs);
+        assertNull(result.outputs);
+    }
+
+    @Test
+    public void parseOnChangeWithoutChecksum() throws Exception {
+        // Arrange
+        String message = "{\"op\":\"on_change\"}";
+        // Act
+        WebSocketMessage result = WebSocketMessage.parse(message);
+        // Assert
+        assertEquals(WebSocketMessage.OP_ON_CHANGE, result.op);
+        assertNull(result.checksum);
+    }
+
+    @Test
+    public void parseSkipsUnknownFields() throws Exception {
+        // Arrange
+        String message = "{\"extra\":{\"op\":\"block\",\"nested\":[{\"checksum\":\"wrong\"}]},"
+                + "\"op\":\"utx\","
+                + "\"x\":{\"unknown\":{\"inputs\":[1,2]},"
+                + "\"inputs\":[{\"witness\":[{\"value\":9}],\"prev_out\":{\"value\":1000,\"spent\":true,"
+                + "\"script\":{\"value\":5},\"addr\":\"addr1\"}}],"
+                + "\"out\":[{\"value\":900,\"n\":0,\"tags\":[\"a\",{\"addr\":\"wrong\"}],\"addr\":\"addr2\"}],"
+                + "\"size\":225},"
+                + "\"trailing\":[true,null,1.5]}";
+        // Act
+        WebSocketMessage result = WebSocketMessage.parse(message);
+        // Assert
+        assertEquals(WebSocketMessage.OP_UTX, result.op);
+        assertNull(result.checksum);
+        assertEquals(1, result.inputs.size());
+        assertEquals(1000L, result.inputs.get(0).value);
+        assertEquals("addr1", result.inputs.get(0).addr);
+        assertEquals(1, result.outputs.size());
+        assertEquals(900L, result.outputs.get(0).value);
+        assertEquals("addr2", result.outputs.get(0).addr);
+    }
+
+    @Test(expected = IOException.class)
+    public void parseNotJson() throws Exception {
+        WebSocketMessage.parse("not json");
+    }
+
+    @Test(expected = IOException.class)
+    public void parseNotObject() throws Exception {
+        WebSocketMessage.parse("[{\"op\":\"utx\"}]");
+    }
+
+    @Test(expected = IOException.class)
+    public void parseTruncated() throws Exception {
+        WebSocketMessage.parse("{\"op\":\"utx\",\"x\":{\"out\":[{\"value\":1");
+    }
+
+}
@@ -96,11 +96,12 @@ public class ConfirmFundsTransferViewModelTest {
            add(transaction);
         }};
         Triple triple = Triple.of(transactions, 100000000L, 10000L);
-        when(mFundsDataManager.getTransferableFundTransactionList(0)).thenReturn(Observable.just(triple));
+        when(mFundsDataManager.getTransferableFundTransactionUpdates(0)).thenReturn(Observable.just(triple));
         // Act
         mSubject.onViewReady();
         // Assert
         verify(mActivity).setPaymentButtonEnabled(false);
+        verify(mActivity).setPaymentButtonEnabled(true);
         assertEquals(2, mSubject.mPendingTransactions.size());
     }
 
@@ -116,7 +117,7 @@ public class ConfirmFundsTransferViewModelTest {
             add(account1);
             add(account2);
         }});
-        when(mFundsDataManager.getTransferableFundTransactionList(1)).thenReturn(Observable.error(new Throwable()));
+        when(mFundsDataManager.getTransferableFundTransactionUpdates(1)).thenReturn(Observable.error(new Throwable()));
         // Act
         mSubject.accountSelected(0);
         // Assert
@@ -143,7 +144,6 @@ public class ConfirmFundsTransferViewModelTest {
         verify(mActivity).updateTransferAmountFiat("$100.00");
         verify(mActivity).updateFeeAmountBtc("0.0001 BTC");
         verify(mActivity).updateFeeAmountFiat("$0.01");
-        verify(mActivity).setPaymentButtonEnabled(true);
         verify(mActivity).onUiUpdated();
         verifyNoMoreInteractions(mActivity);
     }
@@ -151,7 +151,7 @@ public class ConfirmFundsTransferViewModelTest {
     @Test
     public void sendPaymentAndArchive() throws Exception {
         // Arrange
-        when(mFundsDataManager.sendPayment(any(Payment.class), anyListOf(PendingTransaction.class), any(CharSequenceX.class))).thenReturn(Observable.just("hash"));
+        when(mFundsDataManager.sendConsolidatedPayment(any(Payment.class), anyListOf(PendingTransaction.class), any(CharSequenceX.class))).thenReturn(Observable.just("hash"));
         when(mActivity.getIfArchiveChecked()).thenReturn(true);
         PendingTransaction transaction = new PendingTransaction();
         transaction.sendingObject = new ItemAccount("", "", null, null, null);
@@ -176,7 +176,7 @@ public class ConfirmFundsTransferViewModelTest {
     @Test
     public void sendPaymentNoArchive() throws Exception {
         // Arrange
-        when(mFundsDataManager.sendPayment(any(Payment.class), anyListOf(PendingTransaction.class), any(CharSequenceX.class))).thenReturn(Observable.just("hash"));
+        when(mFundsDataManager.sendConsolidatedPayment(any(Payment.class), anyListOf(PendingTransaction.class), any(CharSequenceX.class))).thenReturn(Observable.just("hash"));
         when(mActivity.getIfArchiveChecked()).thenReturn(false);
         // Act
         mSubject.sendPayment(new CharSequenceX("password"));
@@ -194,7 +194,7 @@ public class ConfirmFundsTransferViewModelTest {
     @Test
     public void sendPaymentError() throws Exception {
         // Arrange
-        when(mFundsDataManager.sendPayment(any(Payment.class), anyListOf(PendingTransaction.class), any(CharSequenceX.class))).thenReturn(Observable.error(new Throwable()));
+        when(mFundsDataManager.sendConsolidatedPayment(any(Payment.class), anyListOf(PendingTransaction.class), any(CharSequenceX.class))).thenReturn(Observable.error(new Throwable()));
         when(mActivity.getIfArchiveChecked()).thenReturn(false);
         // Act
         mSubject.sendPayment(new CharSequenceX("password"));
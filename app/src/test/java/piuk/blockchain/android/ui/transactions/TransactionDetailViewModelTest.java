@@ -22,11 +22,16 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 
+import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.reactivex.observers.TestObserver;
 import piuk.blockchain.android.R;
 import piuk.blockchain.android.RxTest;
+import piuk.blockchain.android.data.cache.TransactionDetailsCache;
+import piuk.blockchain.android.data.cache.TransactionListCache;
 import piuk.blockchain.android.data.datamanagers.TransactionListDataManager;
+import piuk.blockchain.android.data.stores.AddressIndex;
+import piuk.blockchain.android.data.stores.BalanceIndex;
 import piuk.blockchain.android.data.stores.TransactionListStore;
 import piuk.blockchain.android.injection.ApiModule;
 import piuk.blockchain.android.injection.ApplicationModule;
@@ -44,6 +49,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyList;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
@@ -79,6 +85,7 @@ public class TransactionDetailViewModelTest extends RxTest {
 
         when(mPrefsUtil.getValue(PrefsUtil.KEY_BTC_UNITS, MonetaryUtil.UNIT_BTC)).thenReturn(MonetaryUtil.UNIT_BTC);
         when(mPrefsUtil.getValue(PrefsUtil.KEY_SELECTED_FIAT, PrefsUtil.DEFAULT_CURRENCY)).thenReturn(PrefsUtil.DEFAULT_CURRENCY);
+        when(mExchangeRateFactory.prefetchHistoricPrices(anyString(), anyList())).thenReturn(Completable.complete());
 
         InjectorTestUtils.initApplicationComponent(
                 Injector.getInstance(),
@@ -149,7 +156,7 @@ public class TransactionDetailViewModelTest extends RxTest {
         when(mPayloadManager.getPayload()).thenReturn(mockPayload);
         when(mTransactionListDataManager.getTransactionList()).thenReturn(mTxList);
         when(mStringUtils.getString(R.string.transaction_detail_pending)).thenReturn("Pending (%1$s/%2$s Confirmations)");
-        when(mTransactionListDataManager.getTransactionFromHash(anyString())).thenReturn(Observable.error(new Throwable()));
+        when(mTransactionListDataManager.getTransactionFromHash(anyString(), anyLong())).thenReturn(Observable.error(new Throwable()));
         double price = 1000.00D;
         when(mExchangeRateFactory.getHistoricPrice(anyLong(), anyString(), anyLong())).thenReturn(Observable.just(price));
         when(mStringUtils.getString(R.string.transaction_detail_value_at_time_transferred)).thenReturn("Value when moved: ");
@@ -183,7 +190,7 @@ public class TransactionDetailViewModelTest extends RxTest {
         when(mPayloadManager.getPayload()).thenReturn(mockPayload);
         when(mTransactionListDataManager.getTransactionList()).thenReturn(mTxList);
         when(mStringUtils.getString(R.string.transaction_detail_pending)).thenReturn("Pending (%1$s/%2$s Confirmations)");
-        when(mTransactionListDataManager.getTransactionFromHash(anyString())).thenReturn(Observable.just(mockTransaction));
+        when(mTransactionListDataManager.getTransactionFromHash(anyString(), anyLong())).thenReturn(Observable.just(mockTransaction));
         HashMap<String, Long> inputs = new HashMap<>();
         HashMap<String, Long> outputs = new HashMap<>();
         inputs.put("addr1", 1000L);
@@ -212,6 +219,7 @@ public class TransactionDetailViewModelTest extends RxTest {
         verify(mActivity).setTransactionValueFiat(anyString());
         verify(mActivity).onDataLoaded();
         verify(mActivity).setIsDoubleSpend(anyBoolean());
+        verify(mExchangeRateFactory).prefetchHistoricPrices("USD", mTxList);
         verifyNoMoreInteractions(mActivity);
     }
 
@@ -431,12 +439,12 @@ public class TransactionDetailViewModelTest extends RxTest {
 
     private class MockDataManagerModule extends DataManagerModule {
         @Override
-        protected TransactionListDataManager provideTransactionListDataManager(PayloadManager payloadManager, TransactionListStore transactionListStore) {
+        protected TransactionListDataManager provideTransactionListDataManager(PayloadManager payloadManager, TransactionListStore transactionListStore, BalanceIndex balanceIndex, TransactionDetailsCache transactionDetailsCache, TransactionListCache transactionListCache) {
             return mTransactionListDataManager;
         }
 
         @Override
-        protected TransactionHelper provideTransactionHelper(PayloadManager payloadManager, MultiAddrFactory multiAddrFactory) {
+        protected TransactionHelper provideTransactionHelper(MultiAddrFactory multiAddrFactory, AddressIndex addressIndex) {
             return mTransactionHelper;
         }
     }
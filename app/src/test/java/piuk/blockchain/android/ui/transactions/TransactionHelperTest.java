@@ -13,7 +13,6 @@ import info.blockchain.wallet.transaction.Transaction;
 import info.blockchain.wallet.transaction.Tx;
 
 import org.junit.Before;
-import org.junit.Ignore;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -22,6 +21,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
+import piuk.blockchain.android.data.stores.AddressIndex;
+
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
@@ -36,7 +37,7 @@ public class TransactionHelperTest {
     @Before
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
-        mSubject = new TransactionHelper(mPayloadManager, multiAddrFactory);
+        mSubject = new TransactionHelper(multiAddrFactory, new AddressIndex(mPayloadManager, multiAddrFactory));
     }
 
     @Test
@@ -62,17 +63,15 @@ public class TransactionHelperTest {
     }
 
     @Test
-    @Ignore
-    // TODO: 21/10/2016 I broke this test. Needs fixing
     public void addressToLabelIsOwnHd() throws Exception {
         // Arrange
         HDWallet hdWallet = new HDWallet();
         Account account = new Account();
         account.setLabel("label");
+        account.setXpub("value");
         hdWallet.getAccounts().add(account);
         Payload payload = new Payload();
         payload.setHdWallets(hdWallet);
-//        payload.getXpub2Account().put("value", 0);
         when(mPayloadManager.getPayload()).thenReturn(payload);
         when(multiAddrFactory.isOwnHDAddress(anyString())).thenReturn(true);
         HashMap<String, String> hashmap = new HashMap<>();
@@ -193,15 +192,12 @@ public class TransactionHelperTest {
         when(transaction.getOutputs()).thenReturn(outputs);
 
         Payload mockPayload = mock(Payload.class);
-        List<String> legacyStrings = new ArrayList<String>() {{
-            add("addr0");
-            add("addr1");
-        }};
-        List<String> watchOnlyStrings = new ArrayList<String>() {{
-            add("addr2");
+        List<LegacyAddress> legacyAddresses = new ArrayList<LegacyAddress>() {{
+            add(legacyAddress("addr0", false));
+            add(legacyAddress("addr1", false));
+            add(legacyAddress("addr2", true));
         }};
-        when(mockPayload.getLegacyAddressStringList()).thenReturn(legacyStrings);
-        when(mockPayload.getWatchOnlyAddressStringList()).thenReturn(watchOnlyStrings);
+        when(mockPayload.getLegacyAddressList()).thenReturn(legacyAddresses);
         when(mPayloadManager.getPayload()).thenReturn(mockPayload);
         // Act
         Pair<HashMap<String, Long>, HashMap<String, Long>> value = mSubject.filterNonChangeAddresses(transaction, tx);
@@ -236,15 +232,12 @@ public class TransactionHelperTest {
         when(transaction.getOutputs()).thenReturn(outputs);
 
         Payload mockPayload = mock(Payload.class);
-        List<String> legacyStrings = new ArrayList<String>() {{
-            add("addr0");
-            add("addr1");
-        }};
-        List<String> watchOnlyStrings = new ArrayList<String>() {{
-            add("addr2");
+        List<LegacyAddress> legacyAddresses = new ArrayList<LegacyAddress>() {{
+            add(legacyAddress("addr0", false));
+            add(legacyAddress("addr1", false));
+            add(legacyAddress("addr2", true));
         }};
-        when(mockPayload.getLegacyAddressStringList()).thenReturn(legacyStrings);
-        when(mockPayload.getWatchOnlyAddressStringList()).thenReturn(watchOnlyStrings);
+        when(mockPayload.getLegacyAddressList()).thenReturn(legacyAddresses);
         when(mPayloadManager.getPayload()).thenReturn(mockPayload);
         when(multiAddrFactory.isOwnHDAddress(anyString())).thenReturn(true);
         // Act
@@ -253,4 +246,11 @@ public class TransactionHelperTest {
         assertEquals(1, value.first.size());
         assertEquals(1, value.second.size());
     }
-}
\ No newline at end of file
+
+    private LegacyAddress legacyAddress(String address, boolean watchOnly) {
+        LegacyAddress legacyAddress = new LegacyAddress();
+        legacyAddress.setAddress(address);
+        legacyAddress.setWatchOnly(watchOnly);
+        return legacyAddress;
+    }
+}
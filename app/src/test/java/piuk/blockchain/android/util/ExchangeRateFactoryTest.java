@@ -0,0 +1,113 @@
+package piuk.blockchain.android.util;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.reactivex.observers.TestObserver;
+import io.reactivex.plugins.RxJavaPlugins;
+import io.reactivex.schedulers.TestScheduler;
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import piuk.blockchain.android.RxTest;
+import piuk.blockchain.android.data.cache.HistoricPriceCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ExchangeRateFactoryTest extends RxTest {
+
+    private ExchangeRateFactory subject;
+    // The ticker returned by the next request
+    private String ticker;
+    @Mock PrefsUtil prefsUtil;
+    @Mock HistoricPriceCache historicPriceCache;
+    @Mock OkHttpClient okHttpClient;
+    @Mock Call call;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        MockitoAnnotations.initMocks(this);
+
+        when(okHttpClient.newCall(any(Request.class))).thenReturn(call);
+        when(call.execute()).thenAnswer(invocation -> createResponse(ticker));
+
+        subject = new ExchangeRateFactory(prefsUtil, historicPriceCache, okHttpClient);
+    }
+
+    @Test
+    public void refreshServesStaleRatesWhileInFlight() throws Exception {
+        // Arrange
+        ticker = createTicker(1000.0D);
+        subject.refresh().test();
+        TestScheduler scheduler = new TestScheduler();
+        RxJavaPlugins.setIoSchedulerHandler(ignored -> scheduler);
+        ticker = createTicker(1200.0D);
+        // Act
+        TestObserver<String> first = subject.refresh().test();
+        TestObserver<String> second = subject.refresh().test();
+        double duringRefresh = subject.getLastPrice("USD");
+        scheduler.triggerActions();
+        // Assert
+        assertEquals(1000.0D, duringRefresh, 0.0D);
+        assertEquals(1200.0D, subject.getLastPrice("USD"), 0.0D);
+        first.assertComplete();
+        second.assertComplete();
+        // The second refresh shared the first's request
+        verify(call, times(2)).execute();
+    }
+
+    @Test
+    public void refreshWritesLastKnownRatesOnce() throws Exception {
+        // Arrange
+        ticker = createTicker(1000.0D);
+        // Act
+        TestObserver<String> observer = subject.refresh().test();
+        // Assert
+        observer.assertComplete();
+        verify(prefsUtil, times(1)).setValues(anyMapOf(String.class, String.class));
+        verify(prefsUtil, never()).setValue(anyString(), anyString());
+    }
+
+    @Test
+    public void refreshFailureKeepsRates() throws Exception {
+        // Arrange
+        ticker = createTicker(1000.0D);
+        subject.refresh().test();
+        when(call.execute()).thenThrow(new RuntimeException());
+        // Act
+        TestObserver<String> observer = subject.refresh().test();
+        // Assert
+        observer.assertError(RuntimeException.class);
+        assertEquals(1000.0D, subject.getLastPrice("USD"), 0.0D);
+        verify(prefsUtil, times(1)).setValues(anyMapOf(String.class, String.class));
+    }
+
+    private static String createTicker(double usdPrice) {
+        return "{\"USD\":{\"15m\":" + usdPrice + ",\"last\":" + usdPrice + ",\"symbol\":\"$\"},"
+                + "\"GBP\":{\"15m\":800.0,\"last\":800.0,\"symbol\":\"£\"}}";
+    }
+
+    private static Response createResponse(String body) {
+        return new Response.Builder()
+                .request(new Request.Builder().url("https://blockchain.info/ticker").build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .body(ResponseBody.create(MediaType.parse("application/json"), body))
+                .build();
+    }
+}